@@ -0,0 +1,76 @@
+package com.facebook.tools.intellij.ijviewer;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+// Attribs.readAttribute and getChildren for random directories, scanning each record's attribute list or
+// going through the AttributeIndex, and decoding every directory's children at once into a ChildrenTable.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AttribsBenchmark {
+  @Param({ "10k", "1M", "5M" })
+  public String scale;
+
+  @Param({ "scan", "index" })
+  public String lookup;
+
+  private IjViewer viewer;
+  private int[] directories;
+
+  @Setup
+  public void setUp() throws IOException {
+    viewer = BenchmarkCaches.open(scale, IjViewer.OpenMode.MAPPED_READ_ONLY);
+    if (lookup.equals("index"))
+      viewer.attribs.buildIndex();
+    directories = BenchmarkCaches.sample(viewer, viewer.records::isDirectory, true);
+  }
+
+  @TearDown
+  public void tearDown() throws IOException {
+    viewer.close();
+  }
+
+  @Benchmark
+  public void readAttribute(Blackhole blackhole) throws IOException {
+    for (int id : directories) {
+      try (DataInputStream input = viewer.attribs.readAttribute(id, IjViewer.ChildrenAttribute.NAME)) {
+        blackhole.consume(input);
+      }
+    }
+  }
+
+  @Benchmark
+  public void getChildren(Blackhole blackhole) throws IOException {
+    for (int id : directories) {
+      blackhole.consume(viewer.attribs.getChildren(id));
+    }
+  }
+
+  @Benchmark
+  @BenchmarkMode(Mode.SingleShotTime)
+  @OutputTimeUnit(TimeUnit.MILLISECONDS)
+  @Warmup(iterations = 2)
+  @Measurement(iterations = 5)
+  public ChildrenTable decodeAllChildren() {
+    return ChildrenTable.decode(viewer);
+  }
+}
@@ -0,0 +1,62 @@
+package com.facebook.tools.intellij.ijviewer;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.function.IntPredicate;
+
+// The synthetic caches benchmarks run against: one cache dir per scale (10k, 1M, 5M) under the directory
+// given by -Dijviewer.benchmark.caches, or ~/.ijcv/benchmark. A scale that isn't there yet is generated with
+// SyntheticCache's default shape, and kept for later runs.
+final class BenchmarkCaches {
+  static final String CACHES_PROPERTY = "ijviewer.benchmark.caches";
+  static final int SAMPLE_SIZE = 4096;
+
+  private BenchmarkCaches() {
+  }
+
+  static File getRoot() {
+    String root = System.getProperty(CACHES_PROPERTY);
+    return root != null ? new File(root) : new File(System.getProperty("user.home"), ".ijcv/benchmark");
+  }
+
+  static File getCacheDir(String scale) throws IOException {
+    File cacheDir = new File(getRoot(), scale);
+    if (!new File(cacheDir, "records.dat").exists()) {
+      SyntheticCache.Shape shape = new SyntheticCache.Shape();
+      shape.records = parseScale(scale);
+      SyntheticCache.generate(cacheDir, shape);
+    }
+    return cacheDir;
+  }
+
+  // 10k, 1M and so on.
+  static int parseScale(String scale) {
+    char unit = Character.toUpperCase(scale.charAt(scale.length() - 1));
+    int multiplier = unit == 'K' ? 1_000 : unit == 'M' ? 1_000_000 : 1;
+    String number = multiplier == 1 ? scale : scale.substring(0, scale.length() - 1);
+    return Math.multiplyExact(Integer.parseInt(number), multiplier);
+  }
+
+  static IjViewer open(String scale, IjViewer.OpenMode mode) throws IOException {
+    return IjViewer.forCacheDir(getCacheDir(scale), mode);
+  }
+
+  // Up to SAMPLE_SIZE random ids of records that match, the same ones on every run. Sorted, unless shuffled.
+  static int[] sample(IjViewer viewer, IntPredicate matches, boolean shuffled) {
+    IjViewer.Records records = viewer.records;
+    int[] ids = new int[SAMPLE_SIZE];
+    int count = 0;
+    Random random = new Random(42);
+    for (int attempt = 0; attempt < SAMPLE_SIZE * 64 && count < ids.length; attempt++) {
+      int id = 1 + random.nextInt(records.getRecordCount() - 1);
+      if (!records.isFlagSet(id, IjViewer.Records.FREE_RECORD_FLAG) && matches.test(id))
+        ids[count++] = id;
+    }
+    ids = Arrays.copyOf(ids, count);
+    if (!shuffled)
+      Arrays.sort(ids);
+    return ids;
+  }
+}
@@ -0,0 +1,64 @@
+package com.facebook.tools.intellij.ijviewer;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// getAddress and getSize on attrib.dat's CompactRecordsTable layout, for records stored directly and for
+// records whose address or size was moved to an indirect record.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CompactRecordsBenchmark {
+  @Param({ "10k", "1M", "5M" })
+  public String scale;
+
+  @Param({ "direct", "indirect" })
+  public String records;
+
+  private MappedStorage storage;
+  private int[] ids;
+
+  @Setup
+  public void setUp() throws IOException {
+    File cacheDir = BenchmarkCaches.getCacheDir(scale);
+    storage = new MappedStorage(new File(cacheDir, "attrib.dat"), MappedStorage.TableLayout.COMPACT);
+
+    boolean indirect = records.equals("indirect");
+    int[] ids = new int[BenchmarkCaches.SAMPLE_SIZE];
+    int count = 0;
+    for (int id = 1; id <= storage.getRecordCount() && count < ids.length; id++) {
+      boolean isIndirect = storage.getIndirectAddressRecord(id) != 0 || storage.getIndirectSizeRecord(id) != 0;
+      if (isIndirect == indirect)
+        ids[count++] = id;
+    }
+    if (count == 0)
+      throw new IllegalStateException("The " + scale + " cache has no " + records + " attrib.dat records");
+    this.ids = Arrays.copyOf(ids, count);
+  }
+
+  @Benchmark
+  public long getAddressAndSize() {
+    long result = 0;
+    for (int id : ids) {
+      result += storage.getAddress(id) + storage.getSize(id);
+    }
+    return result;
+  }
+}
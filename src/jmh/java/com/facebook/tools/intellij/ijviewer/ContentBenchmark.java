@@ -0,0 +1,87 @@
+package com.facebook.tools.intellij.ijviewer;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Reading the cached content of random files: all of it as a stream (readContent) or as a buffer
+// (readContentBuffer), and just the first 4K.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ContentBenchmark {
+  private static final int HEAD_BYTES = 4096;
+
+  @Param({ "10k", "1M", "5M" })
+  public String scale;
+
+  @Param({ "MAPPED_READ_ONLY", "COPY" })
+  public IjViewer.OpenMode mode;
+
+  private IjViewer viewer;
+  private int[] files;
+  private final byte[] buffer = new byte[64 * 1024];
+
+  @Setup
+  public void setUp() throws IOException {
+    viewer = BenchmarkCaches.open(scale, mode);
+    files = BenchmarkCaches.sample(viewer, id -> !viewer.records.isDirectory(id)
+        && viewer.records.getContentId(id) != 0, true);
+  }
+
+  @TearDown
+  public void tearDown() throws IOException {
+    viewer.close();
+  }
+
+  @Benchmark
+  public long readContent() throws IOException {
+    long total = 0;
+    for (int id : files) {
+      try (DataInputStream input = viewer.readContent(id)) {
+        for (int count; (count = input.read(buffer)) > 0;) {
+          total += count;
+        }
+      }
+    }
+    return total;
+  }
+
+  @Benchmark
+  public long readContentBuffer() throws IOException {
+    long total = 0;
+    for (int id : files) {
+      ByteBuffer content = viewer.readContentBuffer(id);
+      total += content.remaining();
+      if (content.hasRemaining())
+        total += content.get(content.limit() / 2);
+    }
+    return total;
+  }
+
+  @Benchmark
+  public long readContentHead() throws IOException {
+    long total = 0;
+    for (int id : files) {
+      total += viewer.readContentBuffer(id, HEAD_BYTES).remaining();
+    }
+    return total;
+  }
+}
@@ -0,0 +1,49 @@
+package com.facebook.tools.intellij.ijviewer;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+// A full size computation, as DiskSizeComputer runs it when there's no current DerivedIndex.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class DiskSizesBenchmark {
+  @Param({ "10k", "1M", "5M" })
+  public String scale;
+
+  @Param({ "MAPPED_READ_ONLY", "COPY" })
+  public IjViewer.OpenMode mode;
+
+  private IjViewer viewer;
+
+  @Setup
+  public void setUp() throws IOException {
+    viewer = BenchmarkCaches.open(scale, mode);
+  }
+
+  @TearDown
+  public void tearDown() throws IOException {
+    viewer.close();
+  }
+
+  @Benchmark
+  public DiskSizes compute() {
+    return DiskSizes.compute(viewer);
+  }
+}
@@ -0,0 +1,63 @@
+package com.facebook.tools.intellij.ijviewer;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+// IjViewer.getName through the LRU cache and through the preloaded pool.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NamesBenchmark {
+  @Param({ "10k", "1M", "5M" })
+  public String scale;
+
+  @Param({ "lru", "pool" })
+  public String nameCache;
+
+  private IjViewer viewer;
+  private int[] ids;
+
+  @Setup
+  public void setUp() throws IOException {
+    viewer = BenchmarkCaches.open(scale, IjViewer.OpenMode.MAPPED_READ_ONLY);
+    if (nameCache.equals("pool"))
+      viewer.preloadNames();
+    ids = BenchmarkCaches.sample(viewer, id -> true, true);
+  }
+
+  @TearDown
+  public void tearDown() throws IOException {
+    viewer.close();
+  }
+
+  @Benchmark
+  public void getName(Blackhole blackhole) throws IOException {
+    for (int id : ids) {
+      blackhole.consume(viewer.getName(id));
+    }
+  }
+
+  @Benchmark
+  public void getPath(Blackhole blackhole) throws IOException {
+    for (int id : ids) {
+      blackhole.consume(viewer.getPath(id));
+    }
+  }
+}
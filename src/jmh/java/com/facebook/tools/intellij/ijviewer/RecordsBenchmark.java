@@ -0,0 +1,82 @@
+package com.facebook.tools.intellij.ijviewer;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Records field access through RecordsView (mapped read only) and ResizeableMappedFile (--copy).
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RecordsBenchmark {
+  @Param({ "10k", "1M", "5M" })
+  public String scale;
+
+  @Param({ "MAPPED_READ_ONLY", "COPY" })
+  public IjViewer.OpenMode mode;
+
+  private IjViewer viewer;
+  private int[] ids;
+
+  @Setup
+  public void setUp() throws IOException {
+    viewer = BenchmarkCaches.open(scale, mode);
+    ids = BenchmarkCaches.sample(viewer, id -> true, true);
+  }
+
+  @TearDown
+  public void tearDown() throws IOException {
+    viewer.close();
+  }
+
+  // Every record's parent, flags and content id, in order.
+  @Benchmark
+  @BenchmarkMode(Mode.SingleShotTime)
+  @OutputTimeUnit(TimeUnit.MILLISECONDS)
+  @Warmup(iterations = 2)
+  @Measurement(iterations = 5)
+  public long scanAll() {
+    IjViewer.Records records = viewer.records;
+    long result = 0;
+    for (int id = 1; id < records.getRecordCount(); id++) {
+      result += records.getParentId(id) + records.getFlags(id) + records.getContentId(id);
+    }
+    return result;
+  }
+
+  // The same fields for records in random order.
+  @Benchmark
+  public long randomAccess() {
+    IjViewer.Records records = viewer.records;
+    long result = 0;
+    for (int id : ids) {
+      result += records.getParentId(id) + records.getFlags(id) + records.getContentId(id);
+    }
+    return result;
+  }
+
+  @Benchmark
+  public long randomLengthAndTimestamp() {
+    IjViewer.Records records = viewer.records;
+    long result = 0;
+    for (int id : ids) {
+      result += records.getLength(id) + records.getTimestamp(id);
+    }
+    return result;
+  }
+}
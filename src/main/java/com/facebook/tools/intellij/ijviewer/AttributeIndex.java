@@ -0,0 +1,197 @@
+package com.facebook.tools.intellij.ijviewer;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+// Where every record's attributes live in attrib.dat, built in one pass so that reading an attribute no
+// longer means walking the record's attribute list.
+//
+// Each record's attribute record is a list of (attrId, addressOrSize) varint pairs. Values under
+// MAX_SMALL_ATTR_SIZE are the size of an attribute stored inline, right after the pair; larger values
+// are MAX_SMALL_ATTR_SIZE plus the storage record holding the attribute.
+//
+// Entries are kept in CSR form: recordOffsets[id] to recordOffsets[id + 1] index into attrIds and locations.
+// A location >= 0 is an inline attribute, (address in attrib.dat.storageData << 6) | size. A negative
+// location is -(storage record + 1), so that storage record 0 (no attribute) can't be mistaken for an empty
+// inline attribute at address 0.
+//
+// That's 12 bytes an attribute, which on a cache whose files have several attributes each can be more than
+// the rest of the viewer put together. So the entries are counted first, and the index is only built, with
+// arrays of exactly the right size, if it fits in MAX_INDEX_BYTES. Otherwise attributes are read by walking
+// each record's list, as they were before there was an index.
+public final class AttributeIndex {
+  static final int MAX_SMALL_ATTR_SIZE = 64;
+  private static final int INLINE_SIZE_BITS = 6;
+  private static final long MB = 1024 * 1024;
+  static final long MAX_INDEX_BYTES = Long.getLong("ijviewer.attributeIndexMb",
+      Runtime.getRuntime().maxMemory() / 4 / MB) * MB;
+  private static final int ENTRY_BYTES = Integer.BYTES + Long.BYTES;
+
+  private final MappedStorage storage;
+  private final int[] recordOffsets;
+  private final int[] attrIds;
+  private final long[] locations;
+
+  private AttributeIndex(MappedStorage storage, int[] recordOffsets, int[] attrIds, long[] locations) {
+    this.storage = storage;
+    this.recordOffsets = recordOffsets;
+    this.attrIds = attrIds;
+    this.locations = locations;
+  }
+
+  // Returns null if the index would take more than MAX_INDEX_BYTES.
+  static AttributeIndex build(IjViewer.Records records, MappedStorage storage) {
+    int recordCount = records.getRecordCount();
+    long entryCount = countEntries(records, storage);
+    if (entryCount > Integer.MAX_VALUE - 8
+        || (recordCount + 1L) * Integer.BYTES + entryCount * ENTRY_BYTES > MAX_INDEX_BYTES)
+      return null;
+
+    int[] recordOffsets = new int[recordCount + 1];
+    int[] attrIds = new int[(int) entryCount];
+    long[] locations = new long[(int) entryCount];
+    int count = 0;
+
+    for (int id = 0; id < recordCount; id++) {
+      recordOffsets[id] = count;
+      int attributeRecordId = id == 0 ? 0 : records.getAttributeRecordId(id);
+      if (attributeRecordId <= 0 || attributeRecordId > storage.getRecordCount())
+        continue;
+
+      long address = storage.getAddress(attributeRecordId);
+      ByteBuffer attrRefs = storage.slice(attributeRecordId);
+      try {
+        while (attrRefs.hasRemaining() && count < attrIds.length) {
+          int attrId = VarInt.read(attrRefs);
+          int addressOrSize = VarInt.read(attrRefs);
+
+          attrIds[count] = attrId;
+          if (addressOrSize < MAX_SMALL_ATTR_SIZE) {
+            locations[count] = ((address + attrRefs.position()) << INLINE_SIZE_BITS) | addressOrSize;
+            attrRefs.position(attrRefs.position() + addressOrSize);
+          } else {
+            locations[count] = -(addressOrSize - MAX_SMALL_ATTR_SIZE + 1L);
+          }
+          count++;
+        }
+      } catch (BufferUnderflowException | IllegalArgumentException e) {
+        // A truncated attribute record. Keep whatever was read before the damage.
+      }
+    }
+    recordOffsets[recordCount] = count;
+
+    return new AttributeIndex(storage, recordOffsets, attrIds, locations);
+  }
+
+  // The same walk as build, without storing anything.
+  private static long countEntries(IjViewer.Records records, MappedStorage storage) {
+    int recordCount = records.getRecordCount();
+    long count = 0;
+    for (int id = 1; id < recordCount; id++) {
+      int attributeRecordId = records.getAttributeRecordId(id);
+      if (attributeRecordId <= 0 || attributeRecordId > storage.getRecordCount())
+        continue;
+
+      ByteBuffer attrRefs = storage.slice(attributeRecordId);
+      try {
+        while (attrRefs.hasRemaining()) {
+          VarInt.read(attrRefs);
+          int addressOrSize = VarInt.read(attrRefs);
+          if (addressOrSize < MAX_SMALL_ATTR_SIZE)
+            attrRefs.position(attrRefs.position() + addressOrSize);
+          count++;
+        }
+      } catch (BufferUnderflowException | IllegalArgumentException e) {
+        // Counted up to the damage, as build reads it.
+      }
+    }
+    return count;
+  }
+
+  public int getEntryCount() {
+    return attrIds.length;
+  }
+
+  // Returns a read-only view of the attribute, or null if the record doesn't have it.
+  public ByteBuffer read(int recordId, int attrId) {
+    int entry = find(recordId, attrId);
+    return entry < 0 ? null : slice(locations[entry]);
+  }
+
+  // The entry for the record's attribute, or -1 if it doesn't have it. With getAddress and getSize, this
+  // locates an attribute without creating a buffer.
+  int find(int recordId, int attrId) {
+    if (recordId < 0 || recordId + 1 >= recordOffsets.length)
+      return -1;
+    for (int i = recordOffsets[recordId]; i < recordOffsets[recordId + 1]; i++) {
+      if (attrIds[i] == attrId)
+        return i;
+    }
+    return -1;
+  }
+
+  // Where the entry's attribute starts in attrib.dat.storageData.
+  long getAddress(int entry) {
+    long location = locations[entry];
+    if (location >= 0)
+      return location >>> INLINE_SIZE_BITS;
+    int page = getPage(location);
+    return page == 0 ? 0 : storage.getAddress(page);
+  }
+
+  int getSize(int entry) {
+    long location = locations[entry];
+    if (location >= 0)
+      return (int) (location & (MAX_SMALL_ATTR_SIZE - 1));
+    int page = getPage(location);
+    return page == 0 ? 0 : storage.getSize(page);
+  }
+
+  MappedStorage getStorage() {
+    return storage;
+  }
+
+  private ByteBuffer slice(long location) {
+    if (location >= 0) {
+      return storage.sliceData(location >>> INLINE_SIZE_BITS, (int) (location & (MAX_SMALL_ATTR_SIZE - 1)));
+    }
+    int page = getPage(location);
+    return page == 0 ? null : storage.slice(page);
+  }
+
+  private static int getPage(long location) {
+    return (int) (-location - 1);
+  }
+
+  // The ids of the record's attributes, in the order they're stored.
+  public int[] getAttributeIds(int recordId) {
+    if (recordId < 0 || recordId + 1 >= recordOffsets.length)
+      return new int[0];
+    return Arrays.copyOfRange(attrIds, recordOffsets[recordId], recordOffsets[recordId + 1]);
+  }
+
+  public boolean hasAttribute(int recordId, int attrId) {
+    if (recordId < 0 || recordId + 1 >= recordOffsets.length)
+      return false;
+    for (int i = recordOffsets[recordId]; i < recordOffsets[recordId + 1]; i++) {
+      if (attrIds[i] == attrId)
+        return true;
+    }
+    return false;
+  }
+
+  // Every record that has the attribute, in id order.
+  public int[] getRecordsWithAttribute(int attrId) {
+    int[] result = new int[16];
+    int count = 0;
+    for (int id = 0; id + 1 < recordOffsets.length; id++) {
+      if (hasAttribute(id, attrId)) {
+        if (count == result.length)
+          result = Arrays.copyOf(result, count * 2);
+        result[count++] = id;
+      }
+    }
+    return Arrays.copyOf(result, count);
+  }
+}
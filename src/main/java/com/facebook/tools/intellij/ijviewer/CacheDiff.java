@@ -0,0 +1,489 @@
+package com.facebook.tools.intellij.ijviewer;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+import java.util.stream.IntStream;
+
+import gnu.trove.TIntArrayList;
+
+// What changed between two snapshots of the same VFS, say from before and after a Gradle sync.
+//
+// Records are matched by path. Every live record's path is hashed to a long, bottom up from hashes of its
+// ancestors' names, and each cache's ids are radix sorted by path hash, so matching is one merge of two
+// sorted primitive columns rather than a walk over two trees. Records only in one cache are added or
+// removed, unless the other cache has a live record with the same id that kept its name or its parent, in
+// which case it was moved (or renamed), as the VFS keeps a file's id when it moves. Matched files whose
+// stored content differs in length, or in the hash of the inflated bytes, have changed content. Matched
+// directories whose subtree size changed report the change, so every ancestor of a change reports its
+// share.
+//
+// A path can belong to more than one live record in a corrupt or racy snapshot. Such runs of equal hashes
+// are matched up by id first, since a file keeps its id, then in id order, and whatever is left over on one
+// side is added or removed. The path itself is reported as DUPLICATE_PATH, with how many records have it in
+// each cache.
+//
+// Changes are streamed to a listener as they're found: duplicate paths, flag, size and content length
+// changes during the merge, then content that was hashed, then moves, removals and additions.
+public final class CacheDiff {
+  private static final int PROGRESS_INTERVAL = 1 << 16;
+  // Guards path hashing against cycles in corrupt caches.
+  private static final int MAX_PATH_DEPTH = 4096;
+  private static final long ROOT_HASH = 0x5DEECE66DL;
+
+  public enum Kind {
+    ADDED, REMOVED, MOVED, CONTENT_CHANGED, FLAGS_CHANGED, SIZE_CHANGED, DUPLICATE_PATH
+  }
+
+  public static final class Change {
+    public final Kind kind;
+    // 0 for added records.
+    public final int beforeId;
+    // 0 for removed records.
+    public final int afterId;
+    // The path in the after cache, or in the before cache for removed records.
+    public final String path;
+    // Only for moved records.
+    public final String beforePath;
+    // Flags for FLAGS_CHANGED, stored content lengths (-1 for none) for CONTENT_CHANGED, the number of live
+    // records with the path for DUPLICATE_PATH, and subtree sizes otherwise.
+    public final long before;
+    public final long after;
+
+    Change(Kind kind, int beforeId, int afterId, String path, String beforePath, long before, long after) {
+      this.kind = kind;
+      this.beforeId = beforeId;
+      this.afterId = afterId;
+      this.path = path;
+      this.beforePath = beforePath;
+      this.before = before;
+      this.after = after;
+    }
+  }
+
+  public interface Listener {
+    void onChange(Change change) throws IOException;
+  }
+
+  public interface ProgressListener {
+    void onProgress(String phase, long done, long total);
+  }
+
+  public static final class Summary {
+    private final long[] counts = new long[Kind.values().length];
+    public long bytesBefore;
+    public long bytesAfter;
+
+    public long getCount(Kind kind) {
+      return counts[kind.ordinal()];
+    }
+
+    public void write(ReportWriter out) throws IOException {
+      out.beginSection("summary", "metric", "value");
+      for (Kind kind : Kind.values()) {
+        out.row(kind.name().toLowerCase(), getCount(kind));
+      }
+      out.row("bytesBefore", bytesBefore);
+      out.row("bytesAfter", bytesAfter);
+      out.endSection();
+    }
+  }
+
+  private final IjViewer before;
+  private final IjViewer after;
+  private final BooleanSupplier cancelled;
+  private final Listener listener;
+  private final ProgressListener progress;
+  private final Summary summary = new Summary();
+
+  private CacheDiff(IjViewer before, IjViewer after, BooleanSupplier cancelled, Listener listener,
+      ProgressListener progress) {
+    this.before = before;
+    this.after = after;
+    this.cancelled = cancelled;
+    this.listener = listener;
+    this.progress = progress;
+  }
+
+  public static Summary diff(IjViewer before, IjViewer after, BooleanSupplier cancelled, Listener listener,
+      ProgressListener progress) throws IOException {
+    CacheDiff diff = new CacheDiff(before, after, cancelled, listener, progress);
+    diff.run();
+    return diff.summary;
+  }
+
+  private void run() throws IOException {
+    long[] beforeHashes = hashPaths(before, "Hashing paths before");
+    long[] afterHashes = hashPaths(after, "Hashing paths after");
+    int[] beforeOrder = sortByHash(beforeHashes);
+    int[] afterOrder = sortByHash(afterHashes);
+
+    DiskSizes beforeSizes = DiskSizes.compute(before, cancelled, (scanned, count, bytes) -> {
+      progress.onProgress("Sizing before", scanned, count);
+    });
+    DiskSizes afterSizes = DiskSizes.compute(after, cancelled, (scanned, count, bytes) -> {
+      progress.onProgress("Sizing after", scanned, count);
+    });
+    for (int id = 1; id < before.records.getRecordCount(); id++) {
+      if (before.records.getParentId(id) == 0 && isLive(before.records, id))
+        summary.bytesBefore += Math.max(0, beforeSizes.getSize(id));
+    }
+    for (int id = 1; id < after.records.getRecordCount(); id++) {
+      if (after.records.getParentId(id) == 0 && isLive(after.records, id))
+        summary.bytesAfter += Math.max(0, afterSizes.getSize(id));
+    }
+
+    // Merge by path hash.
+    TIntArrayList onlyBefore = new TIntArrayList();
+    TIntArrayList onlyAfter = new TIntArrayList();
+    TIntArrayList toHash = new TIntArrayList(); // before and after ids, interleaved
+    int total = beforeOrder.length + afterOrder.length;
+    int i = 0;
+    int j = 0;
+    int lastProgress = 0;
+    while (i < beforeOrder.length || j < afterOrder.length) {
+      if (i + j - lastProgress >= PROGRESS_INTERVAL) {
+        lastProgress = i + j;
+        checkCancelled();
+        progress.onProgress("Matching paths", i + j, total);
+      }
+      int c = i == beforeOrder.length ? 1 : j == afterOrder.length ? -1
+          : Long.compareUnsigned(beforeHashes[beforeOrder[i]], afterHashes[afterOrder[j]]);
+      int beforeEnd = c <= 0 ? getRunEnd(beforeOrder, beforeHashes, i) : i;
+      int afterEnd = c >= 0 ? getRunEnd(afterOrder, afterHashes, j) : j;
+      if (beforeEnd - i == 1 && afterEnd - j == 1) {
+        compare(beforeOrder[i], afterOrder[j], beforeSizes, afterSizes, toHash);
+      } else if (beforeEnd - i <= 1 && afterEnd - j <= 1) {
+        if (beforeEnd > i)
+          onlyBefore.add(beforeOrder[i]);
+        if (afterEnd > j)
+          onlyAfter.add(afterOrder[j]);
+      } else {
+        matchDuplicates(Arrays.copyOfRange(beforeOrder, i, beforeEnd), Arrays.copyOfRange(afterOrder, j, afterEnd),
+            beforeSizes, afterSizes, toHash, onlyBefore, onlyAfter);
+      }
+      i = beforeEnd;
+      j = afterEnd;
+    }
+    progress.onProgress("Matching paths", total, total);
+
+    compareContent(toHash);
+    reportUnmatched(onlyBefore, onlyAfter, beforeSizes, afterSizes);
+  }
+
+  // The end of the run of ids starting at start that share its path hash.
+  private static int getRunEnd(int[] order, long[] hashes, int start) {
+    int end = start + 1;
+    while (end < order.length && hashes[order[end]] == hashes[order[start]]) {
+      end++;
+    }
+    return end;
+  }
+
+  // Records that share a path in at least one of the caches. Ids are ascending within each side, as the radix
+  // sort is stable.
+  private void matchDuplicates(int[] beforeIds, int[] afterIds, DiskSizes beforeSizes, DiskSizes afterSizes,
+      TIntArrayList toHash, TIntArrayList onlyBefore, TIntArrayList onlyAfter) throws IOException {
+    report(Kind.DUPLICATE_PATH, beforeIds.length > 0 ? beforeIds[0] : 0, afterIds.length > 0 ? afterIds[0] : 0,
+        null, beforeIds.length, afterIds.length);
+
+    // The same record in both, then whatever's left in id order.
+    TIntArrayList leftBefore = new TIntArrayList();
+    TIntArrayList leftAfter = new TIntArrayList();
+    int i = 0;
+    int j = 0;
+    while (i < beforeIds.length || j < afterIds.length) {
+      if (j == afterIds.length || (i < beforeIds.length && beforeIds[i] < afterIds[j])) {
+        leftBefore.add(beforeIds[i++]);
+      } else if (i == beforeIds.length || afterIds[j] < beforeIds[i]) {
+        leftAfter.add(afterIds[j++]);
+      } else {
+        compare(beforeIds[i++], afterIds[j++], beforeSizes, afterSizes, toHash);
+      }
+    }
+    int paired = Math.min(leftBefore.size(), leftAfter.size());
+    for (int k = 0; k < paired; k++) {
+      compare(leftBefore.get(k), leftAfter.get(k), beforeSizes, afterSizes, toHash);
+    }
+    for (int k = paired; k < leftBefore.size(); k++) {
+      onlyBefore.add(leftBefore.get(k));
+    }
+    for (int k = paired; k < leftAfter.size(); k++) {
+      onlyAfter.add(leftAfter.get(k));
+    }
+  }
+
+  private void compare(int beforeId, int afterId, DiskSizes beforeSizes, DiskSizes afterSizes, TIntArrayList toHash)
+      throws IOException {
+    int beforeFlags = before.records.getFlags(beforeId);
+    int afterFlags = after.records.getFlags(afterId);
+    if (beforeFlags != afterFlags)
+      report(Kind.FLAGS_CHANGED, beforeId, afterId, null, beforeFlags, afterFlags);
+
+    if (after.records.isDirectory(afterId)) {
+      long beforeSize = beforeSizes.getSize(beforeId);
+      long afterSize = afterSizes.getSize(afterId);
+      if (beforeSize != afterSize)
+        report(Kind.SIZE_CHANGED, beforeId, afterId, null, beforeSize, afterSize);
+      return;
+    }
+
+    long beforeLength = getContentLength(before, beforeId);
+    long afterLength = getContentLength(after, afterId);
+    if (beforeLength != afterLength) {
+      report(Kind.CONTENT_CHANGED, beforeId, afterId, null, beforeLength, afterLength);
+    } else if (beforeLength > 0) {
+      toHash.add(beforeId);
+      toHash.add(afterId);
+    }
+  }
+
+  // Hashes the content of every matched pair of files whose stored lengths are the same, in parallel, then
+  // reports the pairs whose hashes differ.
+  private void compareContent(TIntArrayList pairs) throws IOException {
+    int pairCount = pairs.size() / 2;
+    BitSet changed = new BitSet(pairCount);
+    AtomicInteger hashed = new AtomicInteger();
+    try {
+      IntStream.range(0, pairCount).parallel().forEach(pair -> {
+        if (cancelled.getAsBoolean())
+          throw new CancellationException();
+        try {
+          int beforeId = pairs.get(pair * 2);
+          int afterId = pairs.get(pair * 2 + 1);
+          long beforeHash = hashContent(before, before.records.getContentId(beforeId));
+          long afterHash = hashContent(after, after.records.getContentId(afterId));
+          if (beforeHash != afterHash) {
+            synchronized (changed) {
+              changed.set(pair);
+            }
+          }
+        } catch (IOException e) {
+          throw new UncheckedIOException(e);
+        }
+        int count = hashed.incrementAndGet();
+        if (count % (PROGRESS_INTERVAL / 16) == 0)
+          progress.onProgress("Comparing content", count, pairCount);
+      });
+    } catch (UncheckedIOException e) {
+      throw e.getCause();
+    }
+
+    for (int pair = changed.nextSetBit(0); pair >= 0; pair = changed.nextSetBit(pair + 1)) {
+      int beforeId = pairs.get(pair * 2);
+      int afterId = pairs.get(pair * 2 + 1);
+      report(Kind.CONTENT_CHANGED, beforeId, afterId, null, getContentLength(before, beforeId),
+          getContentLength(after, afterId));
+    }
+  }
+
+  private void reportUnmatched(TIntArrayList onlyBefore, TIntArrayList onlyAfter, DiskSizes beforeSizes,
+      DiskSizes afterSizes) throws IOException {
+    BitSet removed = new BitSet();
+    for (int i = 0; i < onlyBefore.size(); i++) {
+      removed.set(onlyBefore.get(i));
+    }
+
+    // Same id in both, with the same kind of record and either the same name or the same parent.
+    BitSet moved = new BitSet();
+    for (int i = 0; i < onlyAfter.size(); i++) {
+      int id = onlyAfter.get(i);
+      if (removed.get(id) && before.records.isDirectory(id) == after.records.isDirectory(id)
+          && (hasSameName(id) || before.records.getParentId(id) == after.records.getParentId(id)))
+        moved.set(id);
+    }
+
+    checkCancelled();
+    for (int id = moved.nextSetBit(0); id >= 0; id = moved.nextSetBit(id + 1)) {
+      // Children that moved along with their parent are implied by it.
+      int parentId = after.records.getParentId(id);
+      if (parentId == before.records.getParentId(id) && moved.get(parentId))
+        continue;
+      report(Kind.MOVED, id, id, before.getPath(id), beforeSizes.getSize(id), afterSizes.getSize(id));
+    }
+    for (int i = 0; i < onlyBefore.size(); i++) {
+      int id = onlyBefore.get(i);
+      if (!moved.get(id))
+        report(Kind.REMOVED, id, 0, null, beforeSizes.getSize(id), 0);
+    }
+    for (int i = 0; i < onlyAfter.size(); i++) {
+      int id = onlyAfter.get(i);
+      if (!moved.get(id))
+        report(Kind.ADDED, 0, id, null, 0, afterSizes.getSize(id));
+    }
+  }
+
+  private void report(Kind kind, int beforeId, int afterId, String beforePath, long beforeValue,
+      long afterValue) throws IOException {
+    summary.counts[kind.ordinal()]++;
+    String path = afterId != 0 ? after.getPath(afterId) : before.getPath(beforeId);
+    listener.onChange(new Change(kind, beforeId, afterId, path, beforePath, beforeValue, afterValue));
+  }
+
+  private boolean hasSameName(int id) throws IOException {
+    String beforeName = before.getName(id);
+    return beforeName != null && beforeName.equals(after.getName(id));
+  }
+
+  private void checkCancelled() {
+    if (cancelled.getAsBoolean())
+      throw new CancellationException();
+  }
+
+  // The hash of every live record's path, indexed by id, or 0 for free records.
+  private long[] hashPaths(IjViewer viewer, String phase) throws IOException {
+    IjViewer.Records records = viewer.records;
+    int recordCount = records.getRecordCount();
+
+    // Names are hashed once per distinct name id.
+    int[] nameIds = new int[recordCount];
+    for (int id = 1; id < recordCount; id++) {
+      nameIds[id] = records.getNameId(id);
+    }
+    Arrays.sort(nameIds);
+    int nameCount = 0;
+    for (int nameId : nameIds) {
+      if (nameCount == 0 || nameId != nameIds[nameCount - 1])
+        nameIds[nameCount++] = nameId;
+    }
+    nameIds = Arrays.copyOf(nameIds, nameCount);
+    long[] nameHashes = new long[nameCount];
+    NameCache names = viewer.getNameCache();
+    for (int i = 0; i < nameCount; i++) {
+      if (i % PROGRESS_INTERVAL == 0) {
+        checkCancelled();
+        progress.onProgress(phase, i, nameCount + (long) recordCount);
+      }
+      nameHashes[i] = nameIds[i] == 0 ? 0 : hashName(names.get(nameIds[i]));
+    }
+
+    long[] pathHashes = new long[recordCount];
+    int[] chain = new int[64];
+    for (int id = 1; id < recordCount; id++) {
+      if (id % PROGRESS_INTERVAL == 0) {
+        checkCancelled();
+        progress.onProgress(phase, nameCount + (long) id, nameCount + (long) recordCount);
+      }
+      if (pathHashes[id] != 0 || !isLive(records, id))
+        continue;
+
+      // Walk up to the first ancestor whose path is already hashed, then hash back down.
+      int length = 0;
+      for (int current = id; current > 0 && current < recordCount && pathHashes[current] == 0
+          && length < MAX_PATH_DEPTH; current = records.getParentId(current)) {
+        if (length == chain.length)
+          chain = Arrays.copyOf(chain, length * 2);
+        chain[length++] = current;
+      }
+      int top = records.getParentId(chain[length - 1]);
+      long hash = top > 0 && top < recordCount && pathHashes[top] != 0 ? pathHashes[top] : ROOT_HASH;
+      for (int i = length - 1; i >= 0; i--) {
+        hash = mix(hash, nameHashes[Arrays.binarySearch(nameIds, records.getNameId(chain[i]))]);
+        pathHashes[chain[i]] = hash;
+      }
+    }
+
+    // Ancestors were hashed even if they're free, to give their live descendants the right paths.
+    for (int id = 1; id < recordCount; id++) {
+      if (!isLive(records, id))
+        pathHashes[id] = 0;
+    }
+    return pathHashes;
+  }
+
+  // The ids with a non zero hash, in unsigned hash order, by an LSD radix sort on 16 bit digits.
+  private static int[] sortByHash(long[] hashes) {
+    int count = 0;
+    for (long hash : hashes) {
+      if (hash != 0)
+        count++;
+    }
+    long[] keys = new long[count];
+    int[] ids = new int[count];
+    count = 0;
+    for (int id = 0; id < hashes.length; id++) {
+      if (hashes[id] != 0) {
+        keys[count] = hashes[id];
+        ids[count++] = id;
+      }
+    }
+
+    long[] sortedKeys = new long[count];
+    int[] sortedIds = new int[count];
+    int[] starts = new int[(1 << 16) + 1];
+    for (int shift = 0; shift < 64; shift += 16) {
+      Arrays.fill(starts, 0);
+      for (long key : keys) {
+        starts[(int) (key >>> shift & 0xFFFF) + 1]++;
+      }
+      for (int digit = 0; digit < 1 << 16; digit++) {
+        starts[digit + 1] += starts[digit];
+      }
+      for (int i = 0; i < count; i++) {
+        int position = starts[(int) (keys[i] >>> shift & 0xFFFF)]++;
+        sortedKeys[position] = keys[i];
+        sortedIds[position] = ids[i];
+      }
+      long[] swapKeys = keys;
+      keys = sortedKeys;
+      sortedKeys = swapKeys;
+      int[] swapIds = ids;
+      ids = sortedIds;
+      sortedIds = swapIds;
+    }
+    return ids;
+  }
+
+  private static boolean isLive(IjViewer.Records records, int id) {
+    return !records.isFlagSet(id, IjViewer.Records.FREE_RECORD_FLAG);
+  }
+
+  // The stored length of the file's content, or -1 if it has none.
+  private static long getContentLength(IjViewer viewer, int fileId) throws IOException {
+    int contentId = viewer.records.getContentId(fileId);
+    if (contentId <= 0 || contentId > viewer.content.getRecordCount())
+      return -1;
+    return viewer.content.getContentLength(contentId);
+  }
+
+  private static long hashContent(IjViewer viewer, int contentId) throws IOException {
+    // Mapped and inflated content don't share a byte order.
+    ByteBuffer content = viewer.content.read(contentId).order(ByteOrder.BIG_ENDIAN);
+    int start = content.position();
+    int length = content.remaining();
+    long hash = length;
+    int i = 0;
+    for (; i + 8 <= length; i += 8) {
+      hash = mix(hash, content.getLong(start + i));
+    }
+    for (; i < length; i++) {
+      hash = mix(hash, content.get(start + i));
+    }
+    return hash;
+  }
+
+  private static long hashName(String name) {
+    if (name == null)
+      return 0;
+    long hash = 0xCBF29CE484222325L;
+    for (int i = 0; i < name.length(); i++) {
+      hash = (hash ^ name.charAt(i)) * 0x100000001B3L;
+    }
+    return hash;
+  }
+
+  // Never 0, which marks records without a path hash.
+  private static long mix(long hash, long value) {
+    long h = hash * 0x9E3779B97F4A7C15L + value;
+    h ^= h >>> 32;
+    h *= 0xD6E8FEB86659FD93L;
+    h ^= h >>> 32;
+    return h != 0 ? h : 1;
+  }
+}
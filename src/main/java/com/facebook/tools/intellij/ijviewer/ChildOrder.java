@@ -0,0 +1,79 @@
+package com.facebook.tools.intellij.ijviewer;
+
+import java.io.IOException;
+
+// The order children are displayed in: directories first, then by name. Each child's name is decoded once up
+// front, and the ids are sorted as a primitive array against those keys.
+public final class ChildOrder {
+  private ChildOrder() {
+  }
+
+  // Sorts ids in place, and returns their names in the same order.
+  public static String[] sort(IjViewer viewer, int[] ids) {
+    int count = ids.length;
+    boolean[] directories = new boolean[count];
+    String[] names = new String[count];
+    int[] keys = new int[count]; // index into directories/names
+    for (int i = 0; i < count; i++) {
+      int id = ids[i];
+      directories[i] = viewer.records.isDirectory(id);
+      try {
+        names[i] = viewer.getName(id);
+      } catch (IOException e) {
+        names[i] = "";
+      }
+      keys[i] = i;
+    }
+
+    mergeSort(keys, new int[count], 0, count, directories, names);
+
+    int[] sortedIds = new int[count];
+    String[] sortedNames = new String[count];
+    for (int i = 0; i < count; i++) {
+      sortedIds[i] = ids[keys[i]];
+      sortedNames[i] = names[keys[i]];
+    }
+    System.arraycopy(sortedIds, 0, ids, 0, count);
+    return sortedNames;
+  }
+
+  private static int compare(int a, int b, boolean[] directories, String[] names) {
+    if (directories[a] != directories[b])
+      return directories[a] ? -1 : 1;
+    return names[a].compareTo(names[b]);
+  }
+
+  // Stable, like the List.sort it replaces.
+  private static void mergeSort(int[] keys, int[] scratch, int from, int to, boolean[] directories,
+      String[] names) {
+    if (to - from < 16) {
+      for (int i = from + 1; i < to; i++) {
+        int key = keys[i];
+        int j = i - 1;
+        while (j >= from && compare(keys[j], key, directories, names) > 0) {
+          keys[j + 1] = keys[j];
+          j--;
+        }
+        keys[j + 1] = key;
+      }
+      return;
+    }
+
+    int middle = (from + to) >>> 1;
+    mergeSort(keys, scratch, from, middle, directories, names);
+    mergeSort(keys, scratch, middle, to, directories, names);
+    if (compare(keys[middle - 1], keys[middle], directories, names) <= 0)
+      return;
+
+    System.arraycopy(keys, from, scratch, from, to - from);
+    int left = from;
+    int right = middle;
+    for (int i = from; i < to; i++) {
+      if (right >= to || left < middle && compare(scratch[left], scratch[right], directories, names) <= 0) {
+        keys[i] = scratch[left++];
+      } else {
+        keys[i] = scratch[right++];
+      }
+    }
+  }
+}
@@ -0,0 +1,126 @@
+package com.facebook.tools.intellij.ijviewer;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.concurrent.CancellationException;
+import java.util.function.BooleanSupplier;
+
+// Every directory's children, decoded in one pass straight from the mapped attrib.dat into a single CSR
+// table: the children of id are ids[offsets[id]] to ids[offsets[id + 1] - 1].
+//
+// Attribs.getChildren allocates a ChildrenAttribute, a buffer and an int[] per directory. This locates each
+// children attribute through the AttributeIndex and reads its varints with one reusable cursor, so after the
+// two arrays (which only grow by doubling) nothing is allocated per directory, and walking the whole tree
+// through getStart/getEnd/getChild allocates nothing at all.
+public final class ChildrenTable {
+  private static final int CANCEL_CHECK_INTERVAL = 1 << 16;
+
+  private final int[] offsets;
+  private final int[] ids;
+  private final BitSet unreadable;
+
+  ChildrenTable(int[] offsets, int[] ids, BitSet unreadable) {
+    this.offsets = offsets;
+    this.ids = ids;
+    this.unreadable = unreadable;
+  }
+
+  // Returns null unless attrib.dat is mapped. Builds the attribute index first if need be.
+  public static ChildrenTable decode(IjViewer viewer) {
+    return decode(viewer, () -> false);
+  }
+
+  public static ChildrenTable decode(IjViewer viewer, BooleanSupplier cancelled) {
+    AttributeIndex index = viewer.attribs.getIndex();
+    if (index == null)
+      index = viewer.attribs.buildIndex();
+    if (index == null)
+      return null;
+
+    IjViewer.Records records = viewer.records;
+    int recordCount = records.getRecordCount();
+    int childrenAttrId = viewer.attribs.getAttributeId(IjViewer.ChildrenAttribute.NAME);
+    VarInt.Cursor cursor = new VarInt.Cursor(index.getStorage());
+    int[] offsets = new int[recordCount + 1];
+    int[] ids = new int[Math.max(16, recordCount)];
+    BitSet unreadable = new BitSet();
+    int count = 0;
+
+    for (int id = 0; id < recordCount; id++) {
+      offsets[id] = count;
+      if (id % CANCEL_CHECK_INTERVAL == 0 && cancelled.getAsBoolean())
+        throw new CancellationException();
+      if (id == 0 || !records.isDirectory(id) || records.isFlagSet(id, IjViewer.Records.FREE_RECORD_FLAG))
+        continue;
+
+      int entry = index.find(id, childrenAttrId);
+      if (entry < 0 || index.getSize(entry) <= 0)
+        continue;
+
+      try {
+        cursor.position = index.getAddress(entry);
+        long end = cursor.position + index.getSize(entry);
+        int childCount = cursor.read();
+        if (childCount < 0 || count + (long) childCount > Integer.MAX_VALUE - 8)
+          throw new IllegalStateException("Bad child count " + childCount);
+        if (count + childCount > ids.length)
+          ids = Arrays.copyOf(ids, (int) Math.min(Integer.MAX_VALUE - 8,
+              Math.max(ids.length * 2L, count + (long) childCount)));
+
+        // Ids are stored as deltas, starting from the directory's own id.
+        int previous = id;
+        for (int i = 0; i < childCount; i++) {
+          if (cursor.position >= end)
+            throw new IllegalStateException("Children attribute is truncated");
+          previous += cursor.read();
+          ids[count + i] = previous;
+        }
+        count += childCount;
+      } catch (RuntimeException e) {
+        // Leave the directory empty, and remember why.
+        unreadable.set(id);
+      }
+    }
+    offsets[recordCount] = count;
+
+    return new ChildrenTable(offsets, Arrays.copyOf(ids, count), unreadable);
+  }
+
+  public int getRecordCount() {
+    return offsets.length - 1;
+  }
+
+  public int getChildCount(int fileId) {
+    return offsets[fileId + 1] - offsets[fileId];
+  }
+
+  // The children of fileId are getChild(getStart(fileId)) to getChild(getEnd(fileId) - 1).
+  public int getStart(int fileId) {
+    return offsets[fileId];
+  }
+
+  public int getEnd(int fileId) {
+    return offsets[fileId + 1];
+  }
+
+  public int getChild(int index) {
+    return ids[index];
+  }
+
+  public int[] getChildren(int fileId) {
+    return Arrays.copyOfRange(ids, offsets[fileId], offsets[fileId + 1]);
+  }
+
+  // Whether the directory's children attribute couldn't be decoded. It has no children in this table.
+  public boolean isUnreadable(int fileId) {
+    return unreadable.get(fileId);
+  }
+
+  int[] getOffsets() {
+    return offsets;
+  }
+
+  int[] getIds() {
+    return ids;
+  }
+}
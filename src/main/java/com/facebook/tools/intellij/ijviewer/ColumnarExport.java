@@ -0,0 +1,608 @@
+package com.facebook.tools.intellij.ijviewer;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.function.BooleanSupplier;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import com.intellij.util.io.UnsyncByteArrayInputStream;
+
+// Writes every record of a cache to a columnar file, for analysing many caches in bulk without going through
+// IjViewer, and reads such files back a column at a time.
+//
+// Records are written in id order, in one pass, ROW_GROUP_SIZE rows at a time. Each row group holds one
+// chunk per column, deflated on its own, so a reader only inflates the columns it asks for. Within a chunk,
+// ints and longs are zigzag varints, either plain or as deltas from the previous row, and strings are a
+// varint length and UTF-8. Low cardinality columns and names are dictionary encoded (the chunk's distinct
+// values in order of appearance, then a varint code per row), paths are front coded against the previous
+// row, and attributes are a fixed width bitmap per row, with a bit for each of the cache's attributes.
+//
+// Layout, big-endian:
+//   "IJCVCOL1"
+//   column chunks
+//   footer: version, row count, row group size,
+//           columns (UTF name, type, encoding), attribute names (UTF, in bitmap bit order),
+//           row groups (row count, then offset, compressed length and inflated length of each column chunk)
+//   footer offset (long)
+//   "IJCVCOL1"
+public final class ColumnarExport {
+  private static final byte[] MAGIC = "IJCVCOL1".getBytes(StandardCharsets.US_ASCII);
+  private static final int VERSION = 1;
+  static final int ROW_GROUP_SIZE = 1 << 16;
+
+  public enum Type {
+    INT, LONG, STRING, BITMAP
+  }
+
+  public enum Encoding {
+    PLAIN, DELTA, DICTIONARY, FRONT_CODED, BITMAP
+  }
+
+  private enum Column {
+    ID("id", Type.INT, Encoding.DELTA),
+    PARENT_ID("parentId", Type.INT, Encoding.DELTA),
+    NAME_ID("nameId", Type.INT, Encoding.PLAIN),
+    NAME("name", Type.STRING, Encoding.DICTIONARY),
+    PATH("path", Type.STRING, Encoding.FRONT_CODED),
+    FLAGS("flags", Type.INT, Encoding.DICTIONARY),
+    ATTRIBUTE_RECORD_ID("attributeRecordId", Type.INT, Encoding.DELTA),
+    CONTENT_ID("contentId", Type.INT, Encoding.PLAIN),
+    TIMESTAMP("timestamp", Type.LONG, Encoding.DELTA),
+    MOD_COUNT("modCount", Type.INT, Encoding.PLAIN),
+    LENGTH("length", Type.LONG, Encoding.PLAIN),
+    // Stored, possibly compressed, or -1 for records without content.
+    CONTENT_LENGTH("contentLength", Type.LONG, Encoding.PLAIN),
+    CONTENT_REF_COUNT("contentRefCount", Type.INT, Encoding.DICTIONARY),
+    ATTRIBUTES("attributes", Type.BITMAP, Encoding.BITMAP);
+
+    final String name;
+    final Type type;
+    final Encoding encoding;
+
+    Column(String name, Type type, Encoding encoding) {
+      this.name = name;
+      this.type = type;
+      this.encoding = encoding;
+    }
+  }
+
+  public interface ProgressListener {
+    void onProgress(int recordsWritten, int recordCount);
+  }
+
+  private ColumnarExport() {
+  }
+
+  // Returns the number of rows written. Free records are skipped.
+  public static long export(IjViewer viewer, File file, BooleanSupplier cancelled, ProgressListener progress)
+      throws IOException {
+    IjViewer.Records records = viewer.records;
+    int recordCount = records.getRecordCount();
+    List<String> attributeNames = viewer.attribs.getAttributeNames();
+    int bitmapWidth = (attributeNames.size() + 7) / 8;
+    Column[] columns = Column.values();
+
+    try (CountingOutputStream counting = new CountingOutputStream(new FileOutputStream(file));
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(counting, 1 << 16))) {
+      out.write(MAGIC);
+
+      RowGroup group = new RowGroup(bitmapWidth);
+      List<long[]> chunkDirectory = new ArrayList<>();
+      List<Integer> groupRows = new ArrayList<>();
+      Deflater deflater = new Deflater();
+      PathBuilder paths = new PathBuilder(viewer);
+      long rowCount = 0;
+
+      for (int id = 1; id < recordCount; id++) {
+        if (id % ROW_GROUP_SIZE == 0) {
+          if (cancelled.getAsBoolean())
+            throw new CancellationException();
+          progress.onProgress(id, recordCount);
+        }
+        if (records.isFlagSet(id, IjViewer.Records.FREE_RECORD_FLAG))
+          continue;
+
+        group.add(viewer, id, paths.getPath(id));
+        rowCount++;
+        if (group.size == ROW_GROUP_SIZE) {
+          out.flush();
+          chunkDirectory.add(group.write(out, counting, deflater, columns));
+          groupRows.add(group.size);
+          group.clear();
+        }
+      }
+      if (group.size > 0) {
+        out.flush();
+        chunkDirectory.add(group.write(out, counting, deflater, columns));
+        groupRows.add(group.size);
+      }
+      deflater.end();
+      progress.onProgress(recordCount, recordCount);
+
+      out.flush();
+      long footerOffset = counting.count;
+      out.writeInt(VERSION);
+      out.writeLong(rowCount);
+      out.writeInt(ROW_GROUP_SIZE);
+      out.writeInt(columns.length);
+      for (Column column : columns) {
+        out.writeUTF(column.name);
+        out.writeByte(column.type.ordinal());
+        out.writeByte(column.encoding.ordinal());
+      }
+      out.writeInt(attributeNames.size());
+      for (String attributeName : attributeNames) {
+        out.writeUTF(attributeName);
+      }
+      out.writeInt(groupRows.size());
+      for (int i = 0; i < groupRows.size(); i++) {
+        out.writeInt(groupRows.get(i));
+        long[] chunks = chunkDirectory.get(i);
+        for (int c = 0; c < columns.length; c++) {
+          out.writeLong(chunks[c * 3]);
+          out.writeInt((int) chunks[c * 3 + 1]);
+          out.writeInt((int) chunks[c * 3 + 2]);
+        }
+      }
+      out.writeLong(footerOffset);
+      out.write(MAGIC);
+      return rowCount;
+    }
+  }
+
+  // One row group's values, column by column.
+  private static final class RowGroup {
+    private final int bitmapWidth;
+    int size;
+    final long[][] numbers = new long[Column.values().length][ROW_GROUP_SIZE];
+    final String[] names = new String[ROW_GROUP_SIZE];
+    final String[] paths = new String[ROW_GROUP_SIZE];
+    final byte[] attributes;
+
+    RowGroup(int bitmapWidth) {
+      this.bitmapWidth = bitmapWidth;
+      this.attributes = new byte[ROW_GROUP_SIZE * bitmapWidth];
+    }
+
+    void add(IjViewer viewer, int id, String path) throws IOException {
+      IjViewer.Records records = viewer.records;
+      int contentId = records.isDirectory(id) ? 0 : records.getContentId(id);
+      boolean hasContent = contentId > 0 && contentId <= viewer.content.getRecordCount();
+
+      set(Column.ID, id);
+      set(Column.PARENT_ID, records.getParentId(id));
+      set(Column.NAME_ID, records.getNameId(id));
+      set(Column.FLAGS, records.getFlags(id));
+      set(Column.ATTRIBUTE_RECORD_ID, records.getAttributeRecordId(id));
+      set(Column.CONTENT_ID, records.getContentId(id));
+      set(Column.TIMESTAMP, records.getTimestamp(id));
+      set(Column.MOD_COUNT, records.getModCount(id));
+      set(Column.LENGTH, records.getLength(id));
+      set(Column.CONTENT_LENGTH, hasContent ? viewer.content.getContentLength(contentId) : -1);
+      set(Column.CONTENT_REF_COUNT, hasContent ? viewer.content.getRefCount(contentId) : 0);
+      names[size] = viewer.getName(id);
+      paths[size] = path;
+      for (int attrId : viewer.attribs.getAttributeIds(id)) {
+        int bit = attrId - 1;
+        if (bit >= 0 && bit < bitmapWidth * 8)
+          attributes[size * bitmapWidth + bit / 8] |= 1 << (bit % 8);
+      }
+      size++;
+    }
+
+    private void set(Column column, long value) {
+      numbers[column.ordinal()][size] = value;
+    }
+
+    void clear() {
+      size = 0;
+      Arrays.fill(attributes, (byte) 0);
+    }
+
+    // Writes a chunk for each column, and returns the chunks' (offset, compressed length, inflated length).
+    long[] write(DataOutputStream out, CountingOutputStream counting, Deflater deflater, Column[] columns)
+        throws IOException {
+      long[] chunks = new long[columns.length * 3];
+      ByteArrayOutputStream encoded = new ByteArrayOutputStream(ROW_GROUP_SIZE * 4);
+      byte[] compressed = new byte[1 << 16];
+      for (Column column : columns) {
+        encoded.reset();
+        encode(column, new DataOutputStream(encoded));
+        byte[] bytes = encoded.toByteArray();
+
+        long offset = counting.count;
+        deflater.reset();
+        deflater.setInput(bytes);
+        deflater.finish();
+        int compressedLength = 0;
+        while (!deflater.finished()) {
+          int count = deflater.deflate(compressed);
+          out.write(compressed, 0, count);
+          compressedLength += count;
+        }
+        out.flush();
+        chunks[column.ordinal() * 3] = offset;
+        chunks[column.ordinal() * 3 + 1] = compressedLength;
+        chunks[column.ordinal() * 3 + 2] = bytes.length;
+      }
+      return chunks;
+    }
+
+    private void encode(Column column, DataOutputStream out) throws IOException {
+      switch (column.encoding) {
+      case PLAIN:
+        for (int i = 0; i < size; i++) {
+          writeVarLong(out, numbers[column.ordinal()][i]);
+        }
+        break;
+      case DELTA:
+        long previous = 0;
+        for (int i = 0; i < size; i++) {
+          long value = numbers[column.ordinal()][i];
+          writeVarLong(out, value - previous);
+          previous = value;
+        }
+        break;
+      case DICTIONARY:
+        if (column.type == Type.STRING) {
+          encodeDictionary(Arrays.asList(names).subList(0, size), out, (value, dictionaryOut) -> {
+            byte[] bytes = (value != null ? value : "").getBytes(StandardCharsets.UTF_8);
+            writeVarLong(dictionaryOut, bytes.length);
+            dictionaryOut.write(bytes);
+          });
+        } else {
+          List<Long> values = new ArrayList<>(size);
+          for (int i = 0; i < size; i++) {
+            values.add(numbers[column.ordinal()][i]);
+          }
+          encodeDictionary(values, out, (value, dictionaryOut) -> writeVarLong(dictionaryOut, value));
+        }
+        break;
+      case FRONT_CODED:
+        byte[] previousBytes = new byte[0];
+        for (int i = 0; i < size; i++) {
+          byte[] bytes = (paths[i] != null ? paths[i] : "").getBytes(StandardCharsets.UTF_8);
+          int shared = 0;
+          int max = Math.min(bytes.length, previousBytes.length);
+          while (shared < max && bytes[shared] == previousBytes[shared]) {
+            shared++;
+          }
+          writeVarLong(out, shared);
+          writeVarLong(out, bytes.length - shared);
+          out.write(bytes, shared, bytes.length - shared);
+          previousBytes = bytes;
+        }
+        break;
+      case BITMAP:
+        out.write(attributes, 0, size * bitmapWidth);
+        break;
+      }
+    }
+  }
+
+  private interface ValueWriter<T> {
+    void write(T value, DataOutputStream out) throws IOException;
+  }
+
+  // The number of distinct values, the values, then a code per row.
+  private static <T> void encodeDictionary(List<T> values, DataOutputStream out, ValueWriter<T> writer)
+      throws IOException {
+    Map<T, Integer> codes = new HashMap<>();
+    List<T> dictionary = new ArrayList<>();
+    int[] rowCodes = new int[values.size()];
+    for (int i = 0; i < rowCodes.length; i++) {
+      T value = values.get(i);
+      Integer code = codes.get(value);
+      if (code == null) {
+        code = dictionary.size();
+        codes.put(value, code);
+        dictionary.add(value);
+      }
+      rowCodes[i] = code;
+    }
+    writeVarLong(out, dictionary.size());
+    for (T value : dictionary) {
+      writer.write(value, out);
+    }
+    for (int code : rowCodes) {
+      writeVarLong(out, code);
+    }
+  }
+
+  private static void writeVarLong(DataOutputStream out, long value) throws IOException {
+    long zigzag = (value << 1) ^ (value >> 63);
+    while ((zigzag & ~0x7FL) != 0) {
+      out.writeByte((int) (zigzag & 0x7F) | 0x80);
+      zigzag >>>= 7;
+    }
+    out.writeByte((int) zigzag);
+  }
+
+  private static long readVarLong(ByteBuffer in) {
+    long zigzag = 0;
+    for (int shift = 0;; shift += 7) {
+      int b = in.get() & 0xFF;
+      zigzag |= (long) (b & 0x7F) << shift;
+      if ((b & 0x80) == 0)
+        break;
+    }
+    return (zigzag >>> 1) ^ -(zigzag & 1);
+  }
+
+  // Paths in id order. A record's siblings and children usually follow it, so the paths of recently seen
+  // parents are kept in a small LRU, which keeps memory bounded however many directories the cache has.
+  private static final class PathBuilder {
+    private static final int MAX_PARENT_PATHS = 4096;
+
+    private final IjViewer viewer;
+    private final Map<Integer, String> parentPaths = new LinkedHashMap<Integer, String>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<Integer, String> eldest) {
+        return size() > MAX_PARENT_PATHS;
+      }
+    };
+
+    PathBuilder(IjViewer viewer) {
+      this.viewer = viewer;
+    }
+
+    String getPath(int id) throws IOException {
+      int parentId = viewer.records.getParentId(id);
+      String name = viewer.getName(id);
+      if (parentId <= 0 || parentId >= viewer.records.getRecordCount() || parentId == id)
+        return name;
+      String parentPath = parentPaths.get(parentId);
+      if (parentPath == null) {
+        parentPath = viewer.getPath(parentId);
+        parentPaths.put(parentId, parentPath);
+      }
+      return parentPath.endsWith("/") ? parentPath + name : parentPath + "/" + name;
+    }
+  }
+
+  private static final class CountingOutputStream extends OutputStream {
+    private final OutputStream out;
+    long count;
+
+    CountingOutputStream(OutputStream out) {
+      this.out = out;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      out.write(b);
+      count++;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      out.write(b, off, len);
+      count += len;
+    }
+
+    @Override
+    public void flush() throws IOException {
+      out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+      out.close();
+    }
+  }
+
+  // Reads an exported file's footer, then any column of any row group on demand.
+  public static final class Reader implements AutoCloseable {
+    private final RandomAccessFile file;
+    private final long rowCount;
+    private final List<String> columnNames = new ArrayList<>();
+    private final List<Type> columnTypes = new ArrayList<>();
+    private final List<Encoding> columnEncodings = new ArrayList<>();
+    private final List<String> attributeNames = new ArrayList<>();
+    private final int[] groupRows;
+    // Per row group, (offset, compressed length, inflated length) per column.
+    private final long[][] chunks;
+
+    public Reader(File exported) throws IOException {
+      file = new RandomAccessFile(exported, "r");
+      try {
+        long length = file.length();
+        byte[] magic = new byte[MAGIC.length];
+        file.seek(length - MAGIC.length);
+        file.readFully(magic);
+        if (length < MAGIC.length * 2 + 8 || !Arrays.equals(magic, MAGIC))
+          throw new IOException(exported + " isn't a columnar export");
+        file.seek(length - MAGIC.length - 8);
+        long footerOffset = file.readLong();
+        byte[] footer = new byte[(int) (length - MAGIC.length - 8 - footerOffset)];
+        file.seek(footerOffset);
+        file.readFully(footer);
+
+        DataInputStream in = new DataInputStream(new UnsyncByteArrayInputStream(footer));
+        int version = in.readInt();
+        if (version != VERSION)
+          throw new IOException("Unsupported columnar export version " + version);
+        rowCount = in.readLong();
+        in.readInt(); // row group size
+        int columnCount = in.readInt();
+        for (int c = 0; c < columnCount; c++) {
+          columnNames.add(in.readUTF());
+          columnTypes.add(Type.values()[in.readByte()]);
+          columnEncodings.add(Encoding.values()[in.readByte()]);
+        }
+        int attributeCount = in.readInt();
+        for (int i = 0; i < attributeCount; i++) {
+          attributeNames.add(in.readUTF());
+        }
+        int groupCount = in.readInt();
+        groupRows = new int[groupCount];
+        chunks = new long[groupCount][columnCount * 3];
+        for (int g = 0; g < groupCount; g++) {
+          groupRows[g] = in.readInt();
+          for (int c = 0; c < columnCount; c++) {
+            chunks[g][c * 3] = in.readLong();
+            chunks[g][c * 3 + 1] = in.readInt();
+            chunks[g][c * 3 + 2] = in.readInt();
+          }
+        }
+      } catch (IOException | RuntimeException e) {
+        file.close();
+        throw e;
+      }
+    }
+
+    public long getRowCount() {
+      return rowCount;
+    }
+
+    public List<String> getColumnNames() {
+      return Collections.unmodifiableList(columnNames);
+    }
+
+    public Type getColumnType(String column) {
+      return columnTypes.get(getColumnIndex(column));
+    }
+
+    // The attributes' names, in the order of their bits in the attributes column.
+    public List<String> getAttributeNames() {
+      return Collections.unmodifiableList(attributeNames);
+    }
+
+    public int getRowGroupCount() {
+      return groupRows.length;
+    }
+
+    public int getRowCount(int rowGroup) {
+      return groupRows[rowGroup];
+    }
+
+    // The values of an INT or LONG column in a row group.
+    public long[] readNumbers(int rowGroup, String column) throws IOException {
+      int c = getColumnIndex(column);
+      Type type = columnTypes.get(c);
+      if (type != Type.INT && type != Type.LONG)
+        throw new IllegalArgumentException(column + " is a " + type + " column");
+      ByteBuffer in = readChunk(rowGroup, c);
+      long[] values = new long[groupRows[rowGroup]];
+      switch (columnEncodings.get(c)) {
+      case DELTA:
+        long previous = 0;
+        for (int i = 0; i < values.length; i++) {
+          previous += readVarLong(in);
+          values[i] = previous;
+        }
+        break;
+      case DICTIONARY:
+        long[] dictionary = new long[(int) readVarLong(in)];
+        for (int i = 0; i < dictionary.length; i++) {
+          dictionary[i] = readVarLong(in);
+        }
+        for (int i = 0; i < values.length; i++) {
+          values[i] = dictionary[(int) readVarLong(in)];
+        }
+        break;
+      default:
+        for (int i = 0; i < values.length; i++) {
+          values[i] = readVarLong(in);
+        }
+      }
+      return values;
+    }
+
+    // The values of a STRING column in a row group.
+    public String[] readStrings(int rowGroup, String column) throws IOException {
+      int c = getColumnIndex(column);
+      if (columnTypes.get(c) != Type.STRING)
+        throw new IllegalArgumentException(column + " is a " + columnTypes.get(c) + " column");
+      ByteBuffer in = readChunk(rowGroup, c);
+      String[] values = new String[groupRows[rowGroup]];
+      if (columnEncodings.get(c) == Encoding.DICTIONARY) {
+        String[] dictionary = new String[(int) readVarLong(in)];
+        for (int i = 0; i < dictionary.length; i++) {
+          byte[] bytes = new byte[(int) readVarLong(in)];
+          in.get(bytes);
+          dictionary[i] = new String(bytes, StandardCharsets.UTF_8);
+        }
+        for (int i = 0; i < values.length; i++) {
+          values[i] = dictionary[(int) readVarLong(in)];
+        }
+      } else {
+        byte[] previous = new byte[0];
+        for (int i = 0; i < values.length; i++) {
+          int shared = (int) readVarLong(in);
+          byte[] bytes = Arrays.copyOf(previous, shared + (int) readVarLong(in));
+          in.get(bytes, shared, bytes.length - shared);
+          values[i] = new String(bytes, StandardCharsets.UTF_8);
+          previous = bytes;
+        }
+      }
+      return values;
+    }
+
+    // The attributes column of a row group: getAttributeNames().size() bits per row, rounded up to bytes, in
+    // row order.
+    public byte[] readBitmaps(int rowGroup, String column) throws IOException {
+      int c = getColumnIndex(column);
+      if (columnTypes.get(c) != Type.BITMAP)
+        throw new IllegalArgumentException(column + " is a " + columnTypes.get(c) + " column");
+      return readChunk(rowGroup, c).array();
+    }
+
+    private int getColumnIndex(String column) {
+      int c = columnNames.indexOf(column);
+      if (c < 0)
+        throw new IllegalArgumentException("No column " + column);
+      return c;
+    }
+
+    private ByteBuffer readChunk(int rowGroup, int column) throws IOException {
+      long[] groupChunks = chunks[rowGroup];
+      byte[] compressed = new byte[(int) groupChunks[column * 3 + 1]];
+      byte[] bytes = new byte[(int) groupChunks[column * 3 + 2]];
+      synchronized (file) {
+        file.seek(groupChunks[column * 3]);
+        file.readFully(compressed);
+      }
+      Inflater inflater = new Inflater();
+      try {
+        inflater.setInput(compressed);
+        int length = 0;
+        while (length < bytes.length && !inflater.finished()) {
+          int count = inflater.inflate(bytes, length, bytes.length - length);
+          if (count == 0 && inflater.needsInput())
+            throw new IOException("Column chunk is truncated");
+          length += count;
+        }
+      } catch (DataFormatException e) {
+        throw new IOException(e);
+      } finally {
+        inflater.end();
+      }
+      return ByteBuffer.wrap(bytes);
+    }
+
+    @Override
+    public void close() throws IOException {
+      file.close();
+    }
+  }
+}
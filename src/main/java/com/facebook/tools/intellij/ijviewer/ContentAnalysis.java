@@ -0,0 +1,348 @@
+package com.facebook.tools.intellij.ijviewer;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+import java.util.stream.IntStream;
+
+// Why content.dat is as big as it is: content stored more than once under different ids, and content that
+// nothing refers to any more.
+//
+// Every content id is hashed in one parallel pass, streaming the (inflated) content through SHA-256 rather
+// than loading it. Hashes are kept as two longs per id, and duplicates are found by sorting ids by hash.
+// Sizes are the size on disk, as that's what would be reclaimed.
+public final class ContentAnalysis {
+  private static final String HASH_ALGORITHM = "SHA-256";
+  private static final int STREAM_BUFFER_SIZE = 64 * 1024;
+  private static final int PROGRESS_INTERVAL = 1 << 12;
+
+  public interface ProgressListener {
+    void onProgress(int contentsHashed, int contentCount);
+  }
+
+  public static final class DuplicateGroup {
+    public final String hash;
+    public final int[] contentIds;
+    // Of each copy.
+    public final long bytes;
+
+    DuplicateGroup(String hash, int[] contentIds, long bytes) {
+      this.hash = hash;
+      this.contentIds = contentIds;
+      this.bytes = bytes;
+    }
+
+    public long getReclaimableBytes() {
+      return bytes * (contentIds.length - 1);
+    }
+  }
+
+  public static final class Orphan {
+    public final int contentId;
+    public final int refCount;
+    // File records whose content id is this one.
+    public final int referencingRecords;
+    public final long bytes;
+
+    Orphan(int contentId, int refCount, int referencingRecords, long bytes) {
+      this.contentId = contentId;
+      this.refCount = refCount;
+      this.referencingRecords = referencingRecords;
+      this.bytes = bytes;
+    }
+  }
+
+  private final int contentCount;
+  private final long totalBytes;
+  private final List<DuplicateGroup> duplicates;
+  private final List<Orphan> orphans;
+
+  private ContentAnalysis(int contentCount, long totalBytes, List<DuplicateGroup> duplicates,
+      List<Orphan> orphans) {
+    this.contentCount = contentCount;
+    this.totalBytes = totalBytes;
+    this.duplicates = duplicates;
+    this.orphans = orphans;
+  }
+
+  public int getContentCount() {
+    return contentCount;
+  }
+
+  public long getTotalBytes() {
+    return totalBytes;
+  }
+
+  // Largest reclaimable bytes first.
+  public List<DuplicateGroup> getDuplicates() {
+    return duplicates;
+  }
+
+  // In content id order.
+  public List<Orphan> getOrphans() {
+    return orphans;
+  }
+
+  public long getDuplicateReclaimableBytes() {
+    long total = 0;
+    for (DuplicateGroup group : duplicates) {
+      total += group.getReclaimableBytes();
+    }
+    return total;
+  }
+
+  public long getOrphanedBytes() {
+    long total = 0;
+    for (Orphan orphan : orphans) {
+      total += orphan.bytes;
+    }
+    return total;
+  }
+
+  // Orphans, plus all but one of each set of duplicates that are still referenced. Orphans that are also
+  // duplicates are only counted once.
+  public long getReclaimableBytes() {
+    long total = getOrphanedBytes();
+    int[] orphanIds = new int[orphans.size()];
+    for (int i = 0; i < orphanIds.length; i++) {
+      orphanIds[i] = orphans.get(i).contentId;
+    }
+    for (DuplicateGroup group : duplicates) {
+      int referencedCopies = 0;
+      for (int contentId : group.contentIds) {
+        if (Arrays.binarySearch(orphanIds, contentId) < 0)
+          referencedCopies++;
+      }
+      total += group.bytes * Math.max(0, referencedCopies - 1);
+    }
+    return total;
+  }
+
+  public static ContentAnalysis analyze(IjViewer viewer) throws IOException {
+    return analyze(viewer, () -> false, (hashed, count) -> {
+    });
+  }
+
+  public static ContentAnalysis analyze(IjViewer viewer, BooleanSupplier cancelled, ProgressListener listener)
+      throws IOException {
+    ContentStorage content = viewer.content;
+    int contentCount = content.getRecordCount();
+    int[] references = countReferences(viewer.records, contentCount);
+
+    // Indexed by content id. Content ids start at 1.
+    long[] hashHi = new long[contentCount + 1];
+    long[] hashLo = new long[contentCount + 1];
+    long[] bytes = new long[contentCount + 1];
+    AtomicInteger hashed = new AtomicInteger();
+    ThreadLocal<MessageDigest> digests = ThreadLocal.withInitial(ContentAnalysis::newDigest);
+    ThreadLocal<byte[]> buffers = ThreadLocal.withInitial(() -> new byte[STREAM_BUFFER_SIZE]);
+
+    try {
+      IntStream.rangeClosed(1, contentCount).parallel().forEach(contentId -> {
+        int count = hashed.incrementAndGet();
+        if (count % PROGRESS_INTERVAL == 0) {
+          if (cancelled.getAsBoolean())
+            throw new CancellationException();
+          listener.onProgress(count, contentCount);
+        }
+
+        int length = content.getContentLength(contentId);
+        bytes[contentId] = Math.max(0, length);
+        if (length <= 0)
+          return;
+        try {
+          byte[] digest = hash(content, contentId, digests.get(), buffers.get());
+          hashHi[contentId] = ByteBuffer.wrap(digest).getLong(0);
+          hashLo[contentId] = ByteBuffer.wrap(digest).getLong(8);
+        } catch (IOException e) {
+          throw new UncheckedIOException(e);
+        }
+      });
+    } catch (UncheckedIOException e) {
+      throw e.getCause();
+    }
+    listener.onProgress(contentCount, contentCount);
+
+    long totalBytes = 0;
+    List<Orphan> orphans = new ArrayList<>();
+    for (int contentId = 1; contentId <= contentCount; contentId++) {
+      totalBytes += bytes[contentId];
+      int refCount = content.getRefCount(contentId);
+      if (refCount <= 0 || references[contentId] == 0) {
+        orphans.add(new Orphan(contentId, refCount, references[contentId], bytes[contentId]));
+      }
+    }
+
+    return new ContentAnalysis(contentCount, totalBytes, findDuplicates(hashHi, hashLo, bytes), orphans);
+  }
+
+  private static int[] countReferences(IjViewer.Records records, int contentCount) {
+    int[] references = new int[contentCount + 1];
+    for (int id = 1; id < records.getRecordCount(); id++) {
+      if (records.isFlagSet(id, IjViewer.Records.FREE_RECORD_FLAG) || records.isDirectory(id))
+        continue;
+      int contentId = records.getContentId(id);
+      if (contentId > 0 && contentId <= contentCount)
+        references[contentId]++;
+    }
+    return references;
+  }
+
+  private static byte[] hash(ContentStorage content, int contentId, MessageDigest digest, byte[] buffer)
+      throws IOException {
+    digest.reset();
+    if (!content.isCompressed(contentId)) {
+      digest.update(content.read(contentId));
+      return digest.digest();
+    }
+    try (DataInputStream input = content.readStream(contentId)) {
+      for (int count; (count = input.read(buffer)) > 0;) {
+        digest.update(buffer, 0, count);
+      }
+    }
+    return digest.digest();
+  }
+
+  private static List<DuplicateGroup> findDuplicates(long[] hashHi, long[] hashLo, long[] bytes) {
+    int[] ids = sortByHashHi(hashHi, bytes);
+    int count = ids.length;
+
+    List<DuplicateGroup> duplicates = new ArrayList<>();
+    for (int start = 0; start < count;) {
+      int end = start + 1;
+      while (end < count && hashHi[ids[end]] == hashHi[ids[start]]) {
+        end++;
+      }
+      // Contents with the same high half of their hash are nearly always duplicates, so a run is tiny, and
+      // an insertion sort puts it in order of the low half.
+      for (int i = start + 1; i < end; i++) {
+        int id = ids[i];
+        int j = i;
+        for (; j > start && Long.compare(hashLo[ids[j - 1]], hashLo[id]) > 0; j--) {
+          ids[j] = ids[j - 1];
+        }
+        ids[j] = id;
+      }
+
+      for (int groupStart = start; groupStart < end;) {
+        int groupEnd = groupStart + 1;
+        while (groupEnd < end && hashLo[ids[groupEnd]] == hashLo[ids[groupStart]]) {
+          groupEnd++;
+        }
+        if (groupEnd - groupStart > 1) {
+          int[] group = Arrays.copyOfRange(ids, groupStart, groupEnd);
+          long groupBytes = 0;
+          for (int id : group) {
+            groupBytes = Math.max(groupBytes, bytes[id]);
+          }
+          Arrays.sort(group);
+          duplicates.add(new DuplicateGroup(
+              String.format("%016x%016x", hashHi[group[0]], hashLo[group[0]]), group, groupBytes));
+        }
+        groupStart = groupEnd;
+      }
+      start = end;
+    }
+    duplicates.sort(Collections.reverseOrder((a, b) -> Long.compare(a.getReclaimableBytes(),
+        b.getReclaimableBytes())));
+    return duplicates;
+  }
+
+  // The ids that were hashed, in unsigned order of the high half of their hash, by an LSD radix sort on 16 bit
+  // digits, as CacheDiff sorts path hashes.
+  private static int[] sortByHashHi(long[] hashHi, long[] bytes) {
+    int count = 0;
+    for (int contentId = 1; contentId < hashHi.length; contentId++) {
+      if (bytes[contentId] > 0)
+        count++;
+    }
+    long[] keys = new long[count];
+    int[] ids = new int[count];
+    count = 0;
+    for (int contentId = 1; contentId < hashHi.length; contentId++) {
+      if (bytes[contentId] > 0) {
+        keys[count] = hashHi[contentId];
+        ids[count++] = contentId;
+      }
+    }
+
+    long[] sortedKeys = new long[count];
+    int[] sortedIds = new int[count];
+    int[] starts = new int[(1 << 16) + 1];
+    for (int shift = 0; shift < 64; shift += 16) {
+      Arrays.fill(starts, 0);
+      for (long key : keys) {
+        starts[(int) (key >>> shift & 0xFFFF) + 1]++;
+      }
+      for (int digit = 0; digit < 1 << 16; digit++) {
+        starts[digit + 1] += starts[digit];
+      }
+      for (int i = 0; i < count; i++) {
+        int position = starts[(int) (keys[i] >>> shift & 0xFFFF)]++;
+        sortedKeys[position] = keys[i];
+        sortedIds[position] = ids[i];
+      }
+      long[] swapKeys = keys;
+      keys = sortedKeys;
+      sortedKeys = swapKeys;
+      int[] swapIds = ids;
+      ids = sortedIds;
+      sortedIds = swapIds;
+    }
+    return ids;
+  }
+
+  private static MessageDigest newDigest() {
+    try {
+      return MessageDigest.getInstance(HASH_ALGORITHM);
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  // The summary, then every duplicate group and orphan.
+  public void write(ReportWriter out) {
+    out.beginSection("contentSummary", "name", "value");
+    out.row("contentRecords", contentCount);
+    out.row("totalBytes", totalBytes);
+    out.row("duplicateGroups", duplicates.size());
+    out.row("duplicateReclaimableBytes", getDuplicateReclaimableBytes());
+    out.row("orphans", orphans.size());
+    out.row("orphanedBytes", getOrphanedBytes());
+    out.row("reclaimableBytes", getReclaimableBytes());
+    out.endSection();
+
+    out.beginSection("duplicateContent", "hash", "copies", "bytes", "reclaimableBytes", "contentIds");
+    for (DuplicateGroup group : duplicates) {
+      out.row(group.hash, group.contentIds.length, group.bytes, group.getReclaimableBytes(),
+          joinIds(group.contentIds));
+    }
+    out.endSection();
+
+    out.beginSection("orphanedContent", "contentId", "refCount", "referencingRecords", "bytes");
+    for (Orphan orphan : orphans) {
+      out.row(orphan.contentId, orphan.refCount, orphan.referencingRecords, orphan.bytes);
+    }
+    out.endSection();
+  }
+
+  public static String joinIds(int[] ids) {
+    StringBuilder result = new StringBuilder();
+    for (int id : ids) {
+      if (result.length() > 0)
+        result.append(',');
+      result.append(id);
+    }
+    return result.toString();
+  }
+}
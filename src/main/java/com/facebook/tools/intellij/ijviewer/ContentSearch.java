@@ -0,0 +1,297 @@
+package com.facebook.tools.intellij.ijviewer;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+import java.util.function.IntPredicate;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.IntStream;
+
+// Finds which cached files contain a string or a regex, in one parallel pass over every content id that a
+// live file refers to.
+//
+// Content is matched as bytes, straight from the mapped content.dat when it's stored uncompressed, and from a
+// single inflated copy otherwise, so no Strings are built and only the contents being searched are in memory.
+// Literals are found with Boyer-Moore-Horspool over their UTF-8 bytes. Regexes run over a view of the bytes
+// as ISO-8859-1 chars, so offsets are always byte offsets; non-ASCII literals in a regex are converted to the
+// same view, but non-ASCII character classes won't match.
+public final class ContentSearch {
+  private static final int MAX_MATCHES_PER_CONTENT = 100;
+  private static final int MAX_PREVIEW_BYTES = 160;
+  private static final int PROGRESS_INTERVAL = 1 << 10;
+  // How many chars a regex reads between checks for cancellation.
+  private static final int CANCEL_CHECK_CHARS = 1 << 16;
+
+  public static final class Match {
+    public final int fileId;
+    public final int contentId;
+    // In bytes, from the start of the (inflated) content.
+    public final int offset;
+    public final String path;
+    // The line the match is on, cut down to MAX_PREVIEW_BYTES around the match.
+    public final String preview;
+
+    Match(int fileId, int contentId, int offset, String path, String preview) {
+      this.fileId = fileId;
+      this.contentId = contentId;
+      this.offset = offset;
+      this.path = path;
+      this.preview = preview;
+    }
+  }
+
+  // Called from the search threads, concurrently, as matches are found.
+  public interface MatchListener {
+    void onMatch(Match match);
+  }
+
+  public interface ProgressListener {
+    void onProgress(int contentsSearched, int contentCount);
+  }
+
+  private interface Finder {
+    // Calls found with the offset of each match, in order, until it returns false.
+    void find(ByteBuffer content, IntPredicate found);
+  }
+
+  private ContentSearch() {
+  }
+
+  // Returns the number of matches, counting a match in shared content once for each file. At most
+  // MAX_MATCHES_PER_CONTENT matches are reported for any one content.
+  public static long search(IjViewer viewer, String query, boolean regex, BooleanSupplier cancelled,
+      MatchListener matches, ProgressListener progress) throws IOException {
+    return search(viewer, query, regex, cancelled, Long.MAX_VALUE, matches, progress);
+  }
+
+  // Only the first maxMatches matches are reported, and have their path and preview built. The rest are just
+  // counted.
+  public static long search(IjViewer viewer, String query, boolean regex, BooleanSupplier cancelled,
+      long maxMatches, MatchListener matches, ProgressListener progress) throws IOException {
+    if (query.isEmpty())
+      throw new IllegalArgumentException("Nothing to search for");
+    Finder finder = regex ? regexFinder(query, cancelled)
+        : literalFinder(query.getBytes(StandardCharsets.UTF_8));
+
+    ContentStorage content = viewer.content;
+    int contentCount = content.getRecordCount();
+    FilesByContent files = FilesByContent.build(viewer.records, contentCount);
+    AtomicInteger searched = new AtomicInteger();
+    AtomicLong matchCount = new AtomicLong();
+
+    try {
+      IntStream.rangeClosed(1, contentCount).parallel().forEach(contentId -> {
+        int count = searched.incrementAndGet();
+        if (count % PROGRESS_INTERVAL == 0) {
+          progress.onProgress(count, contentCount);
+        }
+        if (cancelled.getAsBoolean())
+          throw new CancellationException();
+        if (files.getStart(contentId) == files.getEnd(contentId) || content.getContentLength(contentId) <= 0)
+          return;
+
+        ByteBuffer bytes;
+        try {
+          bytes = content.read(contentId);
+        } catch (IOException e) {
+          throw new UncheckedIOException(e);
+        }
+        int[] found = { 0 };
+        finder.find(bytes, offset -> {
+          String preview = null;
+          for (int i = files.getStart(contentId); i < files.getEnd(contentId); i++) {
+            if (matchCount.incrementAndGet() > maxMatches)
+              continue;
+            int fileId = files.getFile(i);
+            String path;
+            try {
+              path = viewer.getPath(fileId);
+            } catch (IOException e) {
+              path = "#" + fileId;
+            }
+            if (preview == null)
+              preview = getPreview(bytes, offset);
+            matches.onMatch(new Match(fileId, contentId, offset, path, preview));
+          }
+          return ++found[0] < MAX_MATCHES_PER_CONTENT && !cancelled.getAsBoolean();
+        });
+      });
+    } catch (UncheckedIOException e) {
+      throw e.getCause();
+    }
+    progress.onProgress(contentCount, contentCount);
+    return matchCount.get();
+  }
+
+  // Boyer-Moore-Horspool, with absolute reads so the content buffer is never moved.
+  static Finder literalFinder(byte[] needle) {
+    int last = needle.length - 1;
+    int[] shifts = new int[256];
+    Arrays.fill(shifts, needle.length);
+    for (int i = 0; i < last; i++) {
+      shifts[needle[i] & 0xFF] = last - i;
+    }
+
+    return (content, found) -> {
+      int base = content.position();
+      int end = content.limit() - last;
+      for (int start = base; start < end;) {
+        byte next = content.get(start + last);
+        if (next == needle[last]) {
+          int i = last - 1;
+          while (i >= 0 && content.get(start + i) == needle[i]) {
+            i--;
+          }
+          if (i < 0) {
+            if (!found.test(start - base))
+              return;
+            start += needle.length;
+            continue;
+          }
+        }
+        start += shifts[next & 0xFF];
+      }
+    };
+  }
+
+  // A regex can take a long time over a large content, so it checks for cancellation as it reads, and throws
+  // CancellationException.
+  static Finder regexFinder(String regex, BooleanSupplier cancelled) {
+    // The pattern's non-ASCII characters become their UTF-8 bytes, as ISO-8859-1 chars, to match the content.
+    Pattern pattern = Pattern.compile(new String(regex.getBytes(StandardCharsets.UTF_8),
+        StandardCharsets.ISO_8859_1));
+    return (content, found) -> {
+      Matcher matcher = pattern.matcher(new Latin1Sequence(content, content.position(), content.remaining(),
+          cancelled));
+      while (matcher.find()) {
+        if (!found.test(matcher.start()))
+          return;
+        if (matcher.end() == matcher.start() && matcher.end() == content.remaining())
+          return;
+      }
+    };
+  }
+
+  private static String getPreview(ByteBuffer content, int offset) {
+    int base = content.position();
+    int length = content.remaining();
+    int start = offset;
+    while (start > 0 && offset - start < MAX_PREVIEW_BYTES / 2 && content.get(base + start - 1) != '\n') {
+      start--;
+    }
+    int end = offset;
+    while (end < length && end - start < MAX_PREVIEW_BYTES && content.get(base + end) != '\n') {
+      end++;
+    }
+    byte[] line = new byte[end - start];
+    for (int i = 0; i < line.length; i++) {
+      line[i] = content.get(base + start + i);
+    }
+    return new String(line, StandardCharsets.UTF_8).trim();
+  }
+
+  // Bytes as chars, one to one, without copying them.
+  private static final class Latin1Sequence implements CharSequence {
+    private final ByteBuffer bytes;
+    private final int start;
+    private final int length;
+    private final BooleanSupplier cancelled;
+    private int reads;
+
+    Latin1Sequence(ByteBuffer bytes, int start, int length, BooleanSupplier cancelled) {
+      this.bytes = bytes;
+      this.start = start;
+      this.length = length;
+      this.cancelled = cancelled;
+    }
+
+    @Override
+    public int length() {
+      return length;
+    }
+
+    @Override
+    public char charAt(int index) {
+      if (++reads == CANCEL_CHECK_CHARS) {
+        reads = 0;
+        if (cancelled.getAsBoolean())
+          throw new CancellationException();
+      }
+      return (char) (bytes.get(start + index) & 0xFF);
+    }
+
+    @Override
+    public CharSequence subSequence(int from, int to) {
+      return new Latin1Sequence(bytes, start + from, to - from, cancelled);
+    }
+
+    @Override
+    public String toString() {
+      byte[] copy = new byte[length];
+      for (int i = 0; i < length; i++) {
+        copy[i] = bytes.get(start + i);
+      }
+      return new String(copy, StandardCharsets.ISO_8859_1);
+    }
+  }
+
+  // The live files that refer to each content id, in CSR form: fileIds[offsets[contentId]] to
+  // fileIds[offsets[contentId + 1] - 1].
+  private static final class FilesByContent {
+    private final int[] offsets;
+    private final int[] fileIds;
+
+    private FilesByContent(int[] offsets, int[] fileIds) {
+      this.offsets = offsets;
+      this.fileIds = fileIds;
+    }
+
+    static FilesByContent build(IjViewer.Records records, int contentCount) {
+      int[] offsets = new int[contentCount + 2];
+      for (int id = 1; id < records.getRecordCount(); id++) {
+        int contentId = getContentId(records, id, contentCount);
+        if (contentId > 0)
+          offsets[contentId + 1]++;
+      }
+      for (int contentId = 1; contentId < offsets.length; contentId++) {
+        offsets[contentId] += offsets[contentId - 1];
+      }
+
+      int[] fileIds = new int[offsets[contentCount + 1]];
+      int[] next = Arrays.copyOf(offsets, contentCount + 1);
+      for (int id = 1; id < records.getRecordCount(); id++) {
+        int contentId = getContentId(records, id, contentCount);
+        if (contentId > 0)
+          fileIds[next[contentId]++] = id;
+      }
+      return new FilesByContent(offsets, fileIds);
+    }
+
+    // 0 unless the record is a live file with content in range.
+    private static int getContentId(IjViewer.Records records, int id, int contentCount) {
+      if (records.isFlagSet(id, IjViewer.Records.FREE_RECORD_FLAG) || records.isDirectory(id))
+        return 0;
+      int contentId = records.getContentId(id);
+      return contentId > 0 && contentId <= contentCount ? contentId : 0;
+    }
+
+    int getStart(int contentId) {
+      return offsets[contentId];
+    }
+
+    int getEnd(int contentId) {
+      return offsets[contentId + 1];
+    }
+
+    int getFile(int index) {
+      return fileIds[index];
+    }
+  }
+}
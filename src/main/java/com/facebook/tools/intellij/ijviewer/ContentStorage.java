@@ -0,0 +1,28 @@
+package com.facebook.tools.intellij.ijviewer;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+// Read access to content.dat, keyed by content id.
+public interface ContentStorage {
+  // Content ids run from 1 to getRecordCount() inclusive.
+  int getRecordCount() throws IOException;
+
+  int getRefCount(int contentId);
+
+  // The size of the (possibly compressed) content on disk.
+  int getContentLength(int contentId);
+
+  boolean isCompressed(int contentId) throws IOException;
+
+  DataInputStream readStream(int contentId) throws IOException;
+
+  // A read-only view of the content. Uncompressed content is viewed in place; compressed content is inflated.
+  default ByteBuffer read(int contentId) throws IOException {
+    return read(contentId, Integer.MAX_VALUE);
+  }
+
+  // At most the first maxBytes of the content. Compressed content is only inflated as far as maxBytes.
+  ByteBuffer read(int contentId, int maxBytes) throws IOException;
+}
@@ -0,0 +1,340 @@
+package com.facebook.tools.intellij.ijviewer;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.function.BooleanSupplier;
+
+// A sidecar file holding what's expensive to derive from a cache: the parent -> children adjacency (in CSR
+// form: an offsets column and a children column), each record's name id and mod count, and the aggregated
+// subtree sizes. It's stamped with the lengths and mtimes of the cache files it was built from, and is
+// memory mapped when it's still current, so reopening a cache needs no recomputation.
+//
+// The index is kept under ~/.ijcv/index rather than in the cache dir, which is never written to. When the
+// cache has changed, the index is rebuilt incrementally: a directory's children are copied from the old
+// index as long as its mod count and its children's name ids haven't changed.
+//
+// Each build writes a new generation of the file (name-hash.N.idx) instead of replacing the old one, which
+// may still be mapped, and can't be replaced while it is on Windows. Older generations are deleted once
+// nothing has them mapped any more, which is at the latest the next time the index is built.
+//
+// Layout (big endian):
+//   int magic, int version, int recordCount, int childCount
+//   SOURCE_FILES.length * (long length, long mtime)
+//   long[recordCount] sizes
+//   int[recordCount] nameIds
+//   int[recordCount] modCounts
+//   int[recordCount + 1] childOffsets
+//   int[childCount] children
+public final class DerivedIndex {
+  private static final int MAGIC = 0x494a4358; // IJCX
+  private static final int VERSION = 1;
+  private static final int CANCEL_CHECK_INTERVAL = 1 << 12;
+
+  private static final String[] SOURCE_FILES = { "records.dat", "records.dat.len", "names.dat",
+      "attrib.dat" + MappedStorage.INDEX_EXTENSION, "attrib.dat" + MappedStorage.DATA_EXTENSION,
+      "content.dat" + MappedStorage.INDEX_EXTENSION };
+  private static final int HEADER_SIZE = 16 + SOURCE_FILES.length * 16;
+
+  private final int recordCount;
+  private final DiskSizes diskSizes;
+  private final IntBuffer nameIds;
+  private final IntBuffer modCounts;
+  private final IntBuffer childOffsets;
+  private final IntBuffer children;
+
+  private DerivedIndex(int recordCount, DiskSizes diskSizes, IntBuffer nameIds, IntBuffer modCounts,
+      IntBuffer childOffsets, IntBuffer children) {
+    this.recordCount = recordCount;
+    this.diskSizes = diskSizes;
+    this.nameIds = nameIds;
+    this.modCounts = modCounts;
+    this.childOffsets = childOffsets;
+    this.children = children;
+  }
+
+  public int getRecordCount() {
+    return recordCount;
+  }
+
+  public DiskSizes getDiskSizes() {
+    return diskSizes;
+  }
+
+  public int getNameId(int fileId) {
+    return nameIds.get(fileId);
+  }
+
+  public int getChildCount(int fileId) {
+    return childOffsets.get(fileId + 1) - childOffsets.get(fileId);
+  }
+
+  public int[] getChildren(int fileId) {
+    int from = childOffsets.get(fileId);
+    int[] result = new int[childOffsets.get(fileId + 1) - from];
+    for (int i = 0; i < result.length; i++) {
+      result[i] = children.get(from + i);
+    }
+    return result;
+  }
+
+  private static File getIndexDir() {
+    return new File(System.getProperty("user.home"), ".ijcv/index");
+  }
+
+  // What every generation of the cache's index file starts with.
+  private static String getIndexPrefix(File cacheDir) {
+    String path = cacheDir.getAbsolutePath();
+    String name = cacheDir.getName().replaceAll("[^A-Za-z0-9._-]", "_");
+    return name + "-" + Integer.toHexString(path.hashCode()) + ".";
+  }
+
+  // The generations of the cache's index file, oldest first.
+  private static List<File> getIndexFiles(File cacheDir) {
+    String prefix = getIndexPrefix(cacheDir);
+    File[] files = getIndexDir().listFiles();
+    List<File> indexFiles = new ArrayList<>();
+    if (files != null) {
+      for (File file : files) {
+        if (getGeneration(file, prefix) >= 0)
+          indexFiles.add(file);
+      }
+    }
+    indexFiles.sort(Comparator.comparingLong(file -> getGeneration(file, prefix)));
+    return indexFiles;
+  }
+
+  // The newest generation of the cache's index file, or null if it's never been built.
+  public static File getIndexFile(File cacheDir) {
+    List<File> indexFiles = getIndexFiles(cacheDir);
+    return indexFiles.isEmpty() ? null : indexFiles.get(indexFiles.size() - 1);
+  }
+
+  // The generation of an index file name, or -1 if it isn't one of the cache's index files.
+  private static long getGeneration(File file, String prefix) {
+    String name = file.getName();
+    if (!name.startsWith(prefix) || !name.endsWith(".idx"))
+      return -1;
+    try {
+      return Long.parseLong(name.substring(prefix.length(), name.length() - ".idx".length()));
+    } catch (NumberFormatException e) {
+      return -1;
+    }
+  }
+
+  // Returns the index for the viewer's cache, or null if there isn't one or the cache has changed since it
+  // was built.
+  public static DerivedIndex openIfCurrent(IjViewer viewer) throws IOException {
+    File indexFile = getIndexFile(viewer.getCacheDir());
+    if (indexFile == null || !isCurrent(indexFile, viewer.getCacheDir()))
+      return null;
+    return open(indexFile);
+  }
+
+  // Returns the index for the viewer's cache, building it first if it's missing or stale.
+  public static DerivedIndex openOrBuild(IjViewer viewer, DiskSizes sizes, BooleanSupplier cancelled)
+      throws IOException {
+    DerivedIndex current = openIfCurrent(viewer);
+    if (current != null)
+      return current;
+    return build(viewer, sizes, cancelled);
+  }
+
+  // Maps each column on its own, so the file as a whole can be larger than one MappedByteBuffer. Returns
+  // null if a single column is too big to map.
+  private static DerivedIndex open(File indexFile) throws IOException {
+    try (FileChannel channel = FileChannel.open(indexFile.toPath(), StandardOpenOption.READ)) {
+      ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE);
+      int recordCount = header.getInt(8);
+      int childCount = header.getInt(12);
+      if (recordCount * 8L > Integer.MAX_VALUE || childCount * 4L > Integer.MAX_VALUE) {
+        System.err.println("Not using " + indexFile + ": " + recordCount + " records and " + childCount
+            + " children don't fit in a mapped buffer per column");
+        return null;
+      }
+
+      long position = HEADER_SIZE;
+      ByteBuffer sizes = map(channel, position, recordCount * 8L);
+      position += recordCount * 8L;
+      ByteBuffer nameIds = map(channel, position, recordCount * 4L);
+      position += recordCount * 4L;
+      ByteBuffer modCounts = map(channel, position, recordCount * 4L);
+      position += recordCount * 4L;
+      ByteBuffer childOffsets = map(channel, position, (recordCount + 1) * 4L);
+      position += (recordCount + 1) * 4L;
+      ByteBuffer children = map(channel, position, childCount * 4L);
+      return new DerivedIndex(recordCount, new DiskSizes(sizes.asLongBuffer()), nameIds.asIntBuffer(),
+          modCounts.asIntBuffer(), childOffsets.asIntBuffer(), children.asIntBuffer());
+    }
+  }
+
+  private static ByteBuffer map(FileChannel channel, long position, long length) throws IOException {
+    return channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+  }
+
+  private static boolean isCurrent(File indexFile, File cacheDir) throws IOException {
+    try (DataInputStream input = new DataInputStream(new FileInputStream(indexFile))) {
+      if (input.readInt() != MAGIC || input.readInt() != VERSION)
+        return false;
+      input.readInt(); // recordCount
+      input.readInt(); // childCount
+      for (String sourceFile : SOURCE_FILES) {
+        File source = new File(cacheDir, sourceFile);
+        if (input.readLong() != lengthOf(source) || input.readLong() != lastModifiedOf(source))
+          return false;
+      }
+      return true;
+    } catch (IOException e) {
+      return false;
+    }
+  }
+
+  private static long lengthOf(File file) {
+    return file.exists() ? file.length() : -1;
+  }
+
+  private static long lastModifiedOf(File file) {
+    return file.exists() ? file.lastModified() : -1;
+  }
+
+  public static DerivedIndex build(IjViewer viewer, DiskSizes sizes, BooleanSupplier cancelled)
+      throws IOException {
+    File cacheDir = viewer.getCacheDir();
+    File indexFile = getIndexFile(cacheDir);
+    DerivedIndex previous = null;
+    if (indexFile != null) {
+      try {
+        previous = hasCurrentVersion(indexFile) ? open(indexFile) : null;
+      } catch (IOException e) {
+        previous = null;
+      }
+    }
+
+    IjViewer.Records records = viewer.records;
+    int recordCount = records.getRecordCount();
+    // With nothing to reuse, decode every directory's children in one pass. The table skips the same records
+    // as the loop below, so its arrays are written out as they are, rather than copied.
+    ChildrenTable decoded = previous == null ? ChildrenTable.decode(viewer, cancelled) : null;
+    int[] childOffsets;
+    int[] children;
+    int childCount;
+    int reused = 0;
+    if (decoded != null) {
+      childOffsets = decoded.getOffsets();
+      children = decoded.getIds();
+      childCount = childOffsets[recordCount];
+    } else {
+      childOffsets = new int[recordCount + 1];
+      children = new int[Math.max(16, recordCount)];
+      childCount = 0;
+      for (int id = 0; id < recordCount; id++) {
+        childOffsets[id] = childCount;
+        if (id % CANCEL_CHECK_INTERVAL == 0 && cancelled.getAsBoolean())
+          throw new CancellationException();
+        if (id == 0 || !records.isDirectory(id) || records.isFlagSet(id, IjViewer.Records.FREE_RECORD_FLAG))
+          continue;
+
+        int[] ids;
+        if (previous != null && previous.isUnchanged(viewer, id)) {
+          ids = previous.getChildren(id);
+          reused++;
+        } else {
+          try {
+            ids = viewer.attribs.getChildren(id);
+          } catch (Throwable t) {
+            ids = new int[0];
+          }
+        }
+
+        if (childCount + ids.length > children.length)
+          children = Arrays.copyOf(children, Math.max(children.length * 2, childCount + ids.length));
+        System.arraycopy(ids, 0, children, childCount, ids.length);
+        childCount += ids.length;
+      }
+      childOffsets[recordCount] = childCount;
+    }
+
+    File dir = getIndexDir();
+    dir.mkdirs();
+    File tmpFile = File.createTempFile("index", ".tmp", dir);
+    try (DataOutputStream out = new DataOutputStream(
+        new BufferedOutputStream(new FileOutputStream(tmpFile), 1 << 16))) {
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.writeInt(recordCount);
+      out.writeInt(childCount);
+      for (String sourceFile : SOURCE_FILES) {
+        File source = new File(viewer.getCacheDir(), sourceFile);
+        out.writeLong(lengthOf(source));
+        out.writeLong(lastModifiedOf(source));
+      }
+      for (int id = 0; id < recordCount; id++) {
+        out.writeLong(sizes.getSize(id));
+      }
+      for (int id = 0; id < recordCount; id++) {
+        out.writeInt(records.getNameId(id));
+      }
+      for (int id = 0; id < recordCount; id++) {
+        out.writeInt(records.getModCount(id));
+      }
+      for (int i = 0; i <= recordCount; i++) {
+        out.writeInt(childOffsets[i]);
+      }
+      for (int i = 0; i < childCount; i++) {
+        out.writeInt(children[i]);
+      }
+    } catch (IOException e) {
+      tmpFile.delete();
+      throw e;
+    }
+    String prefix = getIndexPrefix(cacheDir);
+    long generation = indexFile == null ? 0 : getGeneration(indexFile, prefix) + 1;
+    File newIndexFile = new File(dir, prefix + generation + ".idx");
+    Files.move(tmpFile.toPath(), newIndexFile.toPath(), StandardCopyOption.ATOMIC_MOVE);
+
+    // Fails for generations that are still mapped on Windows. They're tried again after the next build.
+    for (File oldIndexFile : getIndexFiles(cacheDir)) {
+      if (!oldIndexFile.equals(newIndexFile))
+        oldIndexFile.delete();
+    }
+
+    System.err.println("Built index " + newIndexFile + ", reused the children of " + reused + " directories");
+    return open(newIndexFile);
+  }
+
+  private static boolean hasCurrentVersion(File indexFile) throws IOException {
+    try (DataInputStream input = new DataInputStream(new FileInputStream(indexFile))) {
+      return input.readInt() == MAGIC && input.readInt() == VERSION;
+    }
+  }
+
+  // Whether this (older) index's children for a directory still hold in the viewer's cache.
+  private boolean isUnchanged(IjViewer viewer, int id) {
+    IjViewer.Records records = viewer.records;
+    if (id >= recordCount || modCounts.get(id) != records.getModCount(id) || nameIds.get(id) != records.getNameId(id))
+      return false;
+    int to = childOffsets.get(id + 1);
+    for (int i = childOffsets.get(id); i < to; i++) {
+      int child = children.get(i);
+      if (child <= 0 || child >= recordCount || child >= records.getRecordCount()
+          || nameIds.get(child) != records.getNameId(child))
+        return false;
+    }
+    return true;
+  }
+}
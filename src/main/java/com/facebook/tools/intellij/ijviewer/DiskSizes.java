@@ -0,0 +1,153 @@
+package com.facebook.tools.intellij.ijviewer;
+
+import java.nio.LongBuffer;
+import java.util.Arrays;
+import java.util.concurrent.CancellationException;
+import java.util.function.BooleanSupplier;
+
+// The size on disk of every record's subtree, aggregated bottom up from records.dat.
+//
+// Rather than walking the tree through the children attribute (random reads across attrib.dat, plus name
+// lookups to sort every directory), this makes one sequential pass over the records reading just the parent
+// and content ids, then rolls sizes up the parent chains deepest first. Everything is held in primitive
+// arrays indexed by file id.
+public final class DiskSizes {
+  private static final int PROGRESS_INTERVAL = 1 << 16;
+
+  public interface ProgressListener {
+    void onProgress(int recordsScanned, int recordCount, long bytesSummed);
+
+    // Called with each file's size as it's scanned, then with each directory's once sizes are rolled up.
+    default void onSized(int fileId, long size, boolean directory) {
+    }
+  }
+
+  private final LongBuffer sizes;
+
+  // sizes may be a view of a DerivedIndex.
+  DiskSizes(LongBuffer sizes) {
+    this.sizes = sizes;
+  }
+
+  // Returns -2 for ids that aren't in the table.
+  public long getSize(int fileId) {
+    if (fileId < 0 || fileId >= sizes.limit())
+      return -2;
+    return sizes.get(fileId);
+  }
+
+  public int getRecordCount() {
+    return sizes.limit();
+  }
+
+  public static DiskSizes compute(IjViewer viewer) {
+    return compute(viewer, () -> false, (scanned, count, bytes) -> {
+    });
+  }
+
+  public static DiskSizes compute(IjViewer viewer, BooleanSupplier cancelled, ProgressListener listener) {
+    IjViewer.Records records = viewer.records;
+    ContentStorage content = viewer.content;
+    int recordCount = records.getRecordCount();
+
+    int[] parents = new int[recordCount];
+    long[] sizes = new long[recordCount];
+    long bytesSummed = 0;
+
+    // Record 0 is the header.
+    for (int id = 1; id < recordCount; id++) {
+      if (id % PROGRESS_INTERVAL == 0) {
+        if (cancelled.getAsBoolean())
+          throw new CancellationException();
+        listener.onProgress(id, recordCount, bytesSummed);
+      }
+
+      if (records.isFlagSet(id, IjViewer.Records.FREE_RECORD_FLAG))
+        continue;
+
+      int parentId = records.getParentId(id);
+      parents[id] = parentId > 0 && parentId < recordCount ? parentId : 0;
+
+      int contentId = records.getContentId(id);
+      if (contentId != 0 && !records.isDirectory(id)) {
+        long size = content.getContentLength(contentId);
+        sizes[id] = size;
+        bytesSummed += size;
+        listener.onSized(id, size, false);
+      }
+    }
+    listener.onProgress(recordCount, recordCount, bytesSummed);
+
+    int[] order = sortByDepthDescending(parents);
+    for (int i = 0; i < order.length; i++) {
+      int id = order[i];
+      int parentId = parents[id];
+      if (parentId != 0) {
+        sizes[parentId] += sizes[id];
+      }
+    }
+    for (int id = 1; id < recordCount; id++) {
+      if (records.isDirectory(id) && !records.isFlagSet(id, IjViewer.Records.FREE_RECORD_FLAG))
+        listener.onSized(id, sizes[id], true);
+    }
+
+    return new DiskSizes(LongBuffer.wrap(sizes));
+  }
+
+  // Returns every id, deepest first, so that children are always visited before their parents. Parent links
+  // that close a cycle are cut, so every cycle ends up with a root.
+  private static int[] sortByDepthDescending(int[] parents) {
+    int recordCount = parents.length;
+    int[] depths = new int[recordCount];
+    Arrays.fill(depths, -1);
+    int[] chain = new int[64];
+    int maxDepth = 0;
+
+    for (int id = 0; id < recordCount; id++) {
+      if (depths[id] >= 0)
+        continue;
+
+      // Walk up until we reach a root or a record whose depth is already known, marking the chain as we go.
+      int length = 0;
+      int current = id;
+      while (current != 0 && depths[current] == -1) {
+        depths[current] = -2;
+        if (length == chain.length)
+          chain = Arrays.copyOf(chain, length * 2);
+        chain[length++] = current;
+        current = parents[current];
+      }
+
+      int depth;
+      if (current == 0) {
+        depth = -1;
+      } else if (depths[current] >= 0) {
+        depth = depths[current];
+      } else { // we came back to the chain: a cycle
+        parents[chain[length - 1]] = 0;
+        depth = -1;
+      }
+
+      for (int i = length - 1; i >= 0; i--) {
+        depths[chain[i]] = ++depth;
+      }
+      if (length == 0)
+        depths[id] = depth = 0;
+      maxDepth = Math.max(maxDepth, depth);
+    }
+
+    // Counting sort by depth.
+    int[] starts = new int[maxDepth + 2];
+    for (int id = 0; id < recordCount; id++) {
+      starts[maxDepth - depths[id] + 1]++;
+    }
+    for (int i = 1; i < starts.length; i++) {
+      starts[i] += starts[i - 1];
+    }
+    int[] order = new int[recordCount];
+    for (int id = 0; id < recordCount; id++) {
+      order[starts[maxDepth - depths[id]]++] = id;
+    }
+    return order;
+  }
+}
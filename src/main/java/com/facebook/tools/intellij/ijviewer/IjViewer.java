@@ -1,16 +1,21 @@
 package com.facebook.tools.intellij.ijviewer;
 
+import java.io.Closeable;
 import java.io.DataInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
 
 import com.facebook.tools.intellij.ijviewer.ui.UI;
 import com.intellij.util.concurrency.SequentialTaskExecutor;
@@ -26,29 +31,145 @@ import com.intellij.util.io.storage.CapacityAllocationPolicy;
 import com.intellij.util.io.storage.RefCountingStorage;
 import com.intellij.util.io.storage.Storage;
 
-public class IjViewer {
+public class IjViewer implements Closeable {
 
   public final Records records;
   public final PersistentStringEnumerator names;
   public final Attribs attribs;
   public final AttribEnum attribEnum;
-  public final CustomRefCountingStorage content;
+  public final ContentStorage content;
 
-  public IjViewer(ResizeableMappedFile records, PersistentStringEnumerator names, Storage attribs,
-      AttribEnum attribEnum, CustomRefCountingStorage content) {
-    this.records = new Records(records);
+  private static final int LRU_NAME_CACHE_SIZE = 64 * 1024;
+
+  private volatile NameCache nameCache;
+  private volatile NameIndex nameIndex;
+
+  // Guards getPath against cycles in corrupt caches.
+  private static final int MAX_PATH_DEPTH = 4096;
+
+  // The directory the cache was opened from, even if it's being read from a copy.
+  private final File cacheDir;
+
+  IjViewer(File cacheDir, Records records, PersistentStringEnumerator names, StorageReader attribs,
+      AttribEnum attribEnum, ContentStorage content) {
+    this.cacheDir = cacheDir;
+    this.records = records;
     this.names = names;
     this.attribs = new Attribs(attribs);
     this.attribEnum = attribEnum;
     this.content = content;
+    this.nameCache = NameCache.lru(names, LRU_NAME_CACHE_SIZE);
+  }
+
+  public File getCacheDir() {
+    return cacheDir;
   }
 
   public String getName(int recordId) throws IOException {
     int nameId = records.getRecordInt(recordId, Records.NAME_OFFSET);
-    return names.valueOf(nameId);
+    return nameCache.get(nameId);
+  }
+
+  public NameCache getNameCache() {
+    return nameCache;
+  }
+
+  // Decodes every name into a pool up front, after which getName never goes back to names.dat. Until this
+  // is called, names are kept in a bounded LRU cache.
+  public NameCache.Pool preloadNames() throws IOException {
+    long start = System.nanoTime();
+    NameCache.Pool pool = NameCache.bulkLoad(this);
+    nameCache = pool;
+    System.out.println("Loaded " + pool.size() + " names (" + pool.getPoolBytes() + " bytes) in "
+        + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + "ms");
+    return pool;
+  }
+
+  // Indexes the pooled names for substring search. Until this is called, getNameIndex returns null.
+  public NameIndex buildNameIndex(NameCache.Pool pool) {
+    long start = System.nanoTime();
+    NameIndex index = NameIndex.build(this, pool);
+    nameIndex = index;
+    System.out.println("Indexed " + index.getNameCount() + " names (" + index.getTrigramCount() + " trigrams) in "
+        + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + "ms");
+    return index;
+  }
+
+  public NameIndex getNameIndex() {
+    return nameIndex;
+  }
+
+  // Builds the path of a record from the names of its ancestors.
+  public String getPath(int recordId) throws IOException {
+    List<String> names = new ArrayList<>();
+    int id = recordId;
+    while (id > 0 && id < records.getRecordCount() && names.size() <= MAX_PATH_DEPTH) {
+      names.add(getName(id));
+      id = records.getParentId(id);
+    }
+
+    StringBuilder path = new StringBuilder();
+    for (int i = names.size() - 1; i >= 0; i--) {
+      String name = names.get(i);
+      if (path.length() > 0 && path.charAt(path.length() - 1) != '/')
+        path.append('/');
+      path.append(name);
+    }
+    return path.toString();
+  }
+
+  @Override
+  public void close() throws IOException {
+    names.close();
+  }
+
+  public enum OpenMode {
+    // Map the storage files in place, read only. Only the names enumerator, which can only be read through
+    // PersistentStringEnumerator, is copied.
+    MAPPED_READ_ONLY,
+    // Copy the entire cache dir and open the copy with IntelliJ's storage classes.
+    COPY
   }
 
   public static IjViewer forCacheDir(File cacheDir) throws IOException {
+    return forCacheDir(cacheDir, OpenMode.MAPPED_READ_ONLY);
+  }
+
+  public static IjViewer forCacheDir(File cacheDir, OpenMode mode) throws IOException {
+    long start = System.nanoTime();
+    IjViewer viewer = mode == OpenMode.COPY ? openCopy(cacheDir) : openMapped(cacheDir);
+    System.out.println("Opened " + cacheDir + " (" + mode + ") in "
+        + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + "ms");
+    return viewer;
+  }
+
+  private static IjViewer openMapped(File cacheDir) throws IOException {
+    // PersistentStringEnumerator marks names.dat dirty as soon as it is opened, so it still works on a copy.
+    Path namesDir = Files.createTempDirectory("ijviewer");
+    namesDir.toFile().deleteOnExit();
+    for (File child : cacheDir.listFiles()) {
+      if (child.getName().startsWith("names.dat")) {
+        Path copy = namesDir.resolve(child.getName());
+        Files.copy(child.toPath(), copy);
+        copy.toFile().deleteOnExit();
+      }
+    }
+
+    PagedFileStorage.StorageLockContext storageLockContext = new PagedFileStorage.StorageLockContext(false);
+    PersistentStringEnumerator names = new PersistentStringEnumerator(namesDir.resolve("names.dat"),
+        storageLockContext);
+
+    Records records = new Records(RecordsView.open(new File(cacheDir, "records.dat")));
+    MappedStorage attribStorage = new MappedStorage(new File(cacheDir, "attrib.dat"),
+        MappedStorage.TableLayout.COMPACT);
+    MappedContentStorage contents = new MappedContentStorage(new File(cacheDir, "content.dat"));
+    AttribEnum attribEnum = AttribEnum.read(cacheDir);
+
+    return new IjViewer(cacheDir, records, names, attribStorage, attribEnum, contents);
+  }
+
+  private static IjViewer openCopy(File originalCacheDir) throws IOException {
+    File cacheDir = originalCacheDir;
     // Create a copy of the cache dir, otherwise sometimes reading the files will
     // corrupt them.
     Path tmpDir = Files.createTempDirectory("ijviewer");
@@ -84,18 +205,49 @@ public class IjViewer {
 
     AttribEnum attribEnum = AttribEnum.read(cacheDir);
 
-    return new IjViewer(records, names, attribStorage, attribEnum, contents);
+    int recordCount = RecordsView.countRecords(recordsFile.toPath(), recordsFile.length());
+    return new IjViewer(originalCacheDir, new Records(records, recordCount), names, attribStorage::readStream,
+        attribEnum, contents);
   }
 
-  public static class CustomRefCountingStorage extends RefCountingStorage {
+  public static class CustomRefCountingStorage extends RefCountingStorage implements ContentStorage {
     CustomRefCountingStorage(File contentsFile) throws IOException {
       super(contentsFile.getPath(), CapacityAllocationPolicy.FIVE_PERCENT_FOR_GROWTH, false);
     }
 
+    @Override
+    public int getRecordCount() throws IOException {
+      return myRecordsTable.getRecordsCount();
+    }
+
+    @Override
     public int getContentLength(int contentId) {
       return myRecordsTable.getSize(contentId);
     }
 
+    // RefCountingStorage was opened with doNotZip false, so everything it reads is inflated.
+    @Override
+    public boolean isCompressed(int contentId) {
+      return true;
+    }
+
+    @Override
+    public ByteBuffer read(int contentId, int maxBytes) throws IOException {
+      try (DataInputStream input = readStream(contentId)) {
+        byte[] bytes = new byte[(int) Math.min(maxBytes, Math.max(1024L, getContentLength(contentId) * 4L))];
+        int length = 0;
+        while (length < maxBytes) {
+          if (length == bytes.length)
+            bytes = Arrays.copyOf(bytes, (int) Math.min(maxBytes, bytes.length * 2L));
+          int count = input.read(bytes, length, bytes.length - length);
+          if (count < 0)
+            break;
+          length += count;
+        }
+        return ByteBuffer.wrap(bytes, 0, length).slice().asReadOnlyBuffer();
+      }
+    }
+
     @Override
     protected ExecutorService createExecutor() {
       return SequentialTaskExecutor.createSequentialApplicationPoolExecutor("FSRecords Pool");
@@ -110,6 +262,19 @@ public class IjViewer {
     return content.readStream(contentId);
   }
 
+  // A read-only view of the file's cached content, or null if it isn't cached. See ContentStorage.read.
+  public ByteBuffer readContentBuffer(int fileId) throws IOException {
+    return readContentBuffer(fileId, Integer.MAX_VALUE);
+  }
+
+  public ByteBuffer readContentBuffer(int fileId, int maxBytes) throws IOException {
+    int contentId = records.getContentId(fileId);
+    if (contentId == 0)
+      return null;
+
+    return content.read(contentId, maxBytes);
+  }
+
   private static final AttrPageAwareCapacityAllocationPolicy REASONABLY_SMALL = new AttrPageAwareCapacityAllocationPolicy();
 
   private static class AttrPageAwareCapacityAllocationPolicy extends CapacityAllocationPolicy {
@@ -127,20 +292,121 @@ public class IjViewer {
     File cacheDir = new
     File("/Users/bduff/Library/Caches/JetBrains/IdeaIC2020.1/caches/");
 
-    IjViewer viewer = IjViewer.forCacheDir(cacheDir);
+    OpenMode mode = Arrays.asList(args).contains("--copy") ? OpenMode.COPY : OpenMode.MAPPED_READ_ONLY;
+    IjViewer viewer = IjViewer.forCacheDir(cacheDir, mode);
+    boolean preloadNames = !Arrays.asList(args).contains("--lru-names");
+    Thread preloader = new Thread(() -> {
+      try {
+        viewer.attribs.buildIndex();
+        if (preloadNames) {
+          viewer.buildNameIndex(viewer.preloadNames());
+        }
+      } catch (IOException e) {
+        e.printStackTrace();
+      }
+    }, "Preloader");
+    preloader.setDaemon(true);
+    preloader.start();
     new UI(viewer).show();
   }
 
   public class Attribs {
-    private static final int MAX_SMALL_ATTR_SIZE = 64;
+    private static final int MAX_SMALL_ATTR_SIZE = AttributeIndex.MAX_SMALL_ATTR_SIZE;
 
-    private final Storage storage;
+    private final StorageReader storage;
+    private volatile AttributeIndex index;
+    private volatile boolean indexTooLarge;
 
-    Attribs(Storage storage) {
+    Attribs(StorageReader storage) {
       this.storage = storage;
     }
 
+    // Indexes where every record's attributes are, so that reading one no longer walks the record's attribute
+    // list. Only possible when attrib.dat is mapped, and the index fits in AttributeIndex.MAX_INDEX_BYTES,
+    // otherwise returns null.
+    public AttributeIndex buildIndex() {
+      if (!(storage instanceof MappedStorage) || indexTooLarge)
+        return null;
+      long start = System.nanoTime();
+      AttributeIndex index = AttributeIndex.build(records, (MappedStorage) storage);
+      if (index == null) {
+        indexTooLarge = true;
+        System.err.println("Not indexing attributes: the index would take more than "
+            + AttributeIndex.MAX_INDEX_BYTES / (1024 * 1024) + "MB (see -Dijviewer.attributeIndexMb)");
+        return null;
+      }
+      this.index = index;
+      System.err.println("Indexed " + index.getEntryCount() + " attributes in "
+          + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + "ms");
+      return index;
+    }
+
+    public AttributeIndex getIndex() {
+      return index;
+    }
+
+    // Null unless attrib.dat is mapped.
+    MappedStorage getMappedStorage() {
+      return storage instanceof MappedStorage ? (MappedStorage) storage : null;
+    }
+
+    // Returns the id of the attribute, or -1 if the cache doesn't know it.
+    public int getAttributeId(String attributeName) {
+      Integer attrId = attribEnum.attribIdsByName.get(attributeName);
+      return attrId == null ? -1 : attrId;
+    }
+
+    // Every attribute the cache knows, by id - 1.
+    public List<String> getAttributeNames() {
+      return Collections.unmodifiableList(attribEnum.attribs);
+    }
+
+    // The ids of the record's attributes, from the index if there is one.
+    public int[] getAttributeIds(int recordId) throws IOException {
+      AttributeIndex index = this.index;
+      if (index != null)
+        return index.getAttributeIds(recordId);
+
+      int attributeRecordId = records.getAttributeRecordId(recordId);
+      if (attributeRecordId <= 0)
+        return new int[0];
+      List<Integer> attrIds = new ArrayList<>();
+      try (DataInputStream attrRefs = storage.readStream(attributeRecordId)) {
+        while (attrRefs.available() > 0) {
+          attrIds.add(DataInputOutputUtil.readINT(attrRefs));
+          int attrAddressOrSize = DataInputOutputUtil.readINT(attrRefs);
+          if (attrAddressOrSize < MAX_SMALL_ATTR_SIZE) {
+            attrRefs.skipBytes(attrAddressOrSize);
+          }
+        }
+      }
+      int[] result = new int[attrIds.size()];
+      for (int i = 0; i < result.length; i++) {
+        result[i] = attrIds.get(i);
+      }
+      return result;
+    }
+
+    // A read-only view of the attribute from the index, or null if the record doesn't have it or there's no
+    // index.
+    public ByteBuffer readAttributeBuffer(int recordId, String attributeName) {
+      AttributeIndex index = this.index;
+      if (index == null)
+        return null;
+      return index.read(recordId, getAttributeId(attributeName));
+    }
+
     public DataInputStream readAttribute(int recordId, String attributeName) throws IOException {
+      AttributeIndex index = this.index;
+      if (index != null) {
+        ByteBuffer attribute = index.read(recordId, getAttributeId(attributeName));
+        if (attribute == null)
+          return null;
+        byte[] b = new byte[attribute.remaining()];
+        attribute.get(b);
+        return new DataInputStream(new UnsyncByteArrayInputStream(b));
+      }
+
       int attributeRecordId = records.getAttributeRecordId(recordId);
       int attrId = attribEnum.attribIdsByName.get(attributeName);
 
@@ -150,7 +416,10 @@ public class IjViewer {
           int attIdOnPage = DataInputOutputUtil.readINT(attrRefs);
           int attrAddressOrSize = DataInputOutputUtil.readINT(attrRefs);
           if (attIdOnPage != attrId) {
-            attrRefs.skipBytes(attrAddressOrSize);
+            // Only inline attributes have their bytes here.
+            if (attrAddressOrSize < MAX_SMALL_ATTR_SIZE) {
+              attrRefs.skipBytes(attrAddressOrSize);
+            }
           } else {
             if (attrAddressOrSize < MAX_SMALL_ATTR_SIZE) {
               byte[] b = new byte[attrAddressOrSize];
@@ -172,40 +441,54 @@ public class IjViewer {
 
     public int[] getChildren(int recordId) throws IOException {
       ChildrenAttribute ca = new ChildrenAttribute(recordId);
+      if (index != null)
+        return ca.read(readAttributeBuffer(recordId, ChildrenAttribute.NAME));
       return ca.read(readAttribute(recordId, ChildrenAttribute.NAME));
     }
 
     public int getChildCount(int recordId) throws IOException {
       ChildrenAttribute ca = new ChildrenAttribute(recordId);
+      if (index != null)
+        return ca.getCount(readAttributeBuffer(recordId, ChildrenAttribute.NAME));
       return ca.getCount(readAttribute(recordId, ChildrenAttribute.NAME));
     }
   }
 
   public static class Records {
     private final ResizeableMappedFile records;
+    private final RecordsView view;
+    private final int recordCount;
 
-    Records(ResizeableMappedFile records) {
+    Records(ResizeableMappedFile records, int recordCount) {
       this.records = records;
+      this.view = null;
+      this.recordCount = recordCount;
     }
 
-    private static final int PARENT_OFFSET = 0;
+    Records(RecordsView view) {
+      this.records = null;
+      this.view = view;
+      this.recordCount = view.getRecordCount();
+    }
+
+    static final int PARENT_OFFSET = 0;
     private static final int PARENT_SIZE = 4;
-    private static final int NAME_OFFSET = PARENT_OFFSET + PARENT_SIZE;
+    static final int NAME_OFFSET = PARENT_OFFSET + PARENT_SIZE;
     private static final int NAME_SIZE = 4;
-    private static final int FLAGS_OFFSET = NAME_OFFSET + NAME_SIZE;
+    static final int FLAGS_OFFSET = NAME_OFFSET + NAME_SIZE;
     private static final int FLAGS_SIZE = 4;
-    private static final int ATTR_REF_OFFSET = FLAGS_OFFSET + FLAGS_SIZE;
+    static final int ATTR_REF_OFFSET = FLAGS_OFFSET + FLAGS_SIZE;
     private static final int ATTR_REF_SIZE = 4;
-    private static final int CONTENT_OFFSET = ATTR_REF_OFFSET + ATTR_REF_SIZE;
+    static final int CONTENT_OFFSET = ATTR_REF_OFFSET + ATTR_REF_SIZE;
     private static final int CONTENT_SIZE = 4;
-    private static final int TIMESTAMP_OFFSET = CONTENT_OFFSET + CONTENT_SIZE;
+    static final int TIMESTAMP_OFFSET = CONTENT_OFFSET + CONTENT_SIZE;
     private static final int TIMESTAMP_SIZE = 8;
-    private static final int MOD_COUNT_OFFSET = TIMESTAMP_OFFSET + TIMESTAMP_SIZE;
+    static final int MOD_COUNT_OFFSET = TIMESTAMP_OFFSET + TIMESTAMP_SIZE;
     private static final int MOD_COUNT_SIZE = 4;
-    private static final int LENGTH_OFFSET = MOD_COUNT_OFFSET + MOD_COUNT_SIZE;
+    static final int LENGTH_OFFSET = MOD_COUNT_OFFSET + MOD_COUNT_SIZE;
     private static final int LENGTH_SIZE = 8;
 
-    private static final int RECORD_SIZE = LENGTH_OFFSET + LENGTH_SIZE;
+    static final int RECORD_SIZE = LENGTH_OFFSET + LENGTH_SIZE;
 
     public static final int CHILDREN_CACHED_FLAG = 0x01;
     public static final int IS_DIRECTORY_FLAG = 0x02;
@@ -217,13 +500,26 @@ public class IjViewer {
     public static final int FREE_RECORD_FLAG = 0x100;
 
     private int getRecordInt(int id, int offset) {
+      if (view != null)
+        return view.getInt(id, offset);
       return records.getInt(getOffset(id, offset));
     }
 
+    private long getRecordLong(int id, int offset) {
+      if (view != null)
+        return view.getLong(id, offset);
+      return records.getLong(getOffset(id, offset));
+    }
+
     private int getOffset(int id, int offset) {
       return id * RECORD_SIZE + offset;
     }
 
+    // The number of record slots, including the header record 0.
+    public int getRecordCount() {
+      return recordCount;
+    }
+
     public int getNameId(int recordId) {
       return getRecordInt(recordId, Records.NAME_OFFSET);
     }
@@ -246,11 +542,11 @@ public class IjViewer {
     }
 
     public long getLength(int recordId) {
-      return records.getLong(getOffset(recordId, Records.LENGTH_OFFSET));
+      return getRecordLong(recordId, Records.LENGTH_OFFSET);
     }
 
     public long getTimestamp(int recordId) {
-      return records.getLong(getOffset(recordId, Records.TIMESTAMP_OFFSET));
+      return getRecordLong(recordId, Records.TIMESTAMP_OFFSET);
     }
 
     public int getModCount(int recordId) {
@@ -331,5 +627,25 @@ public class IjViewer {
         return 0;
       return DataInputOutputUtil.readINT(input);
     }
+
+    public int[] read(ByteBuffer input) {
+      if (input == null)
+        return new int[0];
+
+      int count = VarInt.read(input);
+      int[] result = new int[count];
+
+      int prevId = this.fileId;
+      for (int i = 0; i < count; i++) {
+        prevId = result[i] = VarInt.read(input) + prevId;
+      }
+      return result;
+    }
+
+    public int getCount(ByteBuffer input) {
+      if (input == null)
+        return 0;
+      return VarInt.read(input);
+    }
   }
 }
\ No newline at end of file
@@ -0,0 +1,424 @@
+package com.facebook.tools.intellij.ijviewer;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+// Headless entry point, for looking at caches on machines without a display. Reports are streamed to stdout
+// without building the Swing tree model.
+public class IjViewerCli {
+  private static final String USAGE = String.join("\n",
+      "Usage: IjViewerCli <command> [options] <cache dir>",
+      "",
+      "Commands:",
+      "  report    Summary, largest directories and content reference counts",
+      "  content   Duplicated and orphaned content in content.dat, and how much could be reclaimed",
+      "  check     Check that records.dat, attrib.dat and content.dat are consistent. Exits with 1 if not",
+      "  lookup    Resolve the paths on stdin, one per line, to record ids (-1 if they aren't in the cache)",
+      "  search    Files whose content contains --pattern, with the offset and line of each match",
+      "  find      Files and directories whose names contain --pattern (ignoring ASCII case)",
+      "  diff      What changed since the cache in --before: records added, removed and moved, content, flag",
+      "            and subtree size changes",
+      "  export    Write every record, with its name, path, content length and attributes, to the columnar",
+      "            file --output",
+      "  generate  Write a synthetic cache to the (new or empty) cache dir",
+      "",
+      "Options:",
+      "  --format json|tsv   Output format (default tsv)",
+      "  --top N             Number of directories in the largest directories report (default 50)",
+      "  --copy              Copy the cache dir instead of mapping it read-only",
+      "  --pattern TEXT      What to search for",
+      "  --regex             Treat --pattern as a regex",
+      "  --limit N           Most paths find prints (default 1000)",
+      "  --before DIR        The earlier cache to diff against",
+      "  --output FILE       Where export writes to",
+      "",
+      "Generate options (see SyntheticCache.Shape for defaults):",
+      "  --records N --depth N --fan-out N --seed N",
+      "  --names N --name-skew X                      Distinct names, and the Zipf exponent of their frequencies",
+      "  --content-fraction X --content-median N --content-sigma X --max-content-size N",
+      "  --shared-content X                           Fraction of content shared by more than one file",
+      "  --indirect X                                 Fraction of attrib.dat records made indirect",
+      "  --file-attributes X                          Fraction of files with attributes",
+      "  --attributes-per-file N                      How many attributes each of them has (default 1)",
+      "  --uncompressed                               Store content without deflating it");
+
+  private final IjViewer viewer;
+  private final ReportWriter out;
+  private final Options options;
+
+  IjViewerCli(IjViewer viewer, ReportWriter out, Options options) {
+    this.viewer = viewer;
+    this.out = out;
+    this.options = options;
+  }
+
+  public static void main(String[] args) throws IOException {
+    Options options = Options.parse(args);
+    if (options.arguments.size() != 2) {
+      System.err.println(USAGE);
+      System.exit(2);
+    }
+
+    String command = options.arguments.get(0);
+    File cacheDir = new File(options.arguments.get(1));
+    if (command.equals("generate")) {
+      SyntheticCache.generate(cacheDir, parseShape(options));
+      return;
+    }
+    // Reject bad counts before spending time opening the cache.
+    options.getCount("top", 50);
+    options.getCount("limit", 1000);
+    IjViewer.OpenMode mode = options.flag("copy") ? IjViewer.OpenMode.COPY : IjViewer.OpenMode.MAPPED_READ_ONLY;
+
+    // Keep stdout for the report.
+    java.io.PrintStream stdout = System.out;
+    System.setOut(System.err);
+
+    ReportWriter out = ReportWriter.create(options.get("format", "tsv"), stdout);
+    boolean clean = true;
+    try (IjViewer viewer = IjViewer.forCacheDir(cacheDir, mode)) {
+      IjViewerCli cli = new IjViewerCli(viewer, out, options);
+      switch (command) {
+      case "report":
+        cli.report();
+        break;
+      case "content":
+        cli.content();
+        break;
+      case "check":
+        clean = cli.check();
+        break;
+      case "lookup":
+        cli.lookup(new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8)));
+        break;
+      case "search":
+        cli.search();
+        break;
+      case "find":
+        cli.find();
+        break;
+      case "diff":
+        cli.diff(mode);
+        break;
+      case "export":
+        cli.export();
+        break;
+      default:
+        System.err.println("Unknown command: " + command);
+        System.err.println(USAGE);
+        System.exit(2);
+      }
+    }
+    out.close();
+    if (!clean) {
+      System.exit(1);
+    }
+  }
+
+  // The summary and reference count sections are streamed straight from the mapped files. The largest
+  // directories need every record's subtree size, so that section takes memory in proportion to the number of
+  // records (8 bytes each, and 20 while computing them), unless the sizes can be mapped from a current
+  // DerivedIndex.
+  void report() throws IOException {
+    int top = options.getCount("top", 50);
+    reportSummary();
+    reportTopDirectories(top);
+    reportRefCountDistribution();
+  }
+
+  void content() throws IOException {
+    ContentAnalysis.analyze(viewer, () -> false, (hashed, count) -> {
+      System.err.print("\rHashed " + hashed + " of " + count + " contents");
+    }).write(out);
+    System.err.println();
+  }
+
+  // Returns whether the cache is consistent.
+  boolean check() throws IOException {
+    // Children are read for every directory, so index where they are first.
+    viewer.attribs.buildIndex();
+    IntegrityChecker.Report report = IntegrityChecker.check(viewer);
+    report.write(out);
+    return report.isClean();
+  }
+
+  void lookup(BufferedReader paths) throws IOException {
+    PathIndex index = new PathIndex(viewer);
+    long start = System.nanoTime();
+    int count = 0;
+    out.beginSection("paths", "path", "fileId");
+    for (String path; (path = paths.readLine()) != null;) {
+      if (path.isEmpty())
+        continue;
+      out.row(path, index.resolve(path));
+      count++;
+    }
+    out.endSection();
+    System.err.println("Resolved " + count + " paths in "
+        + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + "ms");
+  }
+
+  void search() throws IOException {
+    String pattern = options.get("pattern", "");
+    if (pattern.isEmpty()) {
+      System.err.println("search needs a --pattern");
+      System.exit(2);
+    }
+    long start = System.nanoTime();
+    out.beginSection("matches", "fileId", "offset", "path", "line");
+    long count = ContentSearch.search(viewer, pattern, options.flag("regex"), () -> false, match -> {
+      synchronized (out) {
+        out.row(match.fileId, match.offset, match.path, match.preview);
+      }
+    }, (searched, contentCount) -> {
+      System.err.print("\rSearched " + searched + " of " + contentCount + " contents");
+    });
+    out.endSection();
+    System.err.println();
+    System.err.println("Found " + count + " matches in "
+        + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + "ms");
+  }
+
+  void find() throws IOException {
+    String pattern = options.get("pattern", "");
+    if (pattern.isEmpty()) {
+      System.err.println("find needs a --pattern");
+      System.exit(2);
+    }
+    int limit = options.getCount("limit", 1000);
+    NameIndex index = viewer.buildNameIndex(viewer.preloadNames());
+    long start = System.nanoTime();
+    NameIndex.Result result = index.find(pattern, limit);
+    long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+    out.beginSection("paths", "fileId", "path");
+    for (NameIndex.Match match : result.matches) {
+      out.row(match.fileId, match.path);
+    }
+    out.endSection();
+    System.err.println("Found " + result.matchCount + " matches in " + millis + "ms");
+  }
+
+  void diff(IjViewer.OpenMode mode) throws IOException {
+    String beforeDir = options.get("before", "");
+    if (beforeDir.isEmpty()) {
+      System.err.println("diff needs a --before cache dir");
+      System.exit(2);
+    }
+    try (IjViewer before = IjViewer.forCacheDir(new File(beforeDir), mode)) {
+      before.preloadNames();
+      viewer.preloadNames();
+      long start = System.nanoTime();
+      out.beginSection("changes", "kind", "path", "beforePath", "beforeId", "afterId", "before", "after");
+      CacheDiff.Summary summary = CacheDiff.diff(before, viewer, () -> false, change -> {
+        out.row(change.kind.name().toLowerCase(), change.path, change.beforePath != null ? change.beforePath : "",
+            change.beforeId, change.afterId, change.before, change.after);
+      }, (phase, done, total) -> {
+        System.err.print("\r" + phase + ": " + done + " of " + total);
+      });
+      out.endSection();
+      summary.write(out);
+      System.err.println();
+      System.err.println("Diffed in " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + "ms");
+    }
+  }
+
+  void export() throws IOException {
+    String output = options.get("output", "");
+    if (output.isEmpty()) {
+      System.err.println("export needs an --output file");
+      System.exit(2);
+    }
+    viewer.attribs.buildIndex();
+    viewer.preloadNames();
+    long start = System.nanoTime();
+    File file = new File(output);
+    long rows = ColumnarExport.export(viewer, file, () -> false, (written, count) -> {
+      System.err.print("\rExported " + written + " of " + count + " records");
+    });
+    System.err.println();
+    System.err.println("Wrote " + rows + " rows (" + file.length() + " bytes) to " + file + " in "
+        + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + "ms");
+  }
+
+  private void reportSummary() throws IOException {
+    IjViewer.Records records = viewer.records;
+    long fileRecords = 0;
+    long directoryRecords = 0;
+    long freeRecords = 0;
+    long mustReloadContent = 0;
+    long filesWithContent = 0;
+    for (int id = 1; id < records.getRecordCount(); id++) {
+      int flags = records.getFlags(id);
+      if ((flags & IjViewer.Records.FREE_RECORD_FLAG) != 0) {
+        freeRecords++;
+        continue;
+      }
+      if ((flags & IjViewer.Records.IS_DIRECTORY_FLAG) != 0) {
+        directoryRecords++;
+      } else {
+        fileRecords++;
+        if (records.getContentId(id) != 0)
+          filesWithContent++;
+      }
+      if ((flags & IjViewer.Records.MUST_RELOAD_CONTENT) != 0)
+        mustReloadContent++;
+    }
+
+    long cachedBytes = 0;
+    int contentRecords = viewer.content.getRecordCount();
+    for (int contentId = 1; contentId <= contentRecords; contentId++) {
+      cachedBytes += Math.max(0, viewer.content.getContentLength(contentId));
+    }
+
+    out.beginSection("summary", "name", "value");
+    out.row("records", records.getRecordCount() - 1);
+    out.row("fileRecords", fileRecords);
+    out.row("directoryRecords", directoryRecords);
+    out.row("freeRecords", freeRecords);
+    out.row("filesWithCachedContent", filesWithContent);
+    out.row("mustReloadContentRecords", mustReloadContent);
+    out.row("contentRecords", contentRecords);
+    out.row("totalCachedBytes", cachedBytes);
+    out.endSection();
+  }
+
+  private void reportTopDirectories(int count) throws IOException {
+    DerivedIndex index = DerivedIndex.openIfCurrent(viewer);
+    DiskSizes sizes = index != null ? index.getDiskSizes() : DiskSizes.compute(viewer);
+    TopK largest = new TopK(count);
+    IjViewer.Records records = viewer.records;
+    for (int id = 1; id < records.getRecordCount(); id++) {
+      long size = sizes.getSize(id);
+      if (size > largest.threshold() && records.isDirectory(id)
+          && !records.isFlagSet(id, IjViewer.Records.FREE_RECORD_FLAG)) {
+        largest.offer(id, size);
+      }
+    }
+
+    long[] largestSizes = new long[largest.size()];
+    int[] largestIds = largest.toSortedIds(largestSizes);
+    out.beginSection("largestDirectories", "rank", "fileId", "bytes", "path");
+    for (int i = 0; i < largestIds.length; i++) {
+      out.row(i + 1, largestIds[i], largestSizes[i], viewer.getPath(largestIds[i]));
+    }
+    out.endSection();
+  }
+
+  private void reportRefCountDistribution() throws IOException {
+    // Bucket 0 is refcount <= 0, 1 is 1, 2 is 2, then 3-4, 5-8 and so on.
+    long[] contents = new long[34];
+    long[] bytes = new long[34];
+    int contentRecords = viewer.content.getRecordCount();
+    for (int contentId = 1; contentId <= contentRecords; contentId++) {
+      int refCount = viewer.content.getRefCount(contentId);
+      int bucket = refCount <= 0 ? 0 : 33 - Integer.numberOfLeadingZeros(refCount - 1);
+      contents[bucket]++;
+      bytes[bucket] += Math.max(0, viewer.content.getContentLength(contentId));
+    }
+
+    out.beginSection("refCountDistribution", "refCount", "contents", "bytes");
+    for (int bucket = 0; bucket < contents.length; bucket++) {
+      if (contents[bucket] == 0)
+        continue;
+      String label;
+      if (bucket <= 2) {
+        label = String.valueOf(bucket);
+      } else {
+        label = ((1L << (bucket - 2)) + 1) + "-" + (1L << (bucket - 1));
+      }
+      out.row(label, contents[bucket], bytes[bucket]);
+    }
+    out.endSection();
+  }
+
+  static SyntheticCache.Shape parseShape(Options options) {
+    SyntheticCache.Shape shape = new SyntheticCache.Shape();
+    shape.records = Integer.parseInt(options.get("records", String.valueOf(shape.records)));
+    shape.depth = Integer.parseInt(options.get("depth", String.valueOf(shape.depth)));
+    shape.fanOut = Integer.parseInt(options.get("fan-out", String.valueOf(shape.fanOut)));
+    shape.distinctNames = Integer.parseInt(options.get("names", String.valueOf(shape.distinctNames)));
+    shape.nameSkew = Double.parseDouble(options.get("name-skew", String.valueOf(shape.nameSkew)));
+    shape.contentFraction = Double.parseDouble(options.get("content-fraction",
+        String.valueOf(shape.contentFraction)));
+    shape.contentMedian = Integer.parseInt(options.get("content-median", String.valueOf(shape.contentMedian)));
+    shape.contentSigma = Double.parseDouble(options.get("content-sigma", String.valueOf(shape.contentSigma)));
+    shape.maxContentSize = Integer.parseInt(options.get("max-content-size",
+        String.valueOf(shape.maxContentSize)));
+    shape.sharedContentFraction = Double.parseDouble(options.get("shared-content",
+        String.valueOf(shape.sharedContentFraction)));
+    shape.indirectFraction = Double.parseDouble(options.get("indirect", String.valueOf(shape.indirectFraction)));
+    shape.fileAttributeFraction = Double.parseDouble(options.get("file-attributes",
+        String.valueOf(shape.fileAttributeFraction)));
+    shape.attributesPerFile = Integer.parseInt(options.get("attributes-per-file",
+        String.valueOf(shape.attributesPerFile)));
+    shape.compressContent = !options.flag("uncompressed");
+    shape.seed = Long.parseLong(options.get("seed", String.valueOf(shape.seed)));
+    return shape;
+  }
+
+  static final class Options {
+    final List<String> arguments = new ArrayList<>();
+    private final Map<String, String> values = new HashMap<>();
+
+    private static final String[] FLAGS = { "copy", "uncompressed", "regex" };
+
+    static Options parse(String[] args) {
+      Options options = new Options();
+      for (int i = 0; i < args.length; i++) {
+        String arg = args[i];
+        if (!arg.startsWith("--")) {
+          options.arguments.add(arg);
+          continue;
+        }
+        String name = arg.substring(2);
+        if (isFlag(name)) {
+          options.values.put(name, "true");
+        } else if (i + 1 < args.length) {
+          options.values.put(name, args[++i]);
+        } else {
+          throw new IllegalArgumentException("Missing value for " + arg);
+        }
+      }
+      return options;
+    }
+
+    private static boolean isFlag(String name) {
+      for (String flag : FLAGS) {
+        if (flag.equals(name))
+          return true;
+      }
+      return false;
+    }
+
+    boolean flag(String name) {
+      return values.containsKey(name);
+    }
+
+    String get(String name, String defaultValue) {
+      return values.getOrDefault(name, defaultValue);
+    }
+
+    // The value of a non-negative integer option. Exits with a usage error if it's anything else.
+    int getCount(String name, int defaultValue) {
+      String value = get(name, String.valueOf(defaultValue));
+      try {
+        int count = Integer.parseInt(value);
+        if (count >= 0)
+          return count;
+      } catch (NumberFormatException e) {
+        // Reported below.
+      }
+      System.err.println("--" + name + " needs a number of at least 0, not " + value);
+      System.exit(2);
+      return defaultValue;
+    }
+  }
+}
@@ -0,0 +1,336 @@
+package com.facebook.tools.intellij.ijviewer;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.function.BooleanSupplier;
+import java.util.stream.IntStream;
+
+// Checks that records.dat, attrib.dat and content.dat agree with each other, in a few parallel passes over
+// the record ids (and attrib.dat's records table), split into chunks.
+//
+// Each record only looks at itself, its parent chain and its own children, so a pass is linear in the number
+// of records, apart from the parent chains: those are as deep as the file system, unless there's a cycle,
+// which is cut off at MAX_DEPTH.
+public final class IntegrityChecker {
+  private static final int CHUNK_SIZE = 1 << 14;
+  // Only the first problems of each kind are kept, but all of them are counted.
+  private static final int MAX_PROBLEMS_PER_KIND = 1000;
+  // Deeper than any real file system. A longer parent chain must be a cycle.
+  private static final int MAX_DEPTH = 4096;
+
+  public enum Kind {
+    PARENT_OUT_OF_RANGE("parent id isn't a record"),
+    PARENT_IS_FREE("parent is a free record"),
+    PARENT_NOT_DIRECTORY("parent isn't a directory"),
+    CYCLE("record is on a parent cycle"),
+    CHILD_OUT_OF_RANGE("children attribute lists an id that isn't a record"),
+    CHILD_IS_FREE("children attribute lists a free record"),
+    CHILD_HAS_OTHER_PARENT("children attribute lists a record whose parent is another record"),
+    NOT_LISTED_BY_PARENT("record isn't in its parent's cached children"),
+    CHILDREN_UNREADABLE("children attribute can't be decoded"),
+    CONTENT_OUT_OF_RANGE("content id isn't in content.dat"),
+    CONTENT_NOT_COUNTED("content is referenced but its ref count is 0"),
+    ATTRIBUTES_OUT_OF_RANGE("attribute record isn't in attrib.dat"),
+    ATTRIB_INDIRECT_OUT_OF_RANGE("attrib.dat record's indirect record isn't in the records table"),
+    ATTRIB_RECORD_OUT_OF_BOUNDS("attrib.dat record extends past the end of the data file");
+
+    public final String description;
+
+    Kind(String description) {
+      this.description = description;
+    }
+  }
+
+  public static final class Problem {
+    public final Kind kind;
+    // A record id, or for the ATTRIB_ kinds an attrib.dat record id.
+    public final int id;
+    public final String detail;
+
+    Problem(Kind kind, int id, String detail) {
+      this.kind = kind;
+      this.id = id;
+      this.detail = detail;
+    }
+  }
+
+  public static final class Report {
+    private final int recordCount;
+    private final long[] counts;
+    private final List<Problem> problems;
+
+    Report(int recordCount, Findings findings) {
+      this.recordCount = recordCount;
+      this.counts = findings.counts;
+      this.problems = findings.problems;
+      problems.sort(Comparator.<Problem, Kind> comparing(p -> p.kind).thenComparingInt(p -> p.id));
+    }
+
+    public boolean isClean() {
+      for (long count : counts) {
+        if (count != 0)
+          return false;
+      }
+      return true;
+    }
+
+    public long getCount(Kind kind) {
+      return counts[kind.ordinal()];
+    }
+
+    // Up to MAX_PROBLEMS_PER_KIND of each kind, by kind then id.
+    public List<Problem> getProblems() {
+      return problems;
+    }
+
+    public void write(ReportWriter out) {
+      out.beginSection("integritySummary", "check", "problems", "description");
+      out.row("records", recordCount - 1, "");
+      for (Kind kind : Kind.values()) {
+        out.row(kind.name(), counts[kind.ordinal()], kind.description);
+      }
+      out.endSection();
+
+      out.beginSection("integrityProblems", "check", "id", "detail");
+      for (Problem problem : problems) {
+        out.row(problem.kind.name(), problem.id, problem.detail);
+      }
+      out.endSection();
+    }
+  }
+
+  // What one chunk found.
+  private static final class Findings {
+    final long[] counts = new long[Kind.values().length];
+    final int[] kept = new int[Kind.values().length];
+    final List<Problem> problems = new ArrayList<>();
+
+    void add(Kind kind, int id, String detail) {
+      counts[kind.ordinal()]++;
+      keep(new Problem(kind, id, detail));
+    }
+
+    private void keep(Problem problem) {
+      if (kept[problem.kind.ordinal()] < MAX_PROBLEMS_PER_KIND) {
+        kept[problem.kind.ordinal()]++;
+        problems.add(problem);
+      }
+    }
+
+    Findings merge(Findings other) {
+      for (int i = 0; i < counts.length; i++) {
+        counts[i] += other.counts[i];
+      }
+      for (Problem problem : other.problems) {
+        keep(problem);
+      }
+      return this;
+    }
+  }
+
+  private final IjViewer viewer;
+  private final IjViewer.Records records;
+  private final int recordCount;
+  private final int contentCount;
+  private final BooleanSupplier cancelled;
+  // Whether each record is listed in its parent's children. Chunks only ever set their own records' children,
+  // and children are only ever set to 1, so racing writes are harmless.
+  private final byte[] listed;
+  // Null when attrib.dat isn't mapped, in which case children are read one directory at a time.
+  private ChildrenTable childrenTable;
+
+  private IntegrityChecker(IjViewer viewer, BooleanSupplier cancelled) throws IOException {
+    this.viewer = viewer;
+    this.records = viewer.records;
+    this.recordCount = records.getRecordCount();
+    this.contentCount = viewer.content.getRecordCount();
+    this.cancelled = cancelled;
+    this.listed = new byte[recordCount];
+  }
+
+  public static Report check(IjViewer viewer) throws IOException {
+    return check(viewer, () -> false);
+  }
+
+  public static Report check(IjViewer viewer, BooleanSupplier cancelled) throws IOException {
+    return new IntegrityChecker(viewer, cancelled).check();
+  }
+
+  private Report check() {
+    childrenTable = ChildrenTable.decode(viewer, cancelled);
+    // The children found in the first pass are needed by the second.
+    Findings findings = inChunks(recordCount, this::checkRecord);
+    findings.merge(inChunks(recordCount, this::checkListedByParent));
+
+    MappedStorage attribStorage = viewer.attribs.getMappedStorage();
+    if (attribStorage != null) {
+      findings.merge(inChunks(attribStorage.getRecordCount() + 1,
+          (id, chunkFindings) -> checkAttribRecord(attribStorage, id, chunkFindings)));
+    }
+    return new Report(recordCount, findings);
+  }
+
+  private interface Check {
+    void check(int id, Findings findings);
+  }
+
+  // Runs check on ids 1 to count - 1, a chunk per task.
+  private Findings inChunks(int count, Check check) {
+    int chunks = (count + CHUNK_SIZE - 1) / CHUNK_SIZE;
+    return IntStream.range(0, chunks).parallel().mapToObj(chunk -> {
+      if (cancelled.getAsBoolean())
+        throw new CancellationException();
+      Findings findings = new Findings();
+      int end = (int) Math.min(count, (long) (chunk + 1) * CHUNK_SIZE);
+      for (int id = Math.max(1, chunk * CHUNK_SIZE); id < end; id++) {
+        check.check(id, findings);
+      }
+      return findings;
+    }).collect(Findings::new, Findings::merge, Findings::merge);
+  }
+
+  private boolean isRecord(int id) {
+    return id > 0 && id < recordCount;
+  }
+
+  private boolean isFree(int id) {
+    return records.isFlagSet(id, IjViewer.Records.FREE_RECORD_FLAG);
+  }
+
+  private void checkRecord(int id, Findings findings) {
+    if (isFree(id))
+      return;
+
+    int parentId = records.getParentId(id);
+    if (parentId != 0) {
+      if (!isRecord(parentId)) {
+        findings.add(Kind.PARENT_OUT_OF_RANGE, id, "parent " + parentId);
+      } else if (isFree(parentId)) {
+        findings.add(Kind.PARENT_IS_FREE, id, "parent " + parentId);
+      } else if (!records.isDirectory(parentId)) {
+        findings.add(Kind.PARENT_NOT_DIRECTORY, id, "parent " + parentId);
+      }
+    }
+    checkCycle(id, findings);
+
+    int contentId = records.getContentId(id);
+    if (contentId != 0 && !records.isDirectory(id)) {
+      if (contentId < 0 || contentId > contentCount) {
+        findings.add(Kind.CONTENT_OUT_OF_RANGE, id, "content " + contentId);
+      } else if (viewer.content.getRefCount(contentId) <= 0) {
+        findings.add(Kind.CONTENT_NOT_COUNTED, id, "content " + contentId);
+      }
+    }
+
+    int attributeRecordId = records.getAttributeRecordId(id);
+    MappedStorage attribStorage = viewer.attribs.getMappedStorage();
+    if (attributeRecordId < 0 || attribStorage != null && attributeRecordId > attribStorage.getRecordCount()) {
+      findings.add(Kind.ATTRIBUTES_OUT_OF_RANGE, id, "attribute record " + attributeRecordId);
+      return;
+    }
+
+    if (records.isDirectory(id)) {
+      checkChildren(id, findings);
+    }
+  }
+
+  // Only the record with the lowest id on a cycle reports it.
+  private void checkCycle(int id, Findings findings) {
+    int current = id;
+    for (int depth = 0; depth < MAX_DEPTH; depth++) {
+      current = records.getParentId(current);
+      if (!isRecord(current))
+        return;
+    }
+
+    // current is now on a cycle, or very deep. See whether id is on the same cycle.
+    int cycleLength = 0;
+    int lowest = current;
+    boolean containsId = false;
+    int member = current;
+    do {
+      containsId |= member == id;
+      lowest = Math.min(lowest, member);
+      member = records.getParentId(member);
+      cycleLength++;
+    } while (member != current && isRecord(member) && cycleLength < MAX_DEPTH);
+
+    if (containsId && lowest == id && member == current) {
+      findings.add(Kind.CYCLE, id, cycleLength + " records long");
+    }
+  }
+
+  private void checkChildren(int id, Findings findings) {
+    if (childrenTable != null) {
+      if (childrenTable.isUnreadable(id)) {
+        findings.add(Kind.CHILDREN_UNREADABLE, id, "");
+        return;
+      }
+      for (int i = childrenTable.getStart(id); i < childrenTable.getEnd(id); i++) {
+        checkChild(id, childrenTable.getChild(i), findings);
+      }
+      return;
+    }
+
+    int[] children;
+    try {
+      children = viewer.attribs.getChildren(id);
+    } catch (Throwable t) {
+      findings.add(Kind.CHILDREN_UNREADABLE, id, String.valueOf(t));
+      return;
+    }
+    for (int childId : children) {
+      checkChild(id, childId, findings);
+    }
+  }
+
+  private void checkChild(int id, int childId, Findings findings) {
+    if (!isRecord(childId)) {
+      findings.add(Kind.CHILD_OUT_OF_RANGE, id, "child " + childId);
+    } else if (isFree(childId)) {
+      findings.add(Kind.CHILD_IS_FREE, id, "child " + childId);
+    } else if (records.getParentId(childId) != id) {
+      findings.add(Kind.CHILD_HAS_OTHER_PARENT, id,
+          "child " + childId + " has parent " + records.getParentId(childId));
+    } else {
+      listed[childId] = 1;
+    }
+  }
+
+  // Directories that don't have CHILDREN_CACHED_FLAG only list the children IntelliJ has looked up, so only
+  // complete lists are checked.
+  private void checkListedByParent(int id, Findings findings) {
+    if (isFree(id) || listed[id] != 0)
+      return;
+    int parentId = records.getParentId(id);
+    if (isRecord(parentId) && !isFree(parentId) && records.isDirectory(parentId)
+        && records.areChildrenCached(parentId)) {
+      findings.add(Kind.NOT_LISTED_BY_PARENT, id, "parent " + parentId);
+    }
+  }
+
+  private void checkAttribRecord(MappedStorage storage, int id, Findings findings) {
+    int recordCount = storage.getRecordCount();
+    int indirectAddress = storage.getIndirectAddressRecord(id);
+    int indirectSize = storage.getIndirectSizeRecord(id);
+    if (indirectAddress != 0 && (indirectAddress > recordCount || indirectAddress == id)) {
+      findings.add(Kind.ATTRIB_INDIRECT_OUT_OF_RANGE, id, "address record " + indirectAddress);
+      return;
+    }
+    if (indirectSize != 0 && (indirectSize > recordCount || indirectSize == id)) {
+      findings.add(Kind.ATTRIB_INDIRECT_OUT_OF_RANGE, id, "size record " + indirectSize);
+      return;
+    }
+
+    int size = storage.getSize(id);
+    if (size <= 0) // empty or removed
+      return;
+    long address = storage.getAddress(id);
+    if (address < 0 || address + size > storage.getDataLength()) {
+      findings.add(Kind.ATTRIB_RECORD_OUT_OF_BOUNDS, id, size + " bytes at " + address);
+    }
+  }
+}
@@ -0,0 +1,108 @@
+package com.facebook.tools.intellij.ijviewer;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+import com.intellij.util.io.UnsyncByteArrayInputStream;
+
+// content.dat read straight from read-only mappings. RefCountingStorage deflates content unless
+// idea.doNotZipCaches was set when it was written, so records are only inflated if they carry a zlib header.
+final class MappedContentStorage implements ContentStorage {
+  private final MappedStorage storage;
+
+  MappedContentStorage(File contentsFile) throws IOException {
+    this.storage = new MappedStorage(contentsFile, MappedStorage.TableLayout.REF_COUNTING);
+  }
+
+  @Override
+  public int getRecordCount() {
+    return storage.getRecordCount();
+  }
+
+  @Override
+  public int getRefCount(int contentId) {
+    return storage.getRefCount(contentId);
+  }
+
+  @Override
+  public int getContentLength(int contentId) {
+    return storage.getSize(contentId);
+  }
+
+  @Override
+  public DataInputStream readStream(int contentId) throws IOException {
+    byte[] bytes = storage.readBytes(contentId);
+    UnsyncByteArrayInputStream raw = new UnsyncByteArrayInputStream(bytes);
+    if (isZlibHeader(bytes)) {
+      return new DataInputStream(new InflaterInputStream(raw));
+    }
+    return new DataInputStream(raw);
+  }
+
+  @Override
+  public boolean isCompressed(int contentId) {
+    return isZlibHeader(storage.slice(contentId));
+  }
+
+  @Override
+  public ByteBuffer read(int contentId, int maxBytes) throws IOException {
+    ByteBuffer raw = storage.slice(contentId);
+    if (!isZlibHeader(raw)) {
+      if (raw.remaining() > maxBytes)
+        raw.limit(raw.position() + maxBytes);
+      return raw;
+    }
+    return inflate(raw, maxBytes);
+  }
+
+  private static final int INFLATE_INPUT_CHUNK = 64 * 1024;
+
+  // Feeds the compressed bytes to the inflater a chunk at a time, so that reading the start of a large file
+  // only touches the start of its compressed data.
+  static ByteBuffer inflate(ByteBuffer compressed, int maxBytes) throws IOException {
+    Inflater inflater = new Inflater();
+    try {
+      byte[] input = new byte[Math.min(INFLATE_INPUT_CHUNK, compressed.remaining())];
+      byte[] output = new byte[(int) Math.min(maxBytes, Math.max(1024L, compressed.remaining() * 4L))];
+      int length = 0;
+      while (length < maxBytes && !inflater.finished()) {
+        if (inflater.needsInput()) {
+          if (!compressed.hasRemaining())
+            throw new IOException("Compressed content is truncated");
+          int count = Math.min(input.length, compressed.remaining());
+          compressed.get(input, 0, count);
+          inflater.setInput(input, 0, count);
+        }
+        if (length == output.length)
+          output = Arrays.copyOf(output, (int) Math.min(maxBytes, output.length * 2L));
+        length += inflater.inflate(output, length, output.length - length);
+        if (inflater.needsDictionary())
+          throw new IOException("Compressed content needs a dictionary");
+      }
+      return ByteBuffer.wrap(output, 0, length).slice().asReadOnlyBuffer();
+    } catch (DataFormatException e) {
+      throw new IOException(e);
+    } finally {
+      inflater.end();
+    }
+  }
+
+  static boolean isZlibHeader(ByteBuffer bytes) {
+    return bytes.remaining() >= 2 && isZlibHeader(bytes.get(bytes.position()), bytes.get(bytes.position() + 1));
+  }
+
+  static boolean isZlibHeader(byte[] bytes) {
+    return bytes.length >= 2 && isZlibHeader(bytes[0], bytes[1]);
+  }
+
+  // CMF must say deflate, and CMF/FLG must be a multiple of 31 (RFC 1950).
+  static boolean isZlibHeader(byte cmf, byte flg) {
+    return (cmf & 0x0F) == 8 && (((cmf & 0xFF) << 8) | (flg & 0xFF)) % 31 == 0;
+  }
+}
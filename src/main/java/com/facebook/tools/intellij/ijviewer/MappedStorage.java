@@ -0,0 +1,146 @@
+package com.facebook.tools.intellij.ijviewer;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import com.intellij.util.io.UnsyncByteArrayInputStream;
+
+// Reads an IntelliJ Storage (a .storageRecordIndex records table plus a .storageData file) directly from
+// read-only mappings, without going through AbstractStorage.
+final class MappedStorage implements StorageReader {
+  static final String INDEX_EXTENSION = ".storageRecordIndex";
+  static final String DATA_EXTENSION = ".storageData";
+
+  // PagedFileStorage pages backed by a PagePool are big endian.
+  static final ByteOrder STORAGE_BYTE_ORDER = ByteOrder.BIG_ENDIAN;
+
+  // Matches AbstractRecordsTable.DEFAULT_HEADER_SIZE: int magic, int version.
+  private static final int HEADER_SIZE = 8;
+
+  enum TableLayout {
+    // See CompactRecordsTable.
+    COMPACT(8),
+    // AbstractRecordsTable's long address, int size, int capacity, followed by RefCountingRecordsTable's int
+    // reference count.
+    REF_COUNTING(20);
+
+    final int recordSize;
+
+    TableLayout(int recordSize) {
+      this.recordSize = recordSize;
+    }
+  }
+
+  private static final int DEFAULT_ADDRESS_OFFSET = 0;
+  private static final int DEFAULT_SIZE_OFFSET = 8;
+  private static final int REF_COUNT_OFFSET = 16;
+
+  private static final int COMPACT_ADDRESS_OFFSET = 0;
+  private static final int COMPACT_SIZE_AND_CAPACITY_OFFSET = 4;
+  private static final int COMPACT_SIZE_MASK = 0xFFFF;
+  private static final int COMPACT_SPECIAL_POSITIVE_VALUE_FOR_SPECIAL_NEGATIVE_SIZE = 0xFFFF;
+  private static final int SPECIAL_NEGATIVE_SIZE_FOR_REMOVED_RECORD = -1;
+
+  private final TableLayout layout;
+  private final ReadOnlyMappedFile table;
+  private final ReadOnlyMappedFile data;
+
+  MappedStorage(File storageFile, TableLayout layout) throws IOException {
+    this.layout = layout;
+    this.table = new ReadOnlyMappedFile(new File(storageFile.getPath() + INDEX_EXTENSION).toPath(),
+        STORAGE_BYTE_ORDER);
+    this.data = new ReadOnlyMappedFile(new File(storageFile.getPath() + DATA_EXTENSION).toPath(),
+        STORAGE_BYTE_ORDER);
+  }
+
+  private long getOffset(int record, int section) {
+    return HEADER_SIZE + (long) (record - 1) * layout.recordSize + section;
+  }
+
+  int getRecordCount() {
+    return (int) ((table.length() - HEADER_SIZE) / layout.recordSize);
+  }
+
+  long getDataLength() {
+    return data.length();
+  }
+
+  // For CompactRecordsTable records whose address or size didn't fit, the records they were moved to, or 0
+  // if they weren't.
+  int getIndirectAddressRecord(int record) {
+    if (layout != TableLayout.COMPACT)
+      return 0;
+    int address = table.getInt(getOffset(record, COMPACT_ADDRESS_OFFSET));
+    return address < 0 ? -address : 0;
+  }
+
+  int getIndirectSizeRecord(int record) {
+    if (layout != TableLayout.COMPACT)
+      return 0;
+    int currentValue = table.getInt(getOffset(record, COMPACT_SIZE_AND_CAPACITY_OFFSET));
+    return currentValue < 0 ? -currentValue : 0;
+  }
+
+  long getAddress(int record) {
+    if (layout == TableLayout.COMPACT) {
+      int address = table.getInt(getOffset(record, COMPACT_ADDRESS_OFFSET));
+      if (address < 0) { // read address from indirect record
+        return table.getLong(getOffset(-address, COMPACT_ADDRESS_OFFSET));
+      }
+      return address;
+    }
+    return table.getLong(getOffset(record, DEFAULT_ADDRESS_OFFSET));
+  }
+
+  int getSize(int record) {
+    if (layout == TableLayout.COMPACT) {
+      int currentValue = table.getInt(getOffset(record, COMPACT_SIZE_AND_CAPACITY_OFFSET));
+      if (currentValue < 0) { // read size from indirect record
+        return table.getInt(getOffset(-currentValue, 0));
+      }
+      int size = currentValue & COMPACT_SIZE_MASK;
+      if (size == COMPACT_SPECIAL_POSITIVE_VALUE_FOR_SPECIAL_NEGATIVE_SIZE)
+        size = SPECIAL_NEGATIVE_SIZE_FOR_REMOVED_RECORD;
+      return size;
+    }
+    return table.getInt(getOffset(record, DEFAULT_SIZE_OFFSET));
+  }
+
+  int getRefCount(int record) {
+    if (layout != TableLayout.REF_COUNTING)
+      throw new UnsupportedOperationException("Records table has no reference counts");
+    return table.getInt(getOffset(record, REF_COUNT_OFFSET));
+  }
+
+  ByteBuffer slice(int record) {
+    int size = getSize(record);
+    if (size <= 0)
+      return ByteBuffer.allocate(0).asReadOnlyBuffer();
+    return data.slice(getAddress(record), size);
+  }
+
+  byte getDataByte(long address) {
+    return data.get(address);
+  }
+
+  ByteBuffer sliceData(long address, int length) {
+    return data.slice(address, length);
+  }
+
+  byte[] readBytes(int record) {
+    int size = getSize(record);
+    if (size <= 0)
+      return new byte[0];
+    byte[] result = new byte[size];
+    data.get(getAddress(record), result, 0, size);
+    return result;
+  }
+
+  @Override
+  public DataInputStream readStream(int record) {
+    return new DataInputStream(new UnsyncByteArrayInputStream(readBytes(record)));
+  }
+}
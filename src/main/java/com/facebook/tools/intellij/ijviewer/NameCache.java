@@ -0,0 +1,143 @@
+package com.facebook.tools.intellij.ijviewer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.intellij.util.io.PersistentStringEnumerator;
+
+import gnu.trove.TIntIntHashMap;
+
+// Decoded names, so that PersistentStringEnumerator.valueOf is called at most once per name id.
+public abstract class NameCache {
+  protected final PersistentStringEnumerator names;
+
+  NameCache(PersistentStringEnumerator names) {
+    this.names = names;
+  }
+
+  public abstract String get(int nameId) throws IOException;
+
+  // Keeps the most recently used names. For memory constrained runs.
+  public static NameCache lru(PersistentStringEnumerator names, int capacity) {
+    return new Lru(names, capacity);
+  }
+
+  // Decodes every name used by a record up front, in name id order, into an off-heap pool of UTF-8 bytes.
+  public static Pool bulkLoad(IjViewer viewer) throws IOException {
+    IjViewer.Records records = viewer.records;
+    int[] nameIds = new int[records.getRecordCount()];
+    int count = 0;
+    for (int id = 1; id < records.getRecordCount(); id++) {
+      if (!records.isFlagSet(id, IjViewer.Records.FREE_RECORD_FLAG))
+        nameIds[count++] = records.getNameId(id);
+    }
+    Arrays.sort(nameIds, 0, count);
+
+    TIntIntHashMap slots = new TIntIntHashMap(count);
+    int[] offsets = new int[count + 1];
+    ByteBuffer pool = ByteBuffer.allocateDirect(Math.max(1024, count * 16));
+    int slotCount = 0;
+    for (int i = 0; i < count; i++) {
+      int nameId = nameIds[i];
+      if (nameId == 0 || i > 0 && nameId == nameIds[i - 1])
+        continue;
+
+      String name = viewer.names.valueOf(nameId);
+      if (name == null)
+        continue;
+      byte[] utf8 = name.getBytes(StandardCharsets.UTF_8);
+      if (pool.remaining() < utf8.length) {
+        long capacity = Math.max((long) pool.capacity() * 2, (long) pool.position() + utf8.length);
+        if (capacity > Integer.MAX_VALUE)
+          throw new IOException("Names don't fit in a single pool");
+        ByteBuffer grown = ByteBuffer.allocateDirect((int) capacity);
+        pool.flip();
+        grown.put(pool);
+        pool = grown;
+      }
+      offsets[slotCount] = pool.position();
+      pool.put(utf8);
+      // Slots are stored + 1, as TIntIntHashMap returns 0 for missing keys.
+      slots.put(nameId, ++slotCount);
+    }
+    offsets[slotCount] = pool.position();
+
+    return new Pool(viewer.names, slots, Arrays.copyOf(offsets, slotCount + 1), pool);
+  }
+
+  public static final class Pool extends NameCache {
+    private final TIntIntHashMap slots;
+    private final int[] offsets;
+    private final ByteBuffer pool;
+
+    private Pool(PersistentStringEnumerator names, TIntIntHashMap slots, int[] offsets, ByteBuffer pool) {
+      super(names);
+      this.slots = slots;
+      this.offsets = offsets;
+      this.pool = pool;
+    }
+
+    public int size() {
+      return offsets.length - 1;
+    }
+
+    public long getPoolBytes() {
+      return offsets[offsets.length - 1];
+    }
+
+    // A read-only view of a name's UTF-8 bytes, or null if it isn't in the pool.
+    public ByteBuffer getUtf8(int nameId) {
+      int slot = slots.get(nameId) - 1;
+      if (slot < 0)
+        return null;
+      ByteBuffer view = pool.duplicate();
+      view.limit(offsets[slot + 1]);
+      view.position(offsets[slot]);
+      return view.slice().asReadOnlyBuffer();
+    }
+
+    @Override
+    public String get(int nameId) throws IOException {
+      int slot = slots.get(nameId) - 1;
+      if (slot < 0) // not the name of any record when the pool was loaded
+        return names.valueOf(nameId);
+      byte[] utf8 = new byte[offsets[slot + 1] - offsets[slot]];
+      ByteBuffer view = pool.duplicate();
+      view.position(offsets[slot]);
+      view.get(utf8);
+      return new String(utf8, StandardCharsets.UTF_8);
+    }
+  }
+
+  private static final class Lru extends NameCache {
+    private final Map<Integer, String> cache;
+
+    Lru(PersistentStringEnumerator names, int capacity) {
+      super(names);
+      this.cache = new LinkedHashMap<Integer, String>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, String> eldest) {
+          return size() > capacity;
+        }
+      };
+    }
+
+    @Override
+    public String get(int nameId) throws IOException {
+      synchronized (cache) {
+        String name = cache.get(nameId);
+        if (name != null)
+          return name;
+      }
+      String name = names.valueOf(nameId);
+      synchronized (cache) {
+        cache.put(nameId, name);
+      }
+      return name;
+    }
+  }
+}
@@ -0,0 +1,268 @@
+package com.facebook.tools.intellij.ijviewer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+import gnu.trove.TIntIntHashMap;
+
+// Finds records by a substring of their name, without walking the tree.
+//
+// Every distinct name used by a live record gets a slot, in name id order. A trigram index maps each three
+// byte sequence of the names' UTF-8 (ASCII case folded) to the ascending slots of the names that contain it,
+// so a query only has to intersect the postings of its own trigrams and then check the few names that are
+// left. Names come from the off-heap pool, so nothing is decoded. Each slot then maps to the records with
+// that name, which is how one name shared by thousands of files is only indexed once.
+public final class NameIndex {
+  private final IjViewer viewer;
+  private final NameCache.Pool pool;
+  // By slot.
+  private final int[] nameIds;
+  // Trigram -> 1 + its index in postingOffsets.
+  private final TIntIntHashMap trigrams;
+  private final int[] postingOffsets;
+  private final int[] postings;
+  // The records with each slot's name: recordIds[recordOffsets[slot]] to recordIds[recordOffsets[slot + 1] - 1].
+  private final int[] recordOffsets;
+  private final int[] recordIds;
+
+  public static final class Match {
+    public final int fileId;
+    public final String path;
+
+    Match(int fileId, String path) {
+      this.fileId = fileId;
+      this.path = path;
+    }
+  }
+
+  public static final class Result {
+    // Best first: names equal to the query, then shorter names.
+    public final List<Match> matches;
+    // Including records past the limit.
+    public final int matchCount;
+
+    Result(List<Match> matches, int matchCount) {
+      this.matches = matches;
+      this.matchCount = matchCount;
+    }
+  }
+
+  private NameIndex(IjViewer viewer, NameCache.Pool pool, int[] nameIds, TIntIntHashMap trigrams,
+      int[] postingOffsets, int[] postings, int[] recordOffsets, int[] recordIds) {
+    this.viewer = viewer;
+    this.pool = pool;
+    this.nameIds = nameIds;
+    this.trigrams = trigrams;
+    this.postingOffsets = postingOffsets;
+    this.postings = postings;
+    this.recordOffsets = recordOffsets;
+    this.recordIds = recordIds;
+  }
+
+  public static NameIndex build(IjViewer viewer, NameCache.Pool pool) {
+    IjViewer.Records records = viewer.records;
+    int recordCount = records.getRecordCount();
+
+    int[] nameIds = new int[recordCount];
+    int count = 0;
+    for (int id = 1; id < recordCount; id++) {
+      if (isIndexed(records, id))
+        nameIds[count++] = records.getNameId(id);
+    }
+    Arrays.sort(nameIds, 0, count);
+    int slotCount = 0;
+    for (int i = 0; i < count; i++) {
+      if (slotCount == 0 || nameIds[i] != nameIds[slotCount - 1])
+        nameIds[slotCount++] = nameIds[i];
+    }
+    nameIds = Arrays.copyOf(nameIds, slotCount);
+
+    // Records by slot, with a counting sort.
+    int[] recordOffsets = new int[slotCount + 1];
+    for (int id = 1; id < recordCount; id++) {
+      if (isIndexed(records, id))
+        recordOffsets[Arrays.binarySearch(nameIds, records.getNameId(id)) + 1]++;
+    }
+    for (int slot = 0; slot < slotCount; slot++) {
+      recordOffsets[slot + 1] += recordOffsets[slot];
+    }
+    int[] recordIds = new int[recordOffsets[slotCount]];
+    int[] next = Arrays.copyOf(recordOffsets, slotCount);
+    for (int id = 1; id < recordCount; id++) {
+      if (isIndexed(records, id))
+        recordIds[next[Arrays.binarySearch(nameIds, records.getNameId(id))]++] = id;
+    }
+
+    // Count each trigram's names, then fill in its postings in slot order, which keeps every list sorted.
+    TIntIntHashMap counts = new TIntIntHashMap();
+    int[] buffer = new int[64];
+    for (int slot = 0; slot < slotCount; slot++) {
+      buffer = getTrigrams(pool.getUtf8(nameIds[slot]), buffer);
+      for (int i = 1; i <= buffer[0]; i++) {
+        if (!counts.adjustValue(buffer[i], 1))
+          counts.put(buffer[i], 1);
+      }
+    }
+    int[] keys = counts.keys();
+    TIntIntHashMap trigrams = new TIntIntHashMap(keys.length);
+    int[] postingOffsets = new int[keys.length + 1];
+    for (int i = 0; i < keys.length; i++) {
+      trigrams.put(keys[i], i + 1);
+      postingOffsets[i + 1] = postingOffsets[i] + counts.get(keys[i]);
+    }
+    int[] postings = new int[postingOffsets[keys.length]];
+    next = Arrays.copyOf(postingOffsets, keys.length);
+    for (int slot = 0; slot < slotCount; slot++) {
+      buffer = getTrigrams(pool.getUtf8(nameIds[slot]), buffer);
+      for (int i = 1; i <= buffer[0]; i++) {
+        postings[next[trigrams.get(buffer[i]) - 1]++] = slot;
+      }
+    }
+
+    return new NameIndex(viewer, pool, nameIds, trigrams, postingOffsets, postings, recordOffsets, recordIds);
+  }
+
+  public int getNameCount() {
+    return nameIds.length;
+  }
+
+  public int getTrigramCount() {
+    return postingOffsets.length - 1;
+  }
+
+  // The records whose names contain the query, ignoring ASCII case. Paths are only built for the first limit
+  // records.
+  public Result find(String query, int limit) throws IOException {
+    if (query.isEmpty())
+      throw new IllegalArgumentException("Nothing to search for");
+    byte[] needle = query.getBytes(StandardCharsets.UTF_8);
+    foldCase(needle);
+
+    // Sort keys: whether the name is longer than the query, then its length, then its slot.
+    int[] candidates = getCandidates(needle);
+    int candidateCount = candidates == null ? nameIds.length : candidates.length;
+    long[] found = new long[Math.min(candidateCount, 1024)];
+    int foundCount = 0;
+    for (int i = 0; i < candidateCount; i++) {
+      int slot = candidates == null ? i : candidates[i];
+      ByteBuffer name = pool.getUtf8(nameIds[slot]);
+      if (name == null || !contains(name, needle))
+        continue;
+      if (foundCount == found.length)
+        found = Arrays.copyOf(found, found.length * 2);
+      long longer = name.remaining() > needle.length ? 1 : 0;
+      found[foundCount++] = longer << 62 | (long) name.remaining() << 32 | slot;
+    }
+    Arrays.sort(found, 0, foundCount);
+
+    List<Match> matches = new ArrayList<>();
+    int matchCount = 0;
+    for (int i = 0; i < foundCount; i++) {
+      int slot = (int) found[i];
+      for (int j = recordOffsets[slot]; j < recordOffsets[slot + 1] && matches.size() < limit; j++) {
+        matches.add(new Match(recordIds[j], viewer.getPath(recordIds[j])));
+      }
+      matchCount += recordOffsets[slot + 1] - recordOffsets[slot];
+    }
+    return new Result(matches, matchCount);
+  }
+
+  // The slots of the names that have every trigram of the needle, or null if the needle is too short to have
+  // any and every name has to be checked.
+  private int[] getCandidates(byte[] needle) {
+    int[] needleTrigrams = getTrigrams(ByteBuffer.wrap(needle), new int[needle.length + 1]);
+    if (needleTrigrams[0] == 0)
+      return null;
+
+    // Intersect the shortest postings first.
+    int[] lists = new int[needleTrigrams[0]];
+    for (int i = 0; i < lists.length; i++) {
+      int list = trigrams.get(needleTrigrams[i + 1]) - 1;
+      if (list < 0)
+        return new int[0];
+      lists[i] = list;
+    }
+    Integer[] order = new Integer[lists.length];
+    for (int i = 0; i < order.length; i++) {
+      order[i] = lists[i];
+    }
+    Arrays.sort(order, Comparator.comparingInt(list -> postingOffsets[list + 1] - postingOffsets[list]));
+
+    int[] result = Arrays.copyOfRange(postings, postingOffsets[order[0]], postingOffsets[order[0] + 1]);
+    int size = result.length;
+    for (int i = 1; i < order.length && size > 0; i++) {
+      int from = postingOffsets[order[i]];
+      int to = postingOffsets[order[i] + 1];
+      int kept = 0;
+      for (int j = 0; j < size; j++) {
+        int found = Arrays.binarySearch(postings, from, to, result[j]);
+        if (found >= 0) {
+          result[kept++] = result[j];
+          from = found + 1;
+        } else {
+          from = -found - 1;
+        }
+      }
+      size = kept;
+    }
+    return Arrays.copyOf(result, size);
+  }
+
+  private static boolean isIndexed(IjViewer.Records records, int id) {
+    return records.getNameId(id) != 0 && !records.isFlagSet(id, IjViewer.Records.FREE_RECORD_FLAG);
+  }
+
+  // The distinct case folded trigrams of the name, sorted, in buffer[1] to buffer[buffer[0]]. Returns a
+  // bigger buffer if the name doesn't fit in the one it's given.
+  private static int[] getTrigrams(ByteBuffer name, int[] buffer) {
+    if (name == null || name.remaining() < 3) {
+      buffer[0] = 0;
+      return buffer;
+    }
+    int start = name.position();
+    int count = name.remaining() - 2;
+    if (buffer.length < count + 1)
+      buffer = new int[count + 1];
+    for (int i = 0; i < count; i++) {
+      buffer[i + 1] = fold(name.get(start + i)) << 16 | fold(name.get(start + i + 1)) << 8
+          | fold(name.get(start + i + 2));
+    }
+    Arrays.sort(buffer, 1, count + 1);
+    int distinct = 0;
+    for (int i = 1; i <= count; i++) {
+      if (distinct == 0 || buffer[i] != buffer[distinct])
+        buffer[++distinct] = buffer[i];
+    }
+    buffer[0] = distinct;
+    return buffer;
+  }
+
+  private static boolean contains(ByteBuffer name, byte[] needle) {
+    int start = name.position();
+    int last = name.limit() - needle.length;
+    for (int i = start; i <= last; i++) {
+      int j = 0;
+      while (j < needle.length && fold(name.get(i + j)) == (needle[j] & 0xFF)) {
+        j++;
+      }
+      if (j == needle.length)
+        return true;
+    }
+    return false;
+  }
+
+  private static void foldCase(byte[] bytes) {
+    for (int i = 0; i < bytes.length; i++) {
+      bytes[i] = (byte) fold(bytes[i]);
+    }
+  }
+
+  private static int fold(byte b) {
+    return b >= 'A' && b <= 'Z' ? b + ('a' - 'A') : b & 0xFF;
+  }
+}
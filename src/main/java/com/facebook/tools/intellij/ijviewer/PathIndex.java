@@ -0,0 +1,183 @@
+package com.facebook.tools.intellij.ijviewer;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.List;
+
+// Resolves paths to record ids, without expanding anything in the tree.
+//
+// Children are found through a hash table of (parent id, name id) -> child id, which is filled in a directory
+// at a time as paths are resolved through it: the first lookup under a directory decodes its children once,
+// and every later one is a few probes. Slots only hold the child id. A slot's key is read back from the
+// child's record, which keeps the table at 4 bytes a slot, and means a child is always found under the
+// parent its record names, as in getPath. Path components become name ids through the names enumerator, so
+// no names are decoded or compared.
+public final class PathIndex {
+  private static final int INITIAL_CAPACITY = 1 << 12;
+  // Resized when more than this many of every 8 slots are used.
+  private static final int MAX_LOAD_EIGHTHS = 5;
+
+  private final IjViewer viewer;
+  private final IjViewer.Records records;
+
+  // Guarded by this.
+  private int[] slots = new int[INITIAL_CAPACITY];
+  private int size;
+  private final BitSet indexedDirectories = new BitSet();
+  // Records with no parent, longest name first, so that a jar root wins over the file system root it's in.
+  private int[] rootIds;
+  private String[] rootNames;
+
+  public PathIndex(IjViewer viewer) {
+    this.viewer = viewer;
+    this.records = viewer.records;
+  }
+
+  // Returns the record with the path, or -1 if the cache doesn't have it. Empty and "." components are
+  // skipped, so trailing and doubled slashes don't matter.
+  public synchronized int resolve(String path) throws IOException {
+    if (rootIds == null)
+      findRoots();
+    for (int i = 0; i < rootIds.length; i++) {
+      String rootName = rootNames[i];
+      if (!path.startsWith(rootName))
+        continue;
+      if (path.length() > rootName.length() && !rootName.endsWith("/") && path.charAt(rootName.length()) != '/')
+        continue;
+      int id = resolve(rootIds[i], path, rootName.length());
+      if (id > 0)
+        return id;
+    }
+    return -1;
+  }
+
+  // Resolves every path, with -1 for paths the cache doesn't have.
+  public synchronized int[] resolve(List<String> paths) throws IOException {
+    int[] ids = new int[paths.size()];
+    for (int i = 0; i < ids.length; i++) {
+      ids[i] = resolve(paths.get(i));
+    }
+    return ids;
+  }
+
+  // Returns the child of the directory with the name, or -1 if it doesn't have one.
+  public synchronized int getChild(int directoryId, String name) throws IOException {
+    int nameId = viewer.names.tryEnumerate(name);
+    if (nameId == 0) // no record anywhere has this name
+      return -1;
+    if (!indexedDirectories.get(directoryId))
+      indexDirectory(directoryId);
+
+    int mask = slots.length - 1;
+    for (int slot = hash(directoryId, nameId) & mask;; slot = (slot + 1) & mask) {
+      int childId = slots[slot];
+      if (childId == 0)
+        return -1;
+      if (records.getParentId(childId) == directoryId && records.getNameId(childId) == nameId)
+        return childId;
+    }
+  }
+
+  // The number of children indexed so far.
+  public synchronized int size() {
+    return size;
+  }
+
+  private int resolve(int rootId, String path, int start) throws IOException {
+    int id = rootId;
+    while (start < path.length()) {
+      int end = path.indexOf('/', start);
+      if (end < 0)
+        end = path.length();
+      if (end > start && !(end - start == 1 && path.charAt(start) == '.')) {
+        id = getChild(id, path.substring(start, end));
+        if (id < 0)
+          return -1;
+      }
+      start = end + 1;
+    }
+    return id;
+  }
+
+  private void findRoots() throws IOException {
+    List<Integer> ids = new ArrayList<>();
+    for (int id = 1; id < records.getRecordCount(); id++) {
+      if (records.getParentId(id) == 0 && records.getNameId(id) != 0
+          && !records.isFlagSet(id, IjViewer.Records.FREE_RECORD_FLAG))
+        ids.add(id);
+    }
+    List<String> names = new ArrayList<>();
+    for (int id : ids) {
+      String name = viewer.getName(id);
+      names.add(name != null ? name : "");
+    }
+
+    Integer[] order = new Integer[ids.size()];
+    for (int i = 0; i < order.length; i++) {
+      order[i] = i;
+    }
+    Arrays.sort(order, Comparator.comparingInt(i -> -names.get(i).length()));
+    rootIds = new int[order.length];
+    rootNames = new String[order.length];
+    for (int i = 0; i < order.length; i++) {
+      rootIds[i] = ids.get(order[i]);
+      rootNames[i] = names.get(order[i]);
+    }
+  }
+
+  private void indexDirectory(int directoryId) throws IOException {
+    indexedDirectories.set(directoryId);
+    if (directoryId <= 0 || directoryId >= records.getRecordCount() || !records.isDirectory(directoryId))
+      return;
+    for (int childId : viewer.attribs.getChildren(directoryId)) {
+      if (childId > 0 && childId < records.getRecordCount()
+          && !records.isFlagSet(childId, IjViewer.Records.FREE_RECORD_FLAG))
+        add(childId);
+    }
+  }
+
+  // Keeps the first child added for a (parent, name), and ignores children that are already in the table.
+  private void add(int childId) {
+    if ((size + 1) * 8L > slots.length * (long) MAX_LOAD_EIGHTHS)
+      resize(slots.length * 2);
+
+    int parentId = records.getParentId(childId);
+    int nameId = records.getNameId(childId);
+    int mask = slots.length - 1;
+    for (int slot = hash(parentId, nameId) & mask;; slot = (slot + 1) & mask) {
+      int existing = slots[slot];
+      if (existing == 0) {
+        slots[slot] = childId;
+        size++;
+        return;
+      }
+      if (existing == childId
+          || records.getParentId(existing) == parentId && records.getNameId(existing) == nameId)
+        return;
+    }
+  }
+
+  private void resize(int capacity) {
+    int[] old = slots;
+    slots = new int[capacity];
+    int mask = capacity - 1;
+    for (int childId : old) {
+      if (childId == 0)
+        continue;
+      int slot = hash(records.getParentId(childId), records.getNameId(childId)) & mask;
+      while (slots[slot] != 0) {
+        slot = (slot + 1) & mask;
+      }
+      slots[slot] = childId;
+    }
+  }
+
+  private static int hash(int parentId, int nameId) {
+    long key = ((long) parentId << 32) | (nameId & 0xFFFFFFFFL);
+    key *= 0x9E3779B97F4A7C15L;
+    return (int) (key ^ (key >>> 32));
+  }
+}
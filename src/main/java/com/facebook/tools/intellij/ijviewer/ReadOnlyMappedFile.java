@@ -0,0 +1,91 @@
+package com.facebook.tools.intellij.ijviewer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+// A file mapped in place with FileChannel.MapMode.READ_ONLY. Nothing can be written through it, so the
+// original cache files can be inspected without IntelliJ's storage classes marking them dirty.
+//
+// Files larger than a single MappedByteBuffer are mapped as several chunks. Each chunk overlaps the next one
+// by OVERLAP bytes, so any read of up to OVERLAP bytes can be served from a single chunk.
+final class ReadOnlyMappedFile {
+  private static final long CHUNK_SIZE = 1L << 30;
+  static final int OVERLAP = 1 << 20;
+
+  private final Path path;
+  private final long length;
+  private final ByteOrder order;
+  private final ByteBuffer[] chunks;
+
+  ReadOnlyMappedFile(Path path, ByteOrder order) throws IOException {
+    this.path = path;
+    this.order = order;
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      length = channel.size();
+      int chunkCount = (int) Math.max(1, (length + CHUNK_SIZE - 1) / CHUNK_SIZE);
+      chunks = new ByteBuffer[chunkCount];
+      for (int i = 0; i < chunkCount; i++) {
+        long start = i * CHUNK_SIZE;
+        long size = Math.min(CHUNK_SIZE + OVERLAP, length - start);
+        chunks[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, size).order(order);
+      }
+    }
+  }
+
+  Path getPath() {
+    return path;
+  }
+
+  long length() {
+    return length;
+  }
+
+  ByteOrder order() {
+    return order;
+  }
+
+  byte get(long offset) {
+    return chunks[(int) (offset / CHUNK_SIZE)].get((int) (offset % CHUNK_SIZE));
+  }
+
+  int getInt(long offset) {
+    return chunks[(int) (offset / CHUNK_SIZE)].getInt((int) (offset % CHUNK_SIZE));
+  }
+
+  long getLong(long offset) {
+    return chunks[(int) (offset / CHUNK_SIZE)].getLong((int) (offset % CHUNK_SIZE));
+  }
+
+  void get(long offset, byte[] dst, int dstOffset, int length) {
+    while (length > 0) {
+      ByteBuffer chunk = chunks[(int) (offset / CHUNK_SIZE)].duplicate();
+      int position = (int) (offset % CHUNK_SIZE);
+      int count = Math.min(length, chunk.capacity() - position);
+      chunk.position(position);
+      chunk.get(dst, dstOffset, count);
+      offset += count;
+      dstOffset += count;
+      length -= count;
+    }
+  }
+
+  // Returns a read-only view of [offset, offset + length). Ranges that cross a chunk boundary by more than
+  // OVERLAP bytes can't be viewed in place, and are copied instead.
+  ByteBuffer slice(long offset, int length) {
+    ByteBuffer chunk = chunks[(int) (offset / CHUNK_SIZE)];
+    int position = (int) (offset % CHUNK_SIZE);
+    if (position + length <= chunk.capacity()) {
+      ByteBuffer view = chunk.duplicate();
+      view.position(position);
+      view.limit(position + length);
+      return view.slice().asReadOnlyBuffer().order(order);
+    }
+    byte[] copy = new byte[length];
+    get(offset, copy, 0, length);
+    return ByteBuffer.wrap(copy).asReadOnlyBuffer().order(order);
+  }
+}
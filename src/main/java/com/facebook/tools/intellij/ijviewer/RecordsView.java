@@ -0,0 +1,124 @@
+package com.facebook.tools.intellij.ijviewer;
+
+import static com.facebook.tools.intellij.ijviewer.IjViewer.Records.ATTR_REF_OFFSET;
+import static com.facebook.tools.intellij.ijviewer.IjViewer.Records.CONTENT_OFFSET;
+import static com.facebook.tools.intellij.ijviewer.IjViewer.Records.FLAGS_OFFSET;
+import static com.facebook.tools.intellij.ijviewer.IjViewer.Records.LENGTH_OFFSET;
+import static com.facebook.tools.intellij.ijviewer.IjViewer.Records.MOD_COUNT_OFFSET;
+import static com.facebook.tools.intellij.ijviewer.IjViewer.Records.NAME_OFFSET;
+import static com.facebook.tools.intellij.ijviewer.IjViewer.Records.PARENT_OFFSET;
+import static com.facebook.tools.intellij.ijviewer.IjViewer.Records.RECORD_SIZE;
+import static com.facebook.tools.intellij.ijviewer.IjViewer.Records.TIMESTAMP_OFFSET;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import com.intellij.util.io.IOUtil;
+
+// Decodes records.dat straight from read-only MappedByteBuffers, without ResizeableMappedFile's paging and
+// locking. Every accessor is an absolute read, so scanning the whole table allocates nothing.
+//
+// Files over 2GB are mapped as several buffers. Each buffer holds a power of two number of records, so no
+// record ever straddles two buffers, and finding the buffer for an id is a shift.
+public final class RecordsView {
+  private static final int CHUNK_SHIFT = 25; // 32M records, 1.25GB per buffer
+  private static final int CHUNK_MASK = (1 << CHUNK_SHIFT) - 1;
+
+  private final ByteBuffer[] buffers;
+  private final int recordCount;
+
+  private RecordsView(ByteBuffer[] buffers, int recordCount) {
+    this.buffers = buffers;
+    this.recordCount = recordCount;
+  }
+
+  public static RecordsView open(File recordsFile) throws IOException {
+    ByteOrder order = IOUtil.BYTE_BUFFERS_USE_NATIVE_BYTE_ORDER ? ByteOrder.nativeOrder() : ByteOrder.BIG_ENDIAN;
+    return open(recordsFile.toPath(), order);
+  }
+
+  static RecordsView open(Path recordsFile, ByteOrder order) throws IOException {
+    try (FileChannel channel = FileChannel.open(recordsFile, StandardOpenOption.READ)) {
+      int recordCount = countRecords(recordsFile, channel.size());
+
+      int bufferCount = Math.max(1, (recordCount + CHUNK_MASK) >>> CHUNK_SHIFT);
+      ByteBuffer[] buffers = new ByteBuffer[bufferCount];
+      for (int i = 0; i < bufferCount; i++) {
+        long firstRecord = (long) i << CHUNK_SHIFT;
+        long records = Math.min(1L << CHUNK_SHIFT, recordCount - firstRecord);
+        buffers[i] = channel.map(FileChannel.MapMode.READ_ONLY, firstRecord * RECORD_SIZE,
+            Math.max(0, records) * RECORD_SIZE).order(order);
+      }
+      return new RecordsView(buffers, recordCount);
+    }
+  }
+
+  static int countRecords(Path recordsFile, long physicalLength) {
+    return (int) (Math.min(physicalLength, readLogicalLength(recordsFile, physicalLength)) / RECORD_SIZE);
+  }
+
+  // ResizeableMappedFile grows records.dat in large steps, and keeps the length actually in use in a
+  // records.dat.len sidecar.
+  private static long readLogicalLength(Path recordsFile, long physicalLength) {
+    Path lengthFile = recordsFile.resolveSibling(recordsFile.getFileName() + ".len");
+    if (!Files.exists(lengthFile))
+      return physicalLength;
+    try (DataInputStream input = new DataInputStream(Files.newInputStream(lengthFile))) {
+      return input.readLong();
+    } catch (IOException e) {
+      return physicalLength;
+    }
+  }
+
+  // The number of record slots, including the header record 0.
+  public int getRecordCount() {
+    return recordCount;
+  }
+
+  int getInt(int id, int offset) {
+    return buffers[id >>> CHUNK_SHIFT].getInt((id & CHUNK_MASK) * RECORD_SIZE + offset);
+  }
+
+  long getLong(int id, int offset) {
+    return buffers[id >>> CHUNK_SHIFT].getLong((id & CHUNK_MASK) * RECORD_SIZE + offset);
+  }
+
+  public int getParentId(int id) {
+    return getInt(id, PARENT_OFFSET);
+  }
+
+  public int getNameId(int id) {
+    return getInt(id, NAME_OFFSET);
+  }
+
+  public int getFlags(int id) {
+    return getInt(id, FLAGS_OFFSET);
+  }
+
+  public int getAttributeRecordId(int id) {
+    return getInt(id, ATTR_REF_OFFSET);
+  }
+
+  public int getContentId(int id) {
+    return getInt(id, CONTENT_OFFSET);
+  }
+
+  public long getTimestamp(int id) {
+    return getLong(id, TIMESTAMP_OFFSET);
+  }
+
+  public int getModCount(int id) {
+    return getInt(id, MOD_COUNT_OFFSET);
+  }
+
+  public long getLength(int id) {
+    return getLong(id, LENGTH_OFFSET);
+  }
+}
@@ -0,0 +1,146 @@
+package com.facebook.tools.intellij.ijviewer;
+
+import java.io.PrintStream;
+
+// Streams tabular report sections to an output as they're produced, so nothing needs to be buffered.
+public abstract class ReportWriter {
+  protected final PrintStream out;
+
+  ReportWriter(PrintStream out) {
+    this.out = out;
+  }
+
+  public static ReportWriter create(String format, PrintStream out) {
+    switch (format) {
+    case "json":
+      return new Json(out);
+    case "tsv":
+      return new Tsv(out);
+    default:
+      throw new IllegalArgumentException("Unknown format: " + format);
+    }
+  }
+
+  public abstract void beginSection(String name, String... columns);
+
+  public abstract void row(Object... values);
+
+  public abstract void endSection();
+
+  public abstract void close();
+
+  // One header line per section ("# name"), then a line of column names, then the rows.
+  private static final class Tsv extends ReportWriter {
+    Tsv(PrintStream out) {
+      super(out);
+    }
+
+    @Override
+    public void beginSection(String name, String... columns) {
+      out.println("# " + name);
+      row((Object[]) columns);
+    }
+
+    @Override
+    public void row(Object... values) {
+      StringBuilder line = new StringBuilder();
+      for (int i = 0; i < values.length; i++) {
+        if (i > 0)
+          line.append('\t');
+        line.append(String.valueOf(values[i]).replace('\t', ' ').replace('\n', ' '));
+      }
+      out.println(line);
+    }
+
+    @Override
+    public void endSection() {
+      out.println();
+    }
+
+    @Override
+    public void close() {
+      out.flush();
+    }
+  }
+
+  // A single object with an array of row objects per section.
+  private static final class Json extends ReportWriter {
+    private String[] columns;
+    private boolean firstSection = true;
+    private boolean firstRow;
+
+    Json(PrintStream out) {
+      super(out);
+      out.print("{");
+    }
+
+    @Override
+    public void beginSection(String name, String... columns) {
+      this.columns = columns;
+      out.print(firstSection ? "\n  " : ",\n  ");
+      firstSection = false;
+      out.print(quote(name) + ": [");
+      firstRow = true;
+    }
+
+    @Override
+    public void row(Object... values) {
+      StringBuilder row = new StringBuilder(firstRow ? "\n    {" : ",\n    {");
+      firstRow = false;
+      for (int i = 0; i < values.length; i++) {
+        if (i > 0)
+          row.append(", ");
+        row.append(quote(columns[i])).append(": ");
+        Object value = values[i];
+        if (value instanceof Number || value instanceof Boolean) {
+          row.append(value);
+        } else {
+          row.append(quote(String.valueOf(value)));
+        }
+      }
+      out.print(row.append('}'));
+    }
+
+    @Override
+    public void endSection() {
+      out.print(firstRow ? "]" : "\n  ]");
+    }
+
+    @Override
+    public void close() {
+      out.println("\n}");
+      out.flush();
+    }
+
+    private static String quote(String s) {
+      StringBuilder result = new StringBuilder(s.length() + 2).append('"');
+      for (int i = 0; i < s.length(); i++) {
+        char c = s.charAt(i);
+        switch (c) {
+        case '"':
+          result.append("\\\"");
+          break;
+        case '\\':
+          result.append("\\\\");
+          break;
+        case '\n':
+          result.append("\\n");
+          break;
+        case '\r':
+          result.append("\\r");
+          break;
+        case '\t':
+          result.append("\\t");
+          break;
+        default:
+          if (c < 0x20) {
+            result.append(String.format("\\u%04x", (int) c));
+          } else {
+            result.append(c);
+          }
+        }
+      }
+      return result.append('"').toString();
+    }
+  }
+}
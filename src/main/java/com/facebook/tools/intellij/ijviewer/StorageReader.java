@@ -0,0 +1,9 @@
+package com.facebook.tools.intellij.ijviewer;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+
+// The read side of an IntelliJ Storage, either the storage itself or a read-only mapping of its files.
+interface StorageReader {
+  DataInputStream readStream(int record) throws IOException;
+}
@@ -0,0 +1,631 @@
+package com.facebook.tools.intellij.ijviewer;
+
+import static com.facebook.tools.intellij.ijviewer.IjViewer.Records.ATTR_REF_OFFSET;
+import static com.facebook.tools.intellij.ijviewer.IjViewer.Records.CONTENT_OFFSET;
+import static com.facebook.tools.intellij.ijviewer.IjViewer.Records.FLAGS_OFFSET;
+import static com.facebook.tools.intellij.ijviewer.IjViewer.Records.LENGTH_OFFSET;
+import static com.facebook.tools.intellij.ijviewer.IjViewer.Records.MOD_COUNT_OFFSET;
+import static com.facebook.tools.intellij.ijviewer.IjViewer.Records.NAME_OFFSET;
+import static com.facebook.tools.intellij.ijviewer.IjViewer.Records.PARENT_OFFSET;
+import static com.facebook.tools.intellij.ijviewer.IjViewer.Records.RECORD_SIZE;
+import static com.facebook.tools.intellij.ijviewer.IjViewer.Records.TIMESTAMP_OFFSET;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+import java.util.zip.Deflater;
+
+import com.intellij.util.io.DataInputOutputUtil;
+import com.intellij.util.io.IOUtil;
+import com.intellij.util.io.PagedFileStorage;
+import com.intellij.util.io.PersistentStringEnumerator;
+
+// Writes a cache dir that opens like a real one, in either OpenMode, from a seed and a few numbers describing
+// its shape. For benchmarks and stress tests at sizes nobody wants to copy off a developer's machine.
+//
+// The tree is built breadth first, so each directory's children get consecutive ids, as they mostly do in
+// real caches. records.dat is written in place through writable mappings, and attrib.dat and content.dat are
+// streamed front to back, so apart from the content (generated and deflated in parallel batches) memory use
+// is two ints per content record. The same shape and seed always give the same cache.
+public final class SyntheticCache {
+  public static final class Shape {
+    // Not counting the header record. Generation stops early if a tree of this depth and fan-out can't grow
+    // this big.
+    public int records = 1_000_000;
+    // Of the deepest files. The root is at depth 0.
+    public int depth = 12;
+    // Mean children per directory. Child counts are exponentially distributed, so a few directories are much
+    // larger than the rest. The fraction of children that are directories is chosen a level at a time, so
+    // that the tree reaches the requested size at about the requested depth.
+    public int fanOut = 16;
+    // Directory names are drawn from this many names, and file names from as many more, with Zipf
+    // distributed frequencies of this exponent.
+    public int distinctNames = 50_000;
+    public double nameSkew = 1.0;
+    // The fraction of files with cached content, and the log-normal distribution of its inflated size.
+    public double contentFraction = 0.1;
+    public int contentMedian = 1024;
+    public double contentSigma = 1.0;
+    public int maxContentSize = 1 << 20;
+    // The fraction of files with cached content that share an existing content record, raising its ref
+    // count, rather than getting one of their own.
+    public double sharedContentFraction = 0.05;
+    // The fraction of attrib.dat records whose address and size are moved to indirect records, as
+    // CompactRecordsTable does when they don't fit. Records too large for a compact record always are.
+    public double indirectFraction = 0.01;
+    // The fraction of files with small inline attributes, and how many distinct ones each of them has.
+    // Directories always have their children.
+    public double fileAttributeFraction = 0.1;
+    public int attributesPerFile = 1;
+    public boolean compressContent = true;
+    public long seed = 42;
+
+    void validate() {
+      check(records >= 2, "records must be at least 2");
+      check(depth >= 1, "depth must be at least 1");
+      check(fanOut >= 1, "fan-out must be at least 1");
+      check(distinctNames >= 1, "distinct names must be at least 1");
+      check(nameSkew >= 0, "name skew can't be negative");
+      check(contentMedian >= 1 && maxContentSize >= 1, "content sizes must be at least 1");
+      check(contentSigma >= 0, "content sigma can't be negative");
+      checkFraction(contentFraction, "content fraction");
+      checkFraction(sharedContentFraction, "shared content fraction");
+      checkFraction(indirectFraction, "indirect fraction");
+      checkFraction(fileAttributeFraction, "file attribute fraction");
+      check(attributesPerFile >= 1 && attributesPerFile <= MAX_ATTRIBUTES_PER_FILE,
+          "attributes per file must be between 1 and " + MAX_ATTRIBUTES_PER_FILE);
+    }
+
+    private static void checkFraction(double fraction, String name) {
+      check(fraction >= 0 && fraction <= 1, name + " must be between 0 and 1");
+    }
+
+    private static void check(boolean condition, String message) {
+      if (!condition)
+        throw new IllegalArgumentException(message);
+    }
+  }
+
+  // Names in vfs_enum_attrib.dat. Attribute ids are positions in it, from 1. A file's second and later
+  // attributes are FILE_ATTRIBUTE.2 and so on, with the ids that follow FILE_ATTRIBUTE_ID.
+  static final String FILE_ATTRIBUTE = "SyntheticCache.STAMP";
+  private static final int CHILDREN_ATTRIBUTE_ID = 1;
+  private static final int FILE_ATTRIBUTE_ID = 2;
+  static final int MAX_ATTRIBUTES_PER_FILE = 16;
+
+  // What FSRecords writes to records.dat's header record when it's closed cleanly.
+  private static final int RECORDS_GLOBAL_MOD_COUNT_OFFSET = 8;
+  private static final int RECORDS_CONNECTION_STATUS_OFFSET = 12;
+  private static final int RECORDS_TIMESTAMP_OFFSET = 16;
+  private static final int RECORDS_SAFELY_CLOSED_MAGIC = 0x1f2f3f4f;
+
+  private static final long BASE_TIMESTAMP = 1_600_000_000_000L;
+  private static final int TIMESTAMP_SPREAD_SECONDS = 365 * 24 * 60 * 60;
+  private static final int MAX_MOD_COUNT = 1000;
+
+  private static final int CONTENT_BATCH_SIZE = 1 << 14;
+  private static final int NAME_PROBES = 8;
+
+  private static final String[] SYLLABLES = { "ba", "ce", "di", "fo", "gu", "ha", "je", "ki", "lo", "mu", "na",
+      "pe", "qi", "ro", "su", "ta", "ve", "wi", "xo", "yu", "za", "be", "ci", "do", "fu", "ga", "he", "ji", "ko",
+      "lu", "ma", "ne" };
+  private static final String[] EXTENSIONS = { ".java", ".java", ".java", ".kt", ".xml", ".class", ".class",
+      ".js", ".ts", ".json", ".png", ".md", ".txt", ".py", ".h", ".cc" };
+  private static final byte[][] WORDS = toBytes("public", "private", "final", "static", "int", "long",
+      "return", "if", "else", "for", "new", "this", "null", "void", "class", "import", "=", "+", "(", ")", "{",
+      "}", ";", "value", "count", "index", "name", "result", "buffer", "size", "id", "records");
+
+  private final File cacheDir;
+  private final Shape shape;
+  private final Random random;
+  private final double[] nameFrequencies;
+
+  // Indexed by name rank. Names are only enumerated once they're used, so names.dat only holds names that
+  // records refer to.
+  private final int[] directoryNameIds;
+  private final int[] fileNameIds;
+  // The directory that last used each name, so that no two children of a directory get the same name.
+  private final int[] directoryNameUsers;
+  private final int[] fileNameUsers;
+
+  // Indexed by content id, from 1.
+  private int[] contentSizes = new int[1024];
+  private int[] refCounts = new int[1024];
+  private int contentCount;
+  private int maxModCount;
+
+  private PersistentStringEnumerator names;
+  private RecordsWriter records;
+  private StorageWriter attribs;
+  private ByteBuffer childrenBuffer = ByteBuffer.allocate(1024);
+  private final ByteBuffer attributeBuffer;
+
+  private SyntheticCache(File cacheDir, Shape shape) {
+    this.cacheDir = cacheDir;
+    this.shape = shape;
+    this.random = new Random(shape.seed);
+    this.nameFrequencies = getCumulativeFrequencies(shape.distinctNames, shape.nameSkew);
+    this.directoryNameIds = new int[shape.distinctNames];
+    this.fileNameIds = new int[shape.distinctNames];
+    this.directoryNameUsers = new int[shape.distinctNames];
+    this.fileNameUsers = new int[shape.distinctNames];
+    this.attributeBuffer = ByteBuffer.allocate(Math.max(3 * 5 + AttributeIndex.MAX_SMALL_ATTR_SIZE,
+        shape.attributesPerFile * (2 * 5 + Long.BYTES)));
+  }
+
+  // Returns the number of records written, not counting the header record.
+  public static int generate(File cacheDir, Shape shape) throws IOException {
+    shape.validate();
+    if (new File(cacheDir, "records.dat").exists())
+      throw new IOException(cacheDir + " already has a cache");
+    if (!cacheDir.isDirectory() && !cacheDir.mkdirs())
+      throw new IOException("Couldn't create " + cacheDir);
+
+    long start = System.nanoTime();
+    SyntheticCache cache = new SyntheticCache(cacheDir, shape);
+    int recordCount = cache.generate();
+    System.out.println("Generated " + recordCount + " records and " + cache.contentCount + " contents in "
+        + cacheDir + " in " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + "ms");
+    return recordCount;
+  }
+
+  private int generate() throws IOException {
+    writeAttributeEnum();
+
+    int lastId;
+    names = new PersistentStringEnumerator(new File(cacheDir, "names.dat").toPath(),
+        new PagedFileStorage.StorageLockContext(false));
+    try (RecordsWriter records = new RecordsWriter(new File(cacheDir, "records.dat"), shape.records + 1);
+        StorageWriter attribs = new StorageWriter(new File(cacheDir, "attrib.dat"),
+            MappedStorage.TableLayout.COMPACT)) {
+      this.records = records;
+      this.attribs = attribs;
+      lastId = buildTree();
+      records.putInt(0, RECORDS_GLOBAL_MOD_COUNT_OFFSET, maxModCount);
+      records.putInt(0, RECORDS_CONNECTION_STATUS_OFFSET, RECORDS_SAFELY_CLOSED_MAGIC);
+      records.putLong(0, RECORDS_TIMESTAMP_OFFSET, BASE_TIMESTAMP);
+    } finally {
+      names.close();
+    }
+
+    // Like ResizeableMappedFile, which keeps the length in use next to a file it grows in large steps.
+    try (DataOutputStream length = new DataOutputStream(new FileOutputStream(new File(cacheDir,
+        "records.dat.len")))) {
+      length.writeLong((lastId + 1L) * RECORD_SIZE);
+    }
+
+    writeContent();
+    return lastId;
+  }
+
+  private void writeAttributeEnum() throws IOException {
+    try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(new File(
+        cacheDir, "vfs_enum_attrib.dat"))))) {
+      DataInputOutputUtil.writeTIME(out, BASE_TIMESTAMP);
+      DataInputOutputUtil.writeINT(out, 0); // version
+      IOUtil.writeUTF(out, IjViewer.ChildrenAttribute.NAME);
+      IOUtil.writeUTF(out, FILE_ATTRIBUTE);
+      for (int i = 2; i <= shape.attributesPerFile; i++) {
+        IOUtil.writeUTF(out, FILE_ATTRIBUTE + "." + i);
+      }
+    }
+  }
+
+  // Record 1 is FSRecords' super root, which the roots hang off. Record 2 is the root of the generated tree.
+  // Directories are expanded in id order, so a level at a time, until there are shape.records records. Any
+  // left over have no cached children, like directories IntelliJ has never listed.
+  private int buildTree() throws IOException {
+    records.putInt(2, NAME_OFFSET, names.enumerate("/"));
+    records.putInt(2, FLAGS_OFFSET, IjViewer.Records.IS_DIRECTORY_FLAG);
+    stamp(2);
+
+    int nextId = 3;
+    int depth = 0;
+    int levelEnd = nextId;
+    int levelDirectoriesLeft = 1;
+    int nextLevelDirectories = 0;
+    double directoryFraction = getDirectoryFraction(shape.fanOut, 1, shape.depth, shape.records + 1 - nextId);
+    for (int id = 2; id < nextId && nextId <= shape.records; id++) {
+      if (id == levelEnd) {
+        // Correct for however far the levels so far have strayed from the expected size.
+        depth++;
+        levelEnd = nextId;
+        directoryFraction = getDirectoryFraction(shape.fanOut, nextLevelDirectories, shape.depth - depth,
+            shape.records + 1 - nextId);
+        levelDirectoriesLeft = nextLevelDirectories;
+        nextLevelDirectories = 0;
+      }
+      if ((records.getInt(id, FLAGS_OFFSET) & IjViewer.Records.IS_DIRECTORY_FLAG) == 0)
+        continue;
+
+      int budget = shape.records + 1 - nextId;
+      int childCount;
+      if (depth + 1 < shape.depth) {
+        childCount = drawChildCount(shape.fanOut);
+      } else if (levelDirectoriesLeft > 1) {
+        // The last level shares out what's left, so that the tree comes out at the requested size.
+        childCount = drawChildCount(Math.max(1, budget / levelDirectoriesLeft));
+      } else {
+        childCount = budget;
+      }
+      childCount = Math.min(budget, Math.min(shape.distinctNames, childCount));
+      levelDirectoriesLeft--;
+      int firstChild = nextId;
+      for (int i = 0; i < childCount; i++) {
+        // Every level but the last has at least one directory, so the tree can't die out early.
+        boolean directory = depth + 1 < shape.depth && (random.nextDouble() < directoryFraction
+            || nextLevelDirectories == 0 && i == childCount - 1);
+        if (directory)
+          nextLevelDirectories++;
+        addChild(id, nextId++, directory);
+      }
+      writeChildren(id, firstChild, childCount);
+    }
+    return nextId - 1;
+  }
+
+  // Every child of a directory needs its own name, so the count is capped at shape.distinctNames by the caller.
+  private int drawChildCount(int mean) {
+    return (int) Math.min(Integer.MAX_VALUE, 1 - Math.log(1 - random.nextDouble()) * (mean - 1));
+  }
+
+  private void addChild(int parentId, int id, boolean directory) throws IOException {
+    records.putInt(id, PARENT_OFFSET, parentId);
+    records.putInt(id, NAME_OFFSET, pickName(parentId, directory));
+    stamp(id);
+    if (directory) {
+      records.putInt(id, FLAGS_OFFSET, IjViewer.Records.IS_DIRECTORY_FLAG);
+      return;
+    }
+
+    long length;
+    if (random.nextDouble() < shape.contentFraction) {
+      int contentId = addContent();
+      records.putInt(id, CONTENT_OFFSET, contentId);
+      length = contentSizes[contentId];
+    } else {
+      length = drawContentSize();
+    }
+    records.putLong(id, LENGTH_OFFSET, length);
+
+    if (random.nextDouble() < shape.fileAttributeFraction) {
+      attributeBuffer.clear();
+      for (int i = 0; i < shape.attributesPerFile; i++) {
+        VarInt.write(attributeBuffer, FILE_ATTRIBUTE_ID + i);
+        VarInt.write(attributeBuffer, Long.BYTES);
+        attributeBuffer.putLong(records.getLong(id, TIMESTAMP_OFFSET) + i);
+      }
+      attributeBuffer.flip();
+      records.putInt(id, ATTR_REF_OFFSET, appendAttribute(attributeBuffer));
+    }
+  }
+
+  private void stamp(int id) {
+    records.putLong(id, TIMESTAMP_OFFSET, BASE_TIMESTAMP - random.nextInt(TIMESTAMP_SPREAD_SECONDS) * 1000L);
+    int modCount = random.nextInt(MAX_MOD_COUNT);
+    records.putInt(id, MOD_COUNT_OFFSET, modCount);
+    maxModCount = Math.max(maxModCount, modCount);
+  }
+
+  // The children attribute holds the child count, then each child id as a delta from the one before, the
+  // first from the directory's own id. Small lists are stored inline in the attribute record, larger ones in
+  // a record of their own.
+  private void writeChildren(int directoryId, int firstChild, int childCount) throws IOException {
+    if (childrenBuffer.capacity() < 5 * (childCount + 1))
+      childrenBuffer = ByteBuffer.allocate(Math.max(childrenBuffer.capacity() * 2, 5 * (childCount + 1)));
+    childrenBuffer.clear();
+    VarInt.write(childrenBuffer, childCount);
+    for (int i = 0; i < childCount; i++) {
+      VarInt.write(childrenBuffer, i == 0 ? firstChild - directoryId : 1);
+    }
+    childrenBuffer.flip();
+
+    attributeBuffer.clear();
+    VarInt.write(attributeBuffer, CHILDREN_ATTRIBUTE_ID);
+    if (childrenBuffer.remaining() < AttributeIndex.MAX_SMALL_ATTR_SIZE) {
+      VarInt.write(attributeBuffer, childrenBuffer.remaining());
+      attributeBuffer.put(childrenBuffer);
+    } else {
+      int page = appendAttribute(childrenBuffer);
+      VarInt.write(attributeBuffer, page + AttributeIndex.MAX_SMALL_ATTR_SIZE);
+    }
+    attributeBuffer.flip();
+    records.putInt(directoryId, ATTR_REF_OFFSET, appendAttribute(attributeBuffer));
+    records.putInt(directoryId, FLAGS_OFFSET,
+        IjViewer.Records.IS_DIRECTORY_FLAG | IjViewer.Records.CHILDREN_CACHED_FLAG);
+  }
+
+  // Appends the buffer's remaining bytes to attrib.dat.
+  private int appendAttribute(ByteBuffer buffer) throws IOException {
+    return attribs.append(buffer.array(), buffer.position(), buffer.remaining(),
+        random.nextDouble() < shape.indirectFraction, 0);
+  }
+
+  private int pickName(int directoryId, boolean directory) throws IOException {
+    int[] users = directory ? directoryNameUsers : fileNameUsers;
+    int rank = drawNameRank();
+    for (int attempt = 0; users[rank] == directoryId; attempt++) {
+      rank = attempt < NAME_PROBES ? drawNameRank() : (rank + 1) % users.length;
+    }
+    users[rank] = directoryId;
+
+    int[] nameIds = directory ? directoryNameIds : fileNameIds;
+    if (nameIds[rank] == 0)
+      nameIds[rank] = names.enumerate(directory ? getDirectoryName(rank) : getFileName(rank));
+    return nameIds[rank];
+  }
+
+  private int drawNameRank() {
+    int rank = Arrays.binarySearch(nameFrequencies, random.nextDouble());
+    return Math.min(nameFrequencies.length - 1, rank < 0 ? -rank - 1 : rank);
+  }
+
+  // Distinct for every rank: the rank's digits in base SYLLABLES.length, a syllable per digit.
+  static String getDirectoryName(int rank) {
+    StringBuilder name = new StringBuilder();
+    do {
+      name.append(SYLLABLES[rank % SYLLABLES.length]);
+      rank /= SYLLABLES.length;
+    } while (rank > 0);
+    return name.toString();
+  }
+
+  static String getFileName(int rank) {
+    return getDirectoryName(rank) + EXTENSIONS[rank % EXTENSIONS.length];
+  }
+
+  private int addContent() {
+    if (contentCount > 0 && random.nextDouble() < shape.sharedContentFraction) {
+      int contentId = 1 + random.nextInt(contentCount);
+      refCounts[contentId]++;
+      return contentId;
+    }
+
+    int contentId = ++contentCount;
+    if (contentId == contentSizes.length) {
+      contentSizes = Arrays.copyOf(contentSizes, contentSizes.length * 2);
+      refCounts = Arrays.copyOf(refCounts, refCounts.length * 2);
+    }
+    contentSizes[contentId] = drawContentSize();
+    refCounts[contentId] = 1;
+    return contentId;
+  }
+
+  private int drawContentSize() {
+    double size = shape.contentMedian * Math.exp(shape.contentSigma * random.nextGaussian());
+    return (int) Math.max(1, Math.min(shape.maxContentSize, Math.round(size)));
+  }
+
+  // Each batch of contents is generated and deflated in parallel, then appended in id order.
+  private void writeContent() throws IOException {
+    ThreadLocal<Deflater> deflaters = ThreadLocal.withInitial(() -> new Deflater(Deflater.BEST_SPEED));
+    try (StorageWriter contents = new StorageWriter(new File(cacheDir, "content.dat"),
+        MappedStorage.TableLayout.REF_COUNTING)) {
+      for (int first = 1; first <= contentCount; first += CONTENT_BATCH_SIZE) {
+        int start = first;
+        byte[][] batch = new byte[Math.min(CONTENT_BATCH_SIZE, contentCount + 1 - start)][];
+        IntStream.range(0, batch.length).parallel().forEach(i -> {
+          batch[i] = generateContent(start + i, deflaters.get());
+        });
+        for (int i = 0; i < batch.length; i++) {
+          contents.append(batch[i], 0, batch[i].length, false, refCounts[start + i]);
+        }
+      }
+    }
+  }
+
+  // Lines of code-like words, starting with the content id so that no two contents are the same. Deflated,
+  // as RefCountingStorage stores it, unless compressContent is off. Deflated at the fastest level, which
+  // readers can't tell from the default.
+  private byte[] generateContent(int contentId, Deflater deflater) {
+    SplittableRandom random = new SplittableRandom(shape.seed * 31 + contentId);
+    byte[] text = new byte[contentSizes[contentId]];
+    byte[] header = ("// synthetic content " + contentId + "\n").getBytes(StandardCharsets.UTF_8);
+    int position = Math.min(header.length, text.length);
+    System.arraycopy(header, 0, text, 0, position);
+    while (position < text.length) {
+      int lineEnd = Math.min(text.length - 1, position + 20 + random.nextInt(60));
+      for (int indent = 2 * random.nextInt(5); indent > 0 && position < lineEnd; indent--) {
+        text[position++] = ' ';
+      }
+      while (position < lineEnd) {
+        byte[] word = WORDS[random.nextInt(WORDS.length)];
+        int count = Math.min(word.length, lineEnd - position);
+        System.arraycopy(word, 0, text, position, count);
+        position += count;
+        if (position < lineEnd)
+          text[position++] = ' ';
+      }
+      text[position++] = '\n';
+    }
+    if (!shape.compressContent)
+      return text;
+
+    deflater.reset();
+    deflater.setInput(text);
+    deflater.finish();
+    byte[] compressed = new byte[text.length / 2 + 64];
+    int length = 0;
+    while (!deflater.finished()) {
+      if (length == compressed.length)
+        compressed = Arrays.copyOf(compressed, compressed.length * 2);
+      length += deflater.deflate(compressed, length, compressed.length - length);
+    }
+    return Arrays.copyOf(compressed, length);
+  }
+
+  // The fraction of children that are directories for which the subtrees of directories, with fanOut
+  // children per directory and levels more levels of children, are expected to have budget records between
+  // them. 1 if they can't get that big.
+  static double getDirectoryFraction(int fanOut, int directories, int levels, int budget) {
+    double low = 0;
+    double high = 1;
+    for (int i = 0; i < 50; i++) {
+      double mid = (low + high) / 2;
+      if (getExpectedSize(fanOut, directories, levels, mid) < budget) {
+        low = mid;
+      } else {
+        high = mid;
+      }
+    }
+    return high;
+  }
+
+  private static double getExpectedSize(int fanOut, double directories, int levels, double directoryFraction) {
+    double size = 0;
+    for (int level = 0; level < levels; level++) {
+      size += directories * fanOut;
+      directories *= fanOut * directoryFraction;
+    }
+    return size;
+  }
+
+  private static double[] getCumulativeFrequencies(int count, double skew) {
+    double[] frequencies = new double[count];
+    double total = 0;
+    for (int rank = 0; rank < count; rank++) {
+      total += 1 / Math.pow(rank + 1, skew);
+      frequencies[rank] = total;
+    }
+    for (int rank = 0; rank < count; rank++) {
+      frequencies[rank] /= total;
+    }
+    return frequencies;
+  }
+
+  private static byte[][] toBytes(String... words) {
+    byte[][] bytes = new byte[words.length][];
+    for (int i = 0; i < words.length; i++) {
+      bytes[i] = words[i].getBytes(StandardCharsets.UTF_8);
+    }
+    return bytes;
+  }
+
+  // records.dat, through writable mappings of a power of two number of records each, like RecordsView's.
+  private static final class RecordsWriter implements Closeable {
+    private static final int CHUNK_SHIFT = 20; // 1M records, 40MB per buffer
+    private static final int CHUNK_MASK = (1 << CHUNK_SHIFT) - 1;
+
+    private final FileChannel channel;
+    private final ByteBuffer[] buffers;
+
+    RecordsWriter(File file, int recordCount) throws IOException {
+      ByteOrder order = IOUtil.BYTE_BUFFERS_USE_NATIVE_BYTE_ORDER ? ByteOrder.nativeOrder() : ByteOrder.BIG_ENDIAN;
+      channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE_NEW, StandardOpenOption.READ,
+          StandardOpenOption.WRITE);
+      buffers = new ByteBuffer[(recordCount + CHUNK_MASK) >>> CHUNK_SHIFT];
+      for (int i = 0; i < buffers.length; i++) {
+        long firstRecord = (long) i << CHUNK_SHIFT;
+        long records = Math.min(1L << CHUNK_SHIFT, recordCount - firstRecord);
+        buffers[i] = channel.map(FileChannel.MapMode.READ_WRITE, firstRecord * RECORD_SIZE, records * RECORD_SIZE)
+            .order(order);
+      }
+    }
+
+    int getInt(int id, int offset) {
+      return buffers[id >>> CHUNK_SHIFT].getInt((id & CHUNK_MASK) * RECORD_SIZE + offset);
+    }
+
+    long getLong(int id, int offset) {
+      return buffers[id >>> CHUNK_SHIFT].getLong((id & CHUNK_MASK) * RECORD_SIZE + offset);
+    }
+
+    void putInt(int id, int offset, int value) {
+      buffers[id >>> CHUNK_SHIFT].putInt((id & CHUNK_MASK) * RECORD_SIZE + offset, value);
+    }
+
+    void putLong(int id, int offset, long value) {
+      buffers[id >>> CHUNK_SHIFT].putLong((id & CHUNK_MASK) * RECORD_SIZE + offset, value);
+    }
+
+    @Override
+    public void close() throws IOException {
+      channel.close();
+    }
+  }
+
+  // A Storage's records table and data file, appended to front to back, with the headers AbstractRecordsTable
+  // and DataTable write when they're closed cleanly.
+  private static final class StorageWriter implements Closeable {
+    private static final int TABLE_SAFELY_CLOSED_MAGIC = 0x1f2f3f4f + 5; // plus the table's implementation version
+    private static final int DATA_SAFELY_CLOSED_MAGIC = 0x1f2f3f4f;
+    private static final int DATA_HEADER_SIZE = 32;
+    // CompactRecordsTable only keeps capacities up to 0x7FFF in the record itself.
+    private static final int MAX_COMPACT_SIZE = 0x7FFF;
+
+    private final MappedStorage.TableLayout layout;
+    private final DataOutputStream table;
+    private final DataOutputStream data;
+    private long dataLength = DATA_HEADER_SIZE;
+    private int recordCount;
+
+    StorageWriter(File storageFile, MappedStorage.TableLayout layout) throws IOException {
+      this.layout = layout;
+      this.table = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(storageFile.getPath()
+          + MappedStorage.INDEX_EXTENSION), 1 << 16));
+      this.data = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(storageFile.getPath()
+          + MappedStorage.DATA_EXTENSION), 1 << 20));
+
+      int implVersion = layout == MappedStorage.TableLayout.COMPACT ? 1 : 0;
+      table.writeInt(TABLE_SAFELY_CLOSED_MAGIC + implVersion);
+      table.writeInt(0); // version
+      data.writeInt(DATA_SAFELY_CLOSED_MAGIC);
+      data.writeLong(0); // waste
+      data.write(new byte[DATA_HEADER_SIZE - 12]);
+    }
+
+    // Returns the new record's id. In a compact table, indirect moves its address and size to records of
+    // their own, which take the next ids. In a ref counting table it's ignored.
+    int append(byte[] bytes, int offset, int length, boolean indirect, int refCount) throws IOException {
+      int id = ++recordCount;
+      long address = dataLength;
+      data.write(bytes, offset, length);
+      dataLength += length;
+
+      if (layout == MappedStorage.TableLayout.REF_COUNTING) {
+        table.writeLong(address);
+        table.writeInt(length); // size
+        table.writeInt(length); // capacity
+        table.writeInt(refCount);
+        return id;
+      }
+
+      boolean indirectAddress = indirect || address > Integer.MAX_VALUE;
+      boolean indirectSize = indirect || length >= MAX_COMPACT_SIZE;
+      table.writeInt(indirectAddress ? -(id + 1) : (int) address);
+      table.writeInt(indirectSize ? -(id + (indirectAddress ? 2 : 1)) : length << 16 | length);
+      if (indirectAddress) {
+        table.writeLong(address);
+        recordCount++;
+      }
+      if (indirectSize) {
+        table.writeInt(length); // size
+        table.writeInt(length); // capacity
+        recordCount++;
+      }
+      return id;
+    }
+
+    @Override
+    public void close() throws IOException {
+      try {
+        table.close();
+      } finally {
+        data.close();
+      }
+    }
+  }
+}
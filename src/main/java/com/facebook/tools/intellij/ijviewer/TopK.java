@@ -0,0 +1,94 @@
+package com.facebook.tools.intellij.ijviewer;
+
+import java.util.Arrays;
+
+// Keeps the k ids with the largest values seen so far, in a bounded min-heap over primitive arrays, so
+// finding the largest of millions of records never sorts (or boxes) all of them.
+public final class TopK {
+  private final int[] ids;
+  private final long[] values;
+  private int size;
+
+  public TopK(int k) {
+    this.ids = new int[k];
+    this.values = new long[k];
+  }
+
+  public int size() {
+    return size;
+  }
+
+  // The smallest value currently kept, or Long.MIN_VALUE if there's still room.
+  public long threshold() {
+    return size < ids.length ? Long.MIN_VALUE : values[0];
+  }
+
+  public boolean offer(int id, long value) {
+    if (ids.length == 0)
+      return false;
+    if (size < ids.length) {
+      ids[size] = id;
+      values[size] = value;
+      siftUp(size++);
+      return true;
+    }
+    if (value <= values[0])
+      return false;
+    ids[0] = id;
+    values[0] = value;
+    siftDown(0);
+    return true;
+  }
+
+  // Returns the kept ids, largest value first. resultValues, if non-null, receives the matching values.
+  public int[] toSortedIds(long[] resultValues) {
+    Integer[] order = new Integer[size];
+    for (int i = 0; i < size; i++) {
+      order[i] = i;
+    }
+    Arrays.sort(order, (a, b) -> Long.compare(values[b], values[a]));
+
+    int[] result = new int[size];
+    for (int i = 0; i < size; i++) {
+      result[i] = ids[order[i]];
+      if (resultValues != null)
+        resultValues[i] = values[order[i]];
+    }
+    return result;
+  }
+
+  private void siftUp(int i) {
+    while (i > 0) {
+      int parent = (i - 1) >>> 1;
+      if (values[parent] <= values[i])
+        return;
+      swap(i, parent);
+      i = parent;
+    }
+  }
+
+  private void siftDown(int i) {
+    while (true) {
+      int smallest = i;
+      int left = 2 * i + 1;
+      int right = left + 1;
+      if (left < size && values[left] < values[smallest])
+        smallest = left;
+      if (right < size && values[right] < values[smallest])
+        smallest = right;
+      if (smallest == i)
+        return;
+      swap(i, smallest);
+      i = smallest;
+    }
+  }
+
+  private void swap(int a, int b) {
+    int id = ids[a];
+    ids[a] = ids[b];
+    ids[b] = id;
+    long value = values[a];
+    values[a] = values[b];
+    values[b] = value;
+  }
+}
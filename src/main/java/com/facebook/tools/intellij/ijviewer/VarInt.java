@@ -0,0 +1,67 @@
+package com.facebook.tools.intellij.ijviewer;
+
+import java.nio.ByteBuffer;
+
+// DataInputOutputUtil's variable length int encoding, straight from and to ByteBuffers: values under 192 take
+// one byte, otherwise the first byte holds 6 bits and each following byte 7 more, high bit set if another
+// byte follows.
+final class VarInt {
+  private VarInt() {
+  }
+
+  // Relative read: advances the buffer's position.
+  static int read(ByteBuffer buffer) {
+    int value = buffer.get() & 0xFF;
+    if (value < 192)
+      return value;
+
+    int result = value - 192;
+    for (int shift = 6;; shift += 7) {
+      int next = buffer.get() & 0xFF;
+      result |= (next & 0x7F) << shift;
+      if ((next & 0x80) == 0)
+        return result;
+    }
+  }
+
+  // Relative write. The buffer needs room for up to 5 bytes.
+  static void write(ByteBuffer buffer, int value) {
+    if (value >= 0 && value < 192) {
+      buffer.put((byte) value);
+      return;
+    }
+
+    buffer.put((byte) (192 + (value & 0x3F)));
+    value >>>= 6;
+    while (value >= 128) {
+      buffer.put((byte) ((value & 0x7F) | 0x80));
+      value >>>= 7;
+    }
+    buffer.put((byte) value);
+  }
+
+  // Absolute reads from a MappedStorage's data file, for decoding many values without creating a buffer for
+  // each. One cursor can be reused for any number of reads.
+  static final class Cursor {
+    private final MappedStorage storage;
+    long position;
+
+    Cursor(MappedStorage storage) {
+      this.storage = storage;
+    }
+
+    int read() {
+      int value = storage.getDataByte(position++) & 0xFF;
+      if (value < 192)
+        return value;
+
+      int result = value - 192;
+      for (int shift = 6;; shift += 7) {
+        int next = storage.getDataByte(position++) & 0xFF;
+        result |= (next & 0x7F) << shift;
+        if ((next & 0x80) == 0)
+          return result;
+      }
+    }
+  }
+}
@@ -0,0 +1,216 @@
+package com.facebook.tools.intellij.ijviewer.ui;
+
+import java.awt.BorderLayout;
+import java.awt.EventQueue;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.text.NumberFormat;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.swing.BorderFactory;
+import javax.swing.Box;
+import javax.swing.BoxLayout;
+import javax.swing.JButton;
+import javax.swing.JFileChooser;
+import javax.swing.JLabel;
+import javax.swing.JPanel;
+import javax.swing.JScrollPane;
+import javax.swing.JTable;
+import javax.swing.table.AbstractTableModel;
+
+import com.facebook.tools.intellij.ijviewer.ContentAnalysis;
+import com.facebook.tools.intellij.ijviewer.IjViewer;
+import com.facebook.tools.intellij.ijviewer.ReportWriter;
+
+// Duplicated and orphaned content, as a sortable table. Analysis reads every content record, so it only
+// runs when asked to.
+final class ContentAnalysisPanel extends JPanel implements AutoCloseable {
+  private static final NumberFormat NUMBER_FORMAT = NumberFormat.getNumberInstance(Locale.US);
+
+  private final IjViewer viewer;
+  private final ExecutorService executor = Executors.newSingleThreadExecutor(r -> {
+    Thread thread = new Thread(r, "Content analysis");
+    thread.setDaemon(true);
+    return thread;
+  });
+
+  private final Rows rows = new Rows();
+  private final JButton analyzeButton = new JButton("Analyze");
+  private final JButton exportButton = new JButton("Export...");
+  private final JLabel status = new JLabel("Finds content stored more than once, and content nothing refers to");
+
+  // EDT only.
+  private ContentAnalysis analysis;
+  private Future<?> current;
+
+  ContentAnalysisPanel(IjViewer viewer) {
+    super(new BorderLayout());
+    this.viewer = viewer;
+
+    JTable table = new JTable(rows);
+    table.setAutoCreateRowSorter(true);
+
+    analyzeButton.addActionListener(e -> analyze());
+    exportButton.setEnabled(false);
+    exportButton.addActionListener(e -> export());
+
+    JPanel toolbar = new JPanel();
+    toolbar.setLayout(new BoxLayout(toolbar, BoxLayout.X_AXIS));
+    toolbar.setBorder(BorderFactory.createEmptyBorder(2, 6, 2, 6));
+    toolbar.add(status);
+    toolbar.add(Box.createHorizontalGlue());
+    toolbar.add(analyzeButton);
+    toolbar.add(exportButton);
+
+    JScrollPane scrollPane = new JScrollPane(table);
+    scrollPane.setBorder(BorderFactory.createEmptyBorder());
+    add(toolbar, BorderLayout.NORTH);
+    add(scrollPane, BorderLayout.CENTER);
+  }
+
+  private void analyze() {
+    analyzeButton.setEnabled(false);
+    exportButton.setEnabled(false);
+    status.setText("Analyzing...");
+    current = executor.submit(() -> {
+      try {
+        ContentAnalysis analysis = ContentAnalysis.analyze(viewer, Thread.currentThread()::isInterrupted,
+            (hashed, count) -> EventQueue.invokeLater(() -> {
+              status.setText("Hashed " + NUMBER_FORMAT.format(hashed) + " of " + NUMBER_FORMAT.format(count)
+                  + " contents");
+            }));
+        EventQueue.invokeLater(() -> setAnalysis(analysis));
+      } catch (CancellationException e) {
+        // Closed.
+      } catch (Throwable t) {
+        t.printStackTrace();
+        EventQueue.invokeLater(() -> {
+          status.setText("Error analyzing content: " + t);
+          analyzeButton.setEnabled(true);
+        });
+      }
+    });
+  }
+
+  private void setAnalysis(ContentAnalysis analysis) {
+    this.analysis = analysis;
+    rows.setAnalysis(analysis);
+    status.setText(NUMBER_FORMAT.format(analysis.getDuplicates().size()) + " duplicated, "
+        + NUMBER_FORMAT.format(analysis.getOrphans().size()) + " orphaned. "
+        + NUMBER_FORMAT.format(analysis.getReclaimableBytes()) + " of "
+        + NUMBER_FORMAT.format(analysis.getTotalBytes()) + " bytes reclaimable");
+    analyzeButton.setEnabled(true);
+    exportButton.setEnabled(true);
+  }
+
+  private void export() {
+    JFileChooser chooser = new JFileChooser();
+    chooser.setSelectedFile(new File("content-analysis.json"));
+    if (chooser.showSaveDialog(this) != JFileChooser.APPROVE_OPTION)
+      return;
+    File file = chooser.getSelectedFile();
+    String format = file.getName().endsWith(".tsv") ? "tsv" : "json";
+    try (PrintStream out = new PrintStream(file, "UTF-8")) {
+      ReportWriter writer = ReportWriter.create(format, out);
+      analysis.write(writer);
+      writer.close();
+    } catch (IOException e) {
+      status.setText("Couldn't write " + file + ": " + e);
+    }
+  }
+
+  @Override
+  public void close() {
+    if (current != null) {
+      current.cancel(true);
+    }
+    executor.shutdownNow();
+  }
+
+  private static final class Row {
+    final String kind;
+    final String contentIds;
+    final int copies;
+    final Integer refCount;
+    final long bytes;
+    final long reclaimableBytes;
+
+    Row(String kind, String contentIds, int copies, Integer refCount, long bytes, long reclaimableBytes) {
+      this.kind = kind;
+      this.contentIds = contentIds;
+      this.copies = copies;
+      this.refCount = refCount;
+      this.bytes = bytes;
+      this.reclaimableBytes = reclaimableBytes;
+    }
+  }
+
+  private static final class Rows extends AbstractTableModel {
+    private static final String[] COLUMNS = { "Kind", "Content ids", "Copies", "Ref count", "Bytes",
+        "Reclaimable bytes" };
+    private static final Class<?>[] COLUMN_CLASSES = { String.class, String.class, Integer.class,
+        Integer.class, Long.class, Long.class };
+
+    private List<Row> rows = new ArrayList<>();
+
+    void setAnalysis(ContentAnalysis analysis) {
+      List<Row> rows = new ArrayList<>();
+      for (ContentAnalysis.DuplicateGroup group : analysis.getDuplicates()) {
+        rows.add(new Row("Duplicate", ContentAnalysis.joinIds(group.contentIds), group.contentIds.length, null,
+            group.bytes, group.getReclaimableBytes()));
+      }
+      for (ContentAnalysis.Orphan orphan : analysis.getOrphans()) {
+        rows.add(new Row(orphan.refCount <= 0 ? "Orphan (ref count 0)" : "Orphan (no file record)",
+            String.valueOf(orphan.contentId), 1, orphan.refCount, orphan.bytes, orphan.bytes));
+      }
+      this.rows = rows;
+      fireTableDataChanged();
+    }
+
+    @Override
+    public int getRowCount() {
+      return rows.size();
+    }
+
+    @Override
+    public int getColumnCount() {
+      return COLUMNS.length;
+    }
+
+    @Override
+    public String getColumnName(int column) {
+      return COLUMNS[column];
+    }
+
+    @Override
+    public Class<?> getColumnClass(int column) {
+      return COLUMN_CLASSES[column];
+    }
+
+    @Override
+    public Object getValueAt(int rowIndex, int column) {
+      Row row = rows.get(rowIndex);
+      switch (column) {
+      case 0:
+        return row.kind;
+      case 1:
+        return row.contentIds;
+      case 2:
+        return row.copies;
+      case 3:
+        return row.refCount;
+      case 4:
+        return row.bytes;
+      default:
+        return row.reclaimableBytes;
+      }
+    }
+  }
+}
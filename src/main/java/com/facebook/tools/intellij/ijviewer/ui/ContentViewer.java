@@ -0,0 +1,304 @@
+package com.facebook.tools.intellij.ijviewer.ui;
+
+import java.awt.BorderLayout;
+import java.awt.Component;
+import java.awt.EventQueue;
+import java.awt.Font;
+import java.awt.FontMetrics;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.text.NumberFormat;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.swing.AbstractListModel;
+import javax.swing.BorderFactory;
+import javax.swing.Box;
+import javax.swing.BoxLayout;
+import javax.swing.DefaultListCellRenderer;
+import javax.swing.JLabel;
+import javax.swing.JList;
+import javax.swing.JPanel;
+import javax.swing.JScrollPane;
+import javax.swing.JToggleButton;
+
+import com.facebook.tools.intellij.ijviewer.IjViewer;
+
+// Shows cached content as a list of lines, or of 16 byte hex rows, so that Swing only ever lays out and
+// decodes the rows that are on screen. Content is read and its lines indexed off the EDT; rows appear as
+// they are indexed.
+final class ContentViewer extends JPanel implements AutoCloseable {
+  private static final NumberFormat NUMBER_FORMAT = NumberFormat.getNumberInstance(Locale.US);
+  private static final int HEX_ROW_BYTES = 16;
+  // Longer lines are cut off, rather than decoding megabytes of minified code for a single row.
+  private static final int MAX_LINE_BYTES = 4096;
+  // Content with a NUL in this many leading bytes starts out in hex mode.
+  private static final int BINARY_SNIFF_BYTES = 8000;
+
+  private final IjViewer viewer;
+  private final ExecutorService executor = Executors.newSingleThreadExecutor(r -> {
+    Thread thread = new Thread(r, "Content loader");
+    thread.setDaemon(true);
+    return thread;
+  });
+
+  private final ContentModel model = new ContentModel();
+  private final JList<String> list = new JList<>(model);
+  private final JToggleButton hexButton = new JToggleButton("Hex");
+  private final JLabel status = new JLabel(" ");
+  private final int charWidth;
+
+  // EDT only. Incremented whenever the selection changes, so stale loads can tell they're stale.
+  private int generation;
+  private Future<?> current;
+  private int longestLine;
+
+  ContentViewer(IjViewer viewer) {
+    super(new BorderLayout());
+    this.viewer = viewer;
+
+    Font font = new Font("monospaced", Font.PLAIN, 12);
+    list.setFont(font);
+    FontMetrics metrics = list.getFontMetrics(font);
+    charWidth = metrics.charWidth('m');
+    // Fixed cell sizes stop JList from measuring every row.
+    list.setFixedCellHeight(metrics.getHeight());
+    list.setFixedCellWidth(charWidth * 80);
+    list.setCellRenderer(new DefaultListCellRenderer() {
+      @Override
+      public Component getListCellRendererComponent(JList<?> list, Object value, int index, boolean isSelected,
+          boolean cellHasFocus) {
+        // Content is never markup, even if a line starts with <html>.
+        putClientProperty("html.disable", Boolean.TRUE);
+        return super.getListCellRendererComponent(list, value, index, isSelected, cellHasFocus);
+      }
+    });
+
+    hexButton.setEnabled(false);
+    hexButton.addActionListener(e -> {
+      model.setHex(hexButton.isSelected());
+      updateStatus();
+    });
+
+    JPanel toolbar = new JPanel();
+    toolbar.setLayout(new BoxLayout(toolbar, BoxLayout.X_AXIS));
+    toolbar.setBorder(BorderFactory.createEmptyBorder(2, 6, 2, 6));
+    toolbar.add(status);
+    toolbar.add(Box.createHorizontalGlue());
+    toolbar.add(hexButton);
+
+    JScrollPane scrollPane = new JScrollPane(list);
+    scrollPane.setBorder(BorderFactory.createEmptyBorder());
+    add(scrollPane, BorderLayout.CENTER);
+    add(toolbar, BorderLayout.NORTH);
+    setMessage("No content to display");
+  }
+
+  // Shows the content of fileId, or nothing if it's -1, cancelling anything still loading.
+  void show(int fileId) {
+    int generation = ++this.generation;
+    if (current != null) {
+      current.cancel(true);
+      current = null;
+    }
+    if (fileId == -1) {
+      setMessage("No content to display");
+      return;
+    }
+
+    setMessage("Loading...");
+    current = executor.submit(() -> {
+      try {
+        ByteBuffer content = viewer.readContentBuffer(fileId);
+        if (content == null) {
+          EventQueue.invokeLater(() -> {
+            if (generation == this.generation)
+              setMessage("Content is not cached");
+          });
+          return;
+        }
+
+        LineIndex lines = new LineIndex(content);
+        boolean binary = isBinary(content);
+        EventQueue.invokeLater(() -> {
+          if (generation == this.generation)
+            setContent(content, lines, binary);
+        });
+
+        boolean more;
+        do {
+          if (Thread.currentThread().isInterrupted())
+            return;
+          more = lines.indexChunk();
+          int visibleLines = more ? lines.getLineCount() - 1 : lines.getLineCount();
+          int longestLine = lines.getLongestLine();
+          boolean complete = !more;
+          EventQueue.invokeLater(() -> {
+            if (generation == this.generation)
+              onIndexed(visibleLines, longestLine, complete);
+          });
+        } while (more);
+      } catch (Throwable t) {
+        t.printStackTrace();
+        EventQueue.invokeLater(() -> {
+          if (generation == this.generation)
+            setMessage("Error loading content");
+        });
+      }
+    });
+  }
+
+  @Override
+  public void close() {
+    if (current != null) {
+      current.cancel(true);
+    }
+    executor.shutdownNow();
+  }
+
+  private void setMessage(String message) {
+    model.setMessage(message);
+    hexButton.setEnabled(false);
+    hexButton.setSelected(false);
+    status.setText(" ");
+    list.setFixedCellWidth(charWidth * 80);
+  }
+
+  private void setContent(ByteBuffer content, LineIndex lines, boolean binary) {
+    model.setContent(content, lines, binary);
+    hexButton.setEnabled(true);
+    hexButton.setSelected(binary);
+    longestLine = 0;
+    updateStatus();
+  }
+
+  private void onIndexed(int visibleLines, int longestLine, boolean complete) {
+    model.setVisibleLines(visibleLines, complete);
+    this.longestLine = longestLine;
+    updateStatus();
+  }
+
+  private void updateStatus() {
+    if (model.content == null)
+      return;
+    String size = NUMBER_FORMAT.format(model.content.limit()) + " bytes";
+    if (model.hex) {
+      status.setText(size);
+      list.setFixedCellWidth(charWidth * (10 + HEX_ROW_BYTES * 4 + 2));
+    } else {
+      list.setFixedCellWidth(charWidth * (Math.min(longestLine, MAX_LINE_BYTES) + 6));
+      status.setText(size + ", " + NUMBER_FORMAT.format(model.visibleLines) + " lines"
+          + (model.complete ? "" : " (indexing)"));
+    }
+  }
+
+  private static boolean isBinary(ByteBuffer content) {
+    int end = Math.min(content.limit(), BINARY_SNIFF_BYTES);
+    for (int i = 0; i < end; i++) {
+      if (content.get(i) == 0)
+        return true;
+    }
+    return false;
+  }
+
+  // EDT only.
+  private static final class ContentModel extends AbstractListModel<String> {
+    private String message;
+    private ByteBuffer content;
+    private LineIndex lines;
+    private boolean hex;
+    private int visibleLines;
+    private boolean complete;
+
+    void setMessage(String message) {
+      int oldSize = getSize();
+      this.message = message;
+      this.content = null;
+      this.lines = null;
+      this.visibleLines = 0;
+      this.complete = false;
+      changed(oldSize);
+    }
+
+    void setContent(ByteBuffer content, LineIndex lines, boolean hex) {
+      int oldSize = getSize();
+      this.message = null;
+      this.content = content;
+      this.lines = lines;
+      this.hex = hex;
+      this.visibleLines = 0;
+      this.complete = false;
+      changed(oldSize);
+    }
+
+    void setHex(boolean hex) {
+      int oldSize = getSize();
+      this.hex = hex;
+      changed(oldSize);
+    }
+
+    void setVisibleLines(int visibleLines, boolean complete) {
+      int oldSize = getSize();
+      this.visibleLines = visibleLines;
+      this.complete = complete;
+      if (!hex && visibleLines > oldSize) {
+        fireIntervalAdded(this, oldSize, visibleLines - 1);
+      }
+    }
+
+    private void changed(int oldSize) {
+      if (oldSize > 0)
+        fireIntervalRemoved(this, 0, oldSize - 1);
+      int size = getSize();
+      if (size > 0)
+        fireIntervalAdded(this, 0, size - 1);
+    }
+
+    @Override
+    public int getSize() {
+      if (content == null)
+        return message == null ? 0 : 1;
+      if (hex)
+        return (content.limit() + HEX_ROW_BYTES - 1) / HEX_ROW_BYTES;
+      return visibleLines;
+    }
+
+    @Override
+    public String getElementAt(int index) {
+      if (content == null)
+        return message;
+      return hex ? getHexRow(index) : getLine(index);
+    }
+
+    private String getLine(int line) {
+      int start = lines.getLineStart(line);
+      int end = lines.getLineEnd(line);
+      boolean truncated = end - start > MAX_LINE_BYTES;
+      ByteBuffer bytes = content.duplicate();
+      bytes.limit(truncated ? start + MAX_LINE_BYTES : end);
+      bytes.position(start);
+      String text = StandardCharsets.UTF_8.decode(bytes).toString();
+      return truncated ? text + " ..." : text;
+    }
+
+    private String getHexRow(int row) {
+      int start = row * HEX_ROW_BYTES;
+      int end = Math.min(content.limit(), start + HEX_ROW_BYTES);
+      StringBuilder hexText = new StringBuilder(10 + HEX_ROW_BYTES * 4);
+      StringBuilder ascii = new StringBuilder(HEX_ROW_BYTES);
+      hexText.append(String.format("%08x  ", start));
+      for (int i = start; i < start + HEX_ROW_BYTES; i++) {
+        if (i < end) {
+          int b = content.get(i) & 0xFF;
+          hexText.append(Character.forDigit(b >> 4, 16)).append(Character.forDigit(b & 0xF, 16)).append(' ');
+          ascii.append(b >= 0x20 && b < 0x7F ? (char) b : '.');
+        } else {
+          hexText.append("   ");
+        }
+      }
+      return hexText.append(' ').append(ascii).toString();
+    }
+  }
+}
@@ -0,0 +1,249 @@
+package com.facebook.tools.intellij.ijviewer.ui;
+
+import java.awt.BorderLayout;
+import java.awt.EventQueue;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.io.File;
+import java.text.NumberFormat;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.IntConsumer;
+
+import javax.swing.BorderFactory;
+import javax.swing.Box;
+import javax.swing.BoxLayout;
+import javax.swing.JButton;
+import javax.swing.JFileChooser;
+import javax.swing.JLabel;
+import javax.swing.JPanel;
+import javax.swing.JScrollPane;
+import javax.swing.JTree;
+import javax.swing.tree.DefaultMutableTreeNode;
+import javax.swing.tree.DefaultTreeModel;
+import javax.swing.tree.TreePath;
+
+import com.facebook.tools.intellij.ijviewer.CacheDiff;
+import com.facebook.tools.intellij.ijviewer.IjViewer;
+
+// What changed since an earlier copy of the cache, as a tree of the changed paths. Each node shows the
+// changes to its own record, and directories show how much their subtree grew or shrank.
+final class DiffPanel extends JPanel implements AutoCloseable {
+  private static final NumberFormat NUMBER_FORMAT = NumberFormat.getNumberInstance(Locale.US);
+  // Changes of each kind past this are counted but not added to the tree. The cap is per kind so that size
+  // and flag changes, which are found first, can't crowd out the additions, removals and moves.
+  private static final int MAX_CHANGES_PER_KIND = 25_000;
+
+  private final IjViewer viewer;
+  private final ExecutorService executor = Executors.newSingleThreadExecutor(r -> {
+    Thread thread = new Thread(r, "Cache diff");
+    thread.setDaemon(true);
+    return thread;
+  });
+
+  private final DefaultTreeModel model = new DefaultTreeModel(new DiffNode("Changes"));
+  private final JTree tree = new JTree(model);
+  private final JButton compareButton = new JButton("Compare with Earlier Cache...");
+  private final JLabel status = new JLabel("Shows what changed since an earlier copy of this cache");
+
+  // EDT only.
+  private Future<?> current;
+
+  private IntConsumer navigator = fileId -> {
+  };
+
+  DiffPanel(IjViewer viewer) {
+    super(new BorderLayout());
+    this.viewer = viewer;
+
+    tree.setRootVisible(false);
+    tree.setShowsRootHandles(true);
+    tree.addMouseListener(new MouseAdapter() {
+      @Override
+      public void mouseClicked(MouseEvent e) {
+        TreePath path = tree.getPathForLocation(e.getX(), e.getY());
+        if (e.getClickCount() == 2 && path != null) {
+          int fileId = ((DiffNode) path.getLastPathComponent()).getAfterId();
+          if (fileId > 0)
+            navigator.accept(fileId);
+        }
+      }
+    });
+    compareButton.addActionListener(e -> compare());
+
+    JPanel toolbar = new JPanel();
+    toolbar.setLayout(new BoxLayout(toolbar, BoxLayout.X_AXIS));
+    toolbar.setBorder(BorderFactory.createEmptyBorder(2, 6, 2, 6));
+    toolbar.add(status);
+    toolbar.add(Box.createHorizontalGlue());
+    toolbar.add(compareButton);
+
+    JScrollPane scrollPane = new JScrollPane(tree);
+    scrollPane.setBorder(BorderFactory.createEmptyBorder());
+    add(toolbar, BorderLayout.NORTH);
+    add(scrollPane, BorderLayout.CENTER);
+  }
+
+  // Called with the file id of a changed record that's double clicked, unless it was removed.
+  void setNavigator(IntConsumer navigator) {
+    this.navigator = navigator;
+  }
+
+  private void compare() {
+    JFileChooser chooser = new JFileChooser();
+    chooser.setFileSelectionMode(JFileChooser.DIRECTORIES_ONLY);
+    chooser.setDialogTitle("Earlier Cache Directory");
+    if (chooser.showOpenDialog(this) != JFileChooser.APPROVE_OPTION)
+      return;
+    File beforeDir = chooser.getSelectedFile();
+
+    compareButton.setEnabled(false);
+    status.setText("Opening " + beforeDir + "...");
+    current = executor.submit(() -> {
+      List<CacheDiff.Change> changes = new ArrayList<>();
+      int[] shown = new int[CacheDiff.Kind.values().length];
+      try (IjViewer before = IjViewer.forCacheDir(beforeDir)) {
+        before.preloadNames();
+        CacheDiff.Summary summary = CacheDiff.diff(before, viewer, Thread.currentThread()::isInterrupted,
+            change -> {
+              if (shown[change.kind.ordinal()] < MAX_CHANGES_PER_KIND) {
+                shown[change.kind.ordinal()]++;
+                changes.add(change);
+              }
+            }, (phase, done, total) -> EventQueue.invokeLater(() -> {
+              status.setText(phase + ": " + NUMBER_FORMAT.format(done) + " of " + NUMBER_FORMAT.format(total));
+            }));
+        DiffNode root = buildTree(changes);
+        EventQueue.invokeLater(() -> setResult(root, summary, shown));
+      } catch (CancellationException e) {
+        // Closed.
+      } catch (Throwable t) {
+        t.printStackTrace();
+        EventQueue.invokeLater(() -> {
+          status.setText("Error comparing with " + beforeDir + ": " + t);
+          compareButton.setEnabled(true);
+        });
+      }
+    });
+  }
+
+  // shown is how many changes of each kind are in the tree.
+  private void setResult(DiffNode root, CacheDiff.Summary summary, int[] shown) {
+    model.setRoot(root);
+    for (int row = 0; row < tree.getRowCount() && row < 20; row++) {
+      tree.expandRow(row);
+    }
+    long notShown = 0;
+    for (CacheDiff.Kind kind : CacheDiff.Kind.values()) {
+      notShown += summary.getCount(kind) - shown[kind.ordinal()];
+    }
+    long duplicates = summary.getCount(CacheDiff.Kind.DUPLICATE_PATH);
+    status.setText(NUMBER_FORMAT.format(summary.getCount(CacheDiff.Kind.ADDED)) + " added, "
+        + NUMBER_FORMAT.format(summary.getCount(CacheDiff.Kind.REMOVED)) + " removed, "
+        + NUMBER_FORMAT.format(summary.getCount(CacheDiff.Kind.MOVED)) + " moved, "
+        + NUMBER_FORMAT.format(summary.getCount(CacheDiff.Kind.CONTENT_CHANGED)) + " with new content, "
+        + NUMBER_FORMAT.format(summary.getCount(CacheDiff.Kind.FLAGS_CHANGED)) + " with new flags"
+        + (duplicates > 0 ? ", " + NUMBER_FORMAT.format(duplicates) + " duplicate paths. " : ". ")
+        + formatDelta(summary.bytesAfter - summary.bytesBefore)
+        + (notShown > 0 ? " (" + NUMBER_FORMAT.format(notShown) + " changes past the first "
+            + NUMBER_FORMAT.format(MAX_CHANGES_PER_KIND) + " of each kind aren't in the tree)" : ""));
+    compareButton.setEnabled(true);
+  }
+
+  private static DiffNode buildTree(List<CacheDiff.Change> changes) {
+    DiffNode root = new DiffNode("Changes");
+    for (CacheDiff.Change change : changes) {
+      DiffNode node = root;
+      String path = change.path;
+      int start = 0;
+      if (path.startsWith("/")) {
+        node = node.getChild("/");
+        start = 1;
+      }
+      while (start < path.length()) {
+        int end = path.indexOf('/', start);
+        if (end < 0)
+          end = path.length();
+        if (end > start)
+          node = node.getChild(path.substring(start, end));
+        start = end + 1;
+      }
+      node.changes.add(change);
+    }
+    return root;
+  }
+
+  private static String formatDelta(long bytes) {
+    return (bytes >= 0 ? "+" : "") + NUMBER_FORMAT.format(bytes) + " bytes";
+  }
+
+  @Override
+  public void close() {
+    if (current != null) {
+      current.cancel(true);
+    }
+    executor.shutdownNow();
+  }
+
+  private static final class DiffNode extends DefaultMutableTreeNode {
+    private final String name;
+    final List<CacheDiff.Change> changes = new ArrayList<>(1);
+    private Map<String, DiffNode> childrenByName;
+
+    DiffNode(String name) {
+      this.name = name;
+    }
+
+    DiffNode getChild(String childName) {
+      if (childrenByName == null)
+        childrenByName = new HashMap<>();
+      DiffNode child = childrenByName.get(childName);
+      if (child == null) {
+        child = new DiffNode(childName);
+        childrenByName.put(childName, child);
+        add(child);
+      }
+      return child;
+    }
+
+    int getAfterId() {
+      return changes.isEmpty() ? 0 : changes.get(0).afterId;
+    }
+
+    @Override
+    public String toString() {
+      StringBuilder label = new StringBuilder(name);
+      for (int i = 0; i < changes.size(); i++) {
+        label.append(i == 0 ? "  " : ", ").append(describe(changes.get(i)));
+      }
+      return label.toString();
+    }
+
+    private static String describe(CacheDiff.Change change) {
+      switch (change.kind) {
+      case ADDED:
+        return "added (" + NUMBER_FORMAT.format(change.after) + " bytes)";
+      case REMOVED:
+        return "removed (" + NUMBER_FORMAT.format(change.before) + " bytes)";
+      case MOVED:
+        return "moved from " + change.beforePath;
+      case CONTENT_CHANGED:
+        return "content " + NUMBER_FORMAT.format(change.before) + " -> " + NUMBER_FORMAT.format(change.after)
+            + " bytes";
+      case FLAGS_CHANGED:
+        return "flags 0x" + Long.toHexString(change.before) + " -> 0x" + Long.toHexString(change.after);
+      case DUPLICATE_PATH:
+        return change.after + " records with this path (" + change.before + " before)";
+      default:
+        return formatDelta(change.after - change.before);
+      }
+    }
+  }
+}
@@ -1,69 +1,124 @@
 package com.facebook.tools.intellij.ijviewer.ui;
 
-import java.util.ArrayList;
-import java.util.List;
-import java.util.concurrent.ForkJoinPool;
-import java.util.concurrent.ForkJoinTask;
-import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
-final class DiskSizeComputer {
+import com.facebook.tools.intellij.ijviewer.DerivedIndex;
+import com.facebook.tools.intellij.ijviewer.DiskSizes;
+import com.facebook.tools.intellij.ijviewer.IjViewer;
 
+final class DiskSizeComputer implements AutoCloseable {
   private final Listener listener;
+  // DiskSizes is a single sequential pass over records.dat, so one thread is all it needs. It is shared by
+  // every computation, so recomputing doesn't create threads. The same thread then saves the DerivedIndex,
+  // or loads it instead of computing anything if it's current.
+  private final ExecutorService executor = Executors.newSingleThreadExecutor(r -> {
+    Thread thread = new Thread(r, "Disk size computer");
+    thread.setDaemon(true);
+    return thread;
+  });
+  private CompletableFuture<Long> current;
 
   DiskSizeComputer(Listener listener) {
     this.listener = listener;
   }
 
-  void computeDiskSizes(RecordTreeNode root) {
-    new ForkJoinPool(100).execute(new DiskSizeTask(root));
-  }
-
-  private class DiskSizeTask extends RecursiveTask<Long> {
-    private final RecordTreeNode node;
-
-    DiskSizeTask(RecordTreeNode node) {
-      this.node = node;
+  // Starts computing the size of every directory under root, cancelling any computation still running.
+  synchronized CompletableFuture<Long> computeDiskSizes(RecordTreeNode root) {
+    if (current != null) {
+      current.cancel(true);
     }
+    CompletableFuture<Long> computation = new CompletableFuture<>();
+    RecordTreeNodeTable nodes = root.nodes;
+    executor.execute(() -> {
+      if (computation.isCancelled())
+        return;
+      nodes.computingSizes = true;
+      listener.onEvent(Event.STARTED_COMPUTING, root);
+      try {
+        DerivedIndex index = DerivedIndex.openIfCurrent(nodes.viewer);
+        DiskSizes sizes;
+        if (index != null) {
+          sizes = index.getDiskSizes();
+          notifySized(nodes.viewer, sizes);
+        } else {
+          sizes = DiskSizes.compute(nodes.viewer, computation::isCancelled, new DiskSizes.ProgressListener() {
+            @Override
+            public void onProgress(int recordsScanned, int recordCount, long bytesSummed) {
+              notifyProgress(recordsScanned, bytesSummed);
+            }
 
-    @Override
-    protected Long compute() {
-      // Add up the size of all files, and create subtasks for folders.
+            @Override
+            public void onSized(int fileId, long size, boolean directory) {
+              listener.onSized(fileId, size, directory);
+            }
+          });
+        }
+        nodes.diskSizes = sizes;
+        nodes.computingSizes = false;
+        listener.onEvent(Event.DONE_COMPUTING, root);
+        computation.complete(sizes.getSize(root.fileId));
 
-      List<DiskSizeTask> subfolderTasks = new ArrayList<>();
-      long fileSize = 0;
-      for (RecordTreeNode child : node.getChildren()) {
-        if (child.getSizeOnDisk() >= 0) {
-          fileSize += child.getSizeOnDisk();
-        } else {
-          child.setSizeOnDisk(-1); // in progress
-          notifyEvent(Event.STARTED_COMPUTING, node);
-          subfolderTasks.add(new DiskSizeTask(child));
+        // Save what we've derived, so that reopening this cache is quick.
+        if (index == null) {
+          index = DerivedIndex.build(nodes.viewer, sizes, computation::isCancelled);
+          // The index holds the same sizes, mapped, so the 8 bytes a record on the heap can go.
+          nodes.diskSizes = index.getDiskSizes();
         }
+        nodes.index = index;
+      } catch (CancellationException e) {
+        computation.cancel(false);
+      } catch (Throwable t) {
+        if (!computation.completeExceptionally(t)) {
+          t.printStackTrace();
+        }
+      } finally {
+        nodes.computingSizes = false;
       }
+    });
+    current = computation;
+    return computation;
+  }
 
-      long totalSize = fileSize + ForkJoinTask.invokeAll(subfolderTasks).stream().mapToLong(ForkJoinTask::join).sum();
-
-      node.setSizeOnDisk(totalSize);
-
-      notifyEvent(Event.DONE_COMPUTING, node);
-      return totalSize;
+  @Override
+  public synchronized void close() {
+    if (current != null) {
+      current.cancel(true);
+      current = null;
     }
+    executor.shutdownNow();
   }
 
-  private void notifyEvent(Event event, RecordTreeNode node) {
-    // Limit events for performance reasons to children of the root.
-    if (node.parent != null && node.parent.parent == null) {
-      java.awt.EventQueue.invokeLater(() -> {
-        listener.onEvent(Event.DONE_COMPUTING, node);
-      });
+  // Sizes loaded from an index arrive all at once.
+  private void notifySized(IjViewer viewer, DiskSizes sizes) {
+    IjViewer.Records records = viewer.records;
+    for (int id = 1; id < sizes.getRecordCount(); id++) {
+      if (!records.isFlagSet(id, IjViewer.Records.FREE_RECORD_FLAG))
+        listener.onSized(id, sizes.getSize(id), records.isDirectory(id));
     }
   }
 
+  private void notifyProgress(int recordsScanned, long bytesSummed) {
+    java.awt.EventQueue.invokeLater(() -> {
+      listener.onProgress(recordsScanned, bytesSummed);
+    });
+  }
+
   enum Event {
     STARTED_COMPUTING, DONE_COMPUTING
   }
 
   interface Listener {
+    // Called on the computing thread. The sizes of every node under node may have changed.
     public void onEvent(Event event, RecordTreeNode node);
+
+    public default void onProgress(long recordsScanned, long bytesSummed) {
+    }
+
+    // Called on the computing thread, with each record's size as it becomes known.
+    public default void onSized(int fileId, long size, boolean directory) {
+    }
   }
 }
@@ -0,0 +1,180 @@
+package com.facebook.tools.intellij.ijviewer.ui;
+
+import java.awt.BorderLayout;
+import java.awt.EventQueue;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.text.NumberFormat;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntConsumer;
+
+import javax.swing.BorderFactory;
+import javax.swing.Box;
+import javax.swing.BoxLayout;
+import javax.swing.JLabel;
+import javax.swing.JPanel;
+import javax.swing.JScrollPane;
+import javax.swing.JTable;
+import javax.swing.JTextField;
+import javax.swing.Timer;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import javax.swing.table.AbstractTableModel;
+
+import com.facebook.tools.intellij.ijviewer.IjViewer;
+import com.facebook.tools.intellij.ijviewer.NameIndex;
+
+// Files and directories whose names contain what's typed, through the viewer's NameIndex. Queries run off
+// the EDT as the query changes, and only the latest one's results are shown.
+final class FindByName extends JPanel implements AutoCloseable {
+  private static final NumberFormat NUMBER_FORMAT = NumberFormat.getNumberInstance(Locale.US);
+  private static final int MAX_ROWS = 1000;
+  private static final int TYPING_DELAY_MILLIS = 150;
+
+  private final IjViewer viewer;
+  private final ExecutorService executor = Executors.newSingleThreadExecutor(r -> {
+    Thread thread = new Thread(r, "Find by name");
+    thread.setDaemon(true);
+    return thread;
+  });
+
+  private final Rows rows = new Rows();
+  private final JTable table = new JTable(rows);
+  private final JTextField query = new JTextField(30);
+  private final JLabel status = new JLabel("Finds files and directories by part of their name");
+  private final Timer typingTimer;
+
+  // EDT only.
+  private int queries;
+
+  private IntConsumer navigator = fileId -> {
+  };
+
+  FindByName(IjViewer viewer) {
+    super(new BorderLayout());
+    this.viewer = viewer;
+
+    table.addMouseListener(new MouseAdapter() {
+      @Override
+      public void mouseClicked(MouseEvent e) {
+        int row = table.rowAtPoint(e.getPoint());
+        if (e.getClickCount() == 2 && row >= 0) {
+          navigator.accept(rows.matches.get(row).fileId);
+        }
+      }
+    });
+
+    typingTimer = new Timer(TYPING_DELAY_MILLIS, e -> find());
+    typingTimer.setRepeats(false);
+    query.addActionListener(e -> find());
+    query.getDocument().addDocumentListener(new DocumentListener() {
+      @Override
+      public void insertUpdate(DocumentEvent e) {
+        typingTimer.restart();
+      }
+
+      @Override
+      public void removeUpdate(DocumentEvent e) {
+        typingTimer.restart();
+      }
+
+      @Override
+      public void changedUpdate(DocumentEvent e) {
+        typingTimer.restart();
+      }
+    });
+
+    JPanel toolbar = new JPanel();
+    toolbar.setLayout(new BoxLayout(toolbar, BoxLayout.X_AXIS));
+    toolbar.setBorder(BorderFactory.createEmptyBorder(2, 6, 2, 6));
+    toolbar.add(query);
+    toolbar.add(Box.createHorizontalStrut(12));
+    toolbar.add(status);
+    toolbar.add(Box.createHorizontalGlue());
+
+    JScrollPane scrollPane = new JScrollPane(table);
+    scrollPane.setBorder(BorderFactory.createEmptyBorder());
+    add(toolbar, BorderLayout.NORTH);
+    add(scrollPane, BorderLayout.CENTER);
+  }
+
+  // Called with the file id of a row that's double clicked.
+  void setNavigator(IntConsumer navigator) {
+    this.navigator = navigator;
+  }
+
+  private void find() {
+    typingTimer.stop();
+    String text = query.getText();
+    int queryNumber = ++queries;
+    if (text.isEmpty()) {
+      rows.setMatches(new ArrayList<>());
+      status.setText(" ");
+      return;
+    }
+    NameIndex index = viewer.getNameIndex();
+    if (index == null) {
+      status.setText("Names haven't been indexed yet (and never are with --lru-names)");
+      return;
+    }
+
+    executor.submit(() -> {
+      long start = System.nanoTime();
+      try {
+        NameIndex.Result result = index.find(text, MAX_ROWS);
+        long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        EventQueue.invokeLater(() -> {
+          if (queryNumber != queries)
+            return;
+          rows.setMatches(result.matches);
+          status.setText(NUMBER_FORMAT.format(result.matchCount) + " matches in " + millis + "ms"
+              + (result.matchCount > result.matches.size() ? " (showing the first "
+                  + NUMBER_FORMAT.format(result.matches.size()) + ")" : ""));
+        });
+      } catch (Throwable t) {
+        t.printStackTrace();
+        EventQueue.invokeLater(() -> status.setText("Error finding " + text + ": " + t));
+      }
+    });
+  }
+
+  @Override
+  public void close() {
+    typingTimer.stop();
+    executor.shutdownNow();
+  }
+
+  private static final class Rows extends AbstractTableModel {
+    List<NameIndex.Match> matches = new ArrayList<>();
+
+    void setMatches(List<NameIndex.Match> matches) {
+      this.matches = matches;
+      fireTableDataChanged();
+    }
+
+    @Override
+    public int getRowCount() {
+      return matches.size();
+    }
+
+    @Override
+    public int getColumnCount() {
+      return 1;
+    }
+
+    @Override
+    public String getColumnName(int column) {
+      return "Path";
+    }
+
+    @Override
+    public Object getValueAt(int rowIndex, int column) {
+      return matches.get(rowIndex).path;
+    }
+  }
+}
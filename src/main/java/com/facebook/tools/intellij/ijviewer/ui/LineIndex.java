@@ -0,0 +1,82 @@
+package com.facebook.tools.intellij.ijviewer.ui;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+// Where each line starts in a content buffer. Built by one thread a chunk at a time, while the EDT reads the
+// lines found so far.
+final class LineIndex {
+  private static final int CHUNK_SIZE = 1 << 20;
+
+  private final ByteBuffer content;
+  // starts is replaced when it grows, and always written before lineCount.
+  private volatile int[] starts = new int[1024];
+  private volatile int lineCount;
+  private volatile int longestLine;
+  private int scanned;
+
+  LineIndex(ByteBuffer content) {
+    this.content = content;
+  }
+
+  // Indexes the next chunk. Returns false once the whole buffer has been indexed.
+  boolean indexChunk() {
+    int limit = content.limit();
+    if (scanned == limit && lineCount > 0)
+      return false;
+
+    int[] starts = this.starts;
+    int count = lineCount;
+    int longest = longestLine;
+    int lineStart = count == 0 ? 0 : starts[count - 1];
+    if (count == 0) {
+      starts[count++] = 0;
+    }
+    int end = Math.min(limit, scanned + CHUNK_SIZE);
+    for (int i = scanned; i < end; i++) {
+      if (content.get(i) == '\n' && i + 1 < limit) {
+        if (count == starts.length) {
+          starts = Arrays.copyOf(starts, count * 2);
+          this.starts = starts;
+        }
+        starts[count++] = i + 1;
+        longest = Math.max(longest, i - lineStart);
+        lineStart = i + 1;
+      }
+    }
+    if (end == limit) {
+      longest = Math.max(longest, limit - lineStart);
+    }
+    scanned = end;
+    longestLine = longest;
+    lineCount = count;
+    return scanned < limit;
+  }
+
+  boolean isComplete() {
+    return scanned == content.limit();
+  }
+
+  int getLineCount() {
+    return lineCount;
+  }
+
+  // In bytes, of the lines indexed so far.
+  int getLongestLine() {
+    return longestLine;
+  }
+
+  int getLineStart(int line) {
+    return starts[line];
+  }
+
+  // Excludes the line terminator.
+  int getLineEnd(int line) {
+    int end = line + 1 < lineCount ? starts[line + 1] : content.limit();
+    if (end > getLineStart(line) && content.get(end - 1) == '\n')
+      end--;
+    if (end > getLineStart(line) && content.get(end - 1) == '\r')
+      end--;
+    return end;
+  }
+}
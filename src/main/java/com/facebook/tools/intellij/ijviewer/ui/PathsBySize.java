@@ -1,8 +1,167 @@
 package com.facebook.tools.intellij.ijviewer.ui;
 
+import java.awt.BorderLayout;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.io.IOException;
+import java.util.function.IntConsumer;
+
+import javax.swing.BorderFactory;
+import javax.swing.Box;
+import javax.swing.BoxLayout;
+import javax.swing.JComboBox;
+import javax.swing.JLabel;
 import javax.swing.JPanel;
+import javax.swing.JScrollPane;
 import javax.swing.JTable;
+import javax.swing.Timer;
+import javax.swing.table.AbstractTableModel;
+
+import com.facebook.tools.intellij.ijviewer.IjViewer;
+import com.facebook.tools.intellij.ijviewer.TopK;
 
+// The largest files and directories, kept in bounded min-heaps that are fed sizes as DiskSizeComputer finds
+// them. The table takes a sorted snapshot of a heap a few times a second while sizes are coming in, and only
+// looks up the paths of rows that are painted.
 public class PathsBySize extends JPanel {
-  private final JTable table = null;
+  private static final int MAX_ROWS = 1000;
+  private static final int REFRESH_MILLIS = 250;
+
+  private final IjViewer viewer;
+  private final Rows rows = new Rows();
+  private final JTable table = new JTable(rows);
+  private final JComboBox<String> kind = new JComboBox<>(new String[] { "Files", "Directories" });
+  private final JLabel status = new JLabel(" ");
+  private final Timer refreshTimer;
+
+  // Guarded by this.
+  private TopK files = new TopK(MAX_ROWS);
+  private TopK directories = new TopK(MAX_ROWS);
+  private boolean changed;
+
+  private IntConsumer navigator = fileId -> {
+  };
+
+  PathsBySize(IjViewer viewer) {
+    super(new BorderLayout());
+    this.viewer = viewer;
+
+    table.getColumnModel().getColumn(0).setPreferredWidth(120);
+    table.getColumnModel().getColumn(1).setPreferredWidth(600);
+    table.addMouseListener(new MouseAdapter() {
+      @Override
+      public void mouseClicked(MouseEvent e) {
+        int row = table.rowAtPoint(e.getPoint());
+        if (e.getClickCount() == 2 && row >= 0) {
+          navigator.accept(rows.ids[row]);
+        }
+      }
+    });
+    kind.addActionListener(e -> refresh(true));
+
+    JPanel toolbar = new JPanel();
+    toolbar.setLayout(new BoxLayout(toolbar, BoxLayout.X_AXIS));
+    toolbar.setBorder(BorderFactory.createEmptyBorder(2, 6, 2, 6));
+    toolbar.add(status);
+    toolbar.add(Box.createHorizontalGlue());
+    toolbar.add(kind);
+
+    JScrollPane scrollPane = new JScrollPane(table);
+    scrollPane.setBorder(BorderFactory.createEmptyBorder());
+    add(toolbar, BorderLayout.NORTH);
+    add(scrollPane, BorderLayout.CENTER);
+
+    refreshTimer = new Timer(REFRESH_MILLIS, e -> refresh(false));
+    refreshTimer.start();
+  }
+
+  // Called with the file id of a row that's double clicked.
+  void setNavigator(IntConsumer navigator) {
+    this.navigator = navigator;
+  }
+
+  // Any thread. Forgets every size offered so far, for when sizes are recomputed.
+  synchronized void reset() {
+    files = new TopK(MAX_ROWS);
+    directories = new TopK(MAX_ROWS);
+    changed = true;
+  }
+
+  // Any thread.
+  synchronized void offer(int fileId, long size, boolean directory) {
+    if (directory) {
+      changed |= directories.offer(fileId, size);
+    } else {
+      changed |= files.offer(fileId, size);
+    }
+  }
+
+  void dispose() {
+    refreshTimer.stop();
+  }
+
+  private void refresh(boolean force) {
+    int[] ids;
+    long[] sizes;
+    boolean showDirectories = kind.getSelectedIndex() == 1;
+    synchronized (this) {
+      if (!changed && !force)
+        return;
+      changed = false;
+      TopK heap = showDirectories ? directories : files;
+      sizes = new long[heap.size()];
+      ids = heap.toSortedIds(sizes);
+    }
+    rows.setRows(ids, sizes);
+    status.setText(ids.length == 0 ? "Waiting for sizes" : "The " + ids.length + " largest "
+        + (showDirectories ? "directories" : "files"));
+  }
+
+  private final class Rows extends AbstractTableModel {
+    int[] ids = new int[0];
+    private long[] sizes = new long[0];
+    // Looked up as rows are painted.
+    private String[] paths = new String[0];
+
+    void setRows(int[] ids, long[] sizes) {
+      this.ids = ids;
+      this.sizes = sizes;
+      this.paths = new String[ids.length];
+      fireTableDataChanged();
+    }
+
+    @Override
+    public int getRowCount() {
+      return ids.length;
+    }
+
+    @Override
+    public int getColumnCount() {
+      return 2;
+    }
+
+    @Override
+    public String getColumnName(int column) {
+      return column == 0 ? "Size on disk" : "Path";
+    }
+
+    @Override
+    public Class<?> getColumnClass(int column) {
+      return column == 0 ? Long.class : String.class;
+    }
+
+    @Override
+    public Object getValueAt(int row, int column) {
+      if (column == 0)
+        return sizes[row];
+      if (paths[row] == null) {
+        try {
+          paths[row] = viewer.getPath(ids[row]);
+        } catch (IOException e) {
+          paths[row] = "#" + ids[row];
+        }
+      }
+      return paths[row];
+    }
+  }
 }
@@ -1,22 +1,33 @@
 package com.facebook.tools.intellij.ijviewer.ui;
 
 import java.awt.Component;
+import java.util.Arrays;
 import java.util.function.Consumer;
 
 import javax.swing.BorderFactory;
 import javax.swing.JTree;
+import javax.swing.Timer;
+import javax.swing.event.TreeExpansionEvent;
+import javax.swing.event.TreeExpansionListener;
 import javax.swing.tree.DefaultTreeCellRenderer;
+import javax.swing.tree.TreePath;
 import javax.swing.tree.TreeSelectionModel;
 
 import com.facebook.tools.intellij.ijviewer.IjViewer;
 
 public class RecordTree extends JTree {
+  private static final int MAX_SELECT_DEPTH = 4096;
+  private static final int TRIM_MILLIS = 1000;
+
   private final IconLoader iconLoader = new IconLoader();
+  private final IjViewer viewer;
+  private final Timer trimTimer = new Timer(TRIM_MILLIS, e -> trimToBudget());
 
   private Consumer<Integer> selectionChangeListener = i -> {
   };
 
   RecordTree(IjViewer viewer) {
+    this.viewer = viewer;
     setBorder(BorderFactory.createEmptyBorder());
     setModel(new RecordTreeModel(viewer));
     setRootVisible(false);
@@ -32,6 +43,17 @@ public class RecordTree extends JTree {
       RecordTreeNode node = (RecordTreeNode) e.getNewLeadSelectionPath().getLastPathComponent();
       selectionChangeListener.accept(node.fileId);
     });
+    addTreeExpansionListener(new TreeExpansionListener() {
+      @Override
+      public void treeExpanded(TreeExpansionEvent event) {
+        getModel().getNodes().touch((RecordTreeNode) event.getPath().getLastPathComponent());
+      }
+
+      @Override
+      public void treeCollapsed(TreeExpansionEvent event) {
+        getModel().getNodes().touch((RecordTreeNode) event.getPath().getLastPathComponent());
+      }
+    });
 
     setCellRenderer(new DefaultTreeCellRenderer() {
       @Override
@@ -71,6 +93,77 @@ public class RecordTree extends JTree {
     return (RecordTreeModel) super.getModel();
   }
 
+  // Expands the tree down to fileId and selects it. Returns false if it isn't under the root, or one of its
+  // ancestors is still loading its children.
+  boolean selectFileId(int fileId) {
+    RecordTreeModel model = getModel();
+    RecordTreeNode root = (RecordTreeNode) model.getRoot();
+    IjViewer.Records records = viewer.records;
+
+    int[] chain = new int[16];
+    int length = 0;
+    for (int id = fileId; id != root.fileId; id = records.getParentId(id)) {
+      if (id <= 0 || id >= records.getRecordCount() || length == MAX_SELECT_DEPTH)
+        return false;
+      if (length == chain.length)
+        chain = Arrays.copyOf(chain, length * 2);
+      chain[length++] = id;
+    }
+
+    RecordTreeNode node = root;
+    for (int i = length - 1; i >= 0; i--) {
+      RecordTreeNode child = null;
+      for (int c = 0; c < model.getChildCount(node); c++) {
+        RecordTreeNode candidate = (RecordTreeNode) model.getChild(node, c);
+        if (candidate.fileId == chain[i]) {
+          child = candidate;
+          break;
+        }
+      }
+      if (child == null)
+        return false;
+      node = child;
+    }
+
+    TreePath path = new TreePath(node.getTreePath());
+    setSelectionPath(path);
+    scrollPathToVisible(path);
+    return true;
+  }
+
+  // Unloads the children of the least recently used directories that aren't expanded, and don't have the
+  // selection under them, until the loaded nodes fit in the memory budget again.
+  void trimToBudget() {
+    RecordTreeModel model = getModel();
+    RecordTreeNodeTable nodes = model.getNodes();
+    if (!nodes.isOverBudget())
+      return;
+    TreePath selection = getSelectionPath();
+    for (RecordTreeNode node : nodes.getLoadedDirectories()) {
+      if (!nodes.isOverBudget())
+        break;
+      // Directories under one that's been unloaded are gone already.
+      if (node.parent == null || !node.hasLoadedChildren())
+        continue;
+      TreePath path = new TreePath(node.getTreePath());
+      if (isExpanded(path) || (selection != null && path.isDescendant(selection)))
+        continue;
+      model.unloadChildren(node);
+    }
+  }
+
+  @Override
+  public void addNotify() {
+    super.addNotify();
+    trimTimer.start();
+  }
+
+  @Override
+  public void removeNotify() {
+    trimTimer.stop();
+    super.removeNotify();
+  }
+
   void setSelectionChangeListener(Consumer<Integer> listener) {
     this.selectionChangeListener = listener;
   }
@@ -1,8 +1,13 @@
 package com.facebook.tools.intellij.ijviewer.ui;
 
+import java.awt.EventQueue;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
+import javax.swing.event.TreeModelEvent;
 import javax.swing.event.TreeModelListener;
 import javax.swing.tree.TreeModel;
 import javax.swing.tree.TreePath;
@@ -10,34 +15,140 @@ import javax.swing.tree.TreePath;
 import com.facebook.tools.intellij.ijviewer.IjViewer;
 
 final class RecordTreeModel implements TreeModel {
-  private final IjViewer viewer;
+  // Directories with more children than this are loaded off the event dispatch thread, and shown a page at
+  // a time as they're ready.
+  private static final int BACKGROUND_LOAD_THRESHOLD = 2000;
+  private static final int PAGE_SIZE = 500;
+  // How much heap loaded children can take before collapsed directories start being unloaded. An eighth of
+  // the heap, unless it's set with -Dijviewer.treeMemoryMb.
+  private static final long MEMORY_BUDGET_BYTES = Long.getLong("ijviewer.treeMemoryMb",
+      Runtime.getRuntime().maxMemory() / 8 / (1024 * 1024)) * 1024 * 1024;
+
+  private final RecordTreeNodeTable nodes;
   final List<TreeModelListener> treeModelListeners = new ArrayList<TreeModelListener>(1);
+  private final ExecutorService childLoader = Executors.newSingleThreadExecutor(r -> {
+    Thread thread = new Thread(r, "Children loader");
+    thread.setDaemon(true);
+    return thread;
+  });
 
   RecordTreeModel(IjViewer viewer) {
-    this.viewer = viewer;
+    this.nodes = new RecordTreeNodeTable(viewer, MEMORY_BUDGET_BYTES);
+  }
+
+  RecordTreeNodeTable getNodes() {
+    return nodes;
   }
 
   @Override
   public Object getRoot() {
-    return RecordTreeNode.findOrCreateNode(viewer, null, 2); /// TODO: this isn't necessarily the root. Fix this
-                                                             /// hack.
+    return nodes.findOrCreateNode(null, 2); /// TODO: this isn't necessarily the root. Fix this
+                                            /// hack.
+  }
+
+  private RecordTreeNode[] getVisibleChildren(RecordTreeNode node) {
+    if (node.visibleChildren == null) {
+      if (node.hasLoadedChildren() || node.getChildCountEstimate() <= BACKGROUND_LOAD_THRESHOLD) {
+        node.visibleChildren = node.getChildren();
+      } else {
+        node.visibleChildren = new RecordTreeNode[0];
+        node.loadingChildren = true;
+        childLoader.execute(() -> {
+          RecordTreeNode[] children = node.getChildren();
+          EventQueue.invokeLater(() -> publishNextPage(node, children));
+        });
+      }
+    }
+    return node.visibleChildren;
+  }
+
+  // Publishes one page of children, then queues the next, so that the tree repaints in between.
+  private void publishNextPage(RecordTreeNode node, RecordTreeNode[] children) {
+    int from = node.visibleChildren.length;
+    int to = Math.min(children.length, from + PAGE_SIZE);
+    node.visibleChildren = Arrays.copyOf(children, to);
+
+    int[] indices = new int[to - from];
+    Object[] inserted = new Object[to - from];
+    for (int i = from; i < to; i++) {
+      indices[i - from] = i;
+      inserted[i - from] = children[i];
+    }
+    if (to == children.length) {
+      node.loadingChildren = false;
+    } else {
+      EventQueue.invokeLater(() -> publishNextPage(node, children));
+    }
+
+    TreeModelEvent event = new TreeModelEvent(this, node.getTreePath(), indices, inserted);
+    treeModelListeners.forEach(listener -> listener.treeNodesInserted(event));
+    if (!node.loadingChildren) {
+      fireNodesChanged(node, null);
+    }
+  }
+
+  // Fires treeNodesChanged for the given visible children of parent, or for parent itself if indices is null.
+  void fireNodesChanged(RecordTreeNode parent, int[] indices) {
+    TreeModelEvent event;
+    if (indices == null) {
+      event = new TreeModelEvent(this, parent.getTreePath());
+    } else {
+      Object[] children = new Object[indices.length];
+      for (int i = 0; i < indices.length; i++) {
+        children[i] = parent.visibleChildren[indices[i]];
+      }
+      event = new TreeModelEvent(this, parent.getTreePath(), indices, children);
+    }
+    treeModelListeners.forEach(listener -> listener.treeNodesChanged(event));
+  }
+
+  // Unloads node's children and everything below them, unless some of them are still loading. The node must
+  // be collapsed. Returns whether they were unloaded.
+  boolean unloadChildren(RecordTreeNode node) {
+    if (isLoading(node))
+      return false;
+    RecordTreeNode[] children = node.unloadChildren();
+    node.visibleChildren = null;
+    if (children != null)
+      nodes.childrenUnloaded(node, children);
+    TreeModelEvent event = new TreeModelEvent(this, node.getTreePath());
+    treeModelListeners.forEach(listener -> listener.treeStructureChanged(event));
+    return true;
+  }
+
+  private static boolean isLoading(RecordTreeNode node) {
+    if (node.loadingChildren)
+      return true;
+    RecordTreeNode[] children = node.getLoadedChildren();
+    if (children != null) {
+      for (RecordTreeNode child : children) {
+        if (child.parent == node && isLoading(child))
+          return true;
+      }
+    }
+    return false;
+  }
+
+  void dispose() {
+    childLoader.shutdownNow();
   }
 
   @Override
   public Object getChild(Object parent, int index) {
-    RecordTreeNode[] children = ((RecordTreeNode) parent).getChildren();
-    return children[index];
+    return getVisibleChildren((RecordTreeNode) parent)[index];
   }
 
   @Override
   public int getChildCount(Object parent) {
-    RecordTreeNode[] children = ((RecordTreeNode) parent).getChildren();
-    return children.length;
+    return getVisibleChildren((RecordTreeNode) parent).length;
   }
 
   @Override
   public boolean isLeaf(Object node) {
-    return getChildCount(node) == 0;
+    RecordTreeNode recordNode = (RecordTreeNode) node;
+    if (recordNode.visibleChildren != null)
+      return recordNode.visibleChildren.length == 0 && !recordNode.loadingChildren;
+    return recordNode.getChildCountEstimate() == 0;
   }
 
   @Override
@@ -48,7 +159,7 @@ final class RecordTreeModel implements TreeModel {
 
   @Override
   public int getIndexOfChild(Object parent, Object child) {
-    RecordTreeNode[] children = ((RecordTreeNode) parent).getChildren();
+    RecordTreeNode[] children = getVisibleChildren((RecordTreeNode) parent);
     for (int i = 0; i < children.length; i++) {
       if (children[i].equals(child))
         return i;
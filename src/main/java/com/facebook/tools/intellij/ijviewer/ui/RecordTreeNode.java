@@ -1,49 +1,39 @@
 package com.facebook.tools.intellij.ijviewer.ui;
 
-import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
-import java.util.Comparator;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
-import java.util.Optional;
 
+import com.facebook.tools.intellij.ijviewer.ChildOrder;
+import com.facebook.tools.intellij.ijviewer.DerivedIndex;
+import com.facebook.tools.intellij.ijviewer.DiskSizes;
 import com.facebook.tools.intellij.ijviewer.IjViewer;
 
 class RecordTreeNode {
-  private static Map<Integer, RecordTreeNode> nodeMap = new HashMap<>();
-
   final int fileId;
 
+  final RecordTreeNodeTable nodes;
   private final IjViewer viewer;
   final RecordTreeNode parent;
-  private RecordTreeNode[] children;
+  private volatile RecordTreeNode[] children;
+  // The children RecordTreeModel has published so far. Only touched on the event dispatch thread.
+  RecordTreeNode[] visibleChildren;
+  boolean loadingChildren;
   private String name;
-  private Optional<Boolean> hasCachedContent = Optional.empty();
+  // 0 until it's looked up, then 1 if the file has cached content and -1 if not.
+  private byte hasCachedContent;
 
   // The size of this node on disk.
   volatile long sizeOnDisk = -2;
 
-  private RecordTreeNode(IjViewer viewer, RecordTreeNode parent, int fileId) {
-    this.viewer = viewer;
+  RecordTreeNode(RecordTreeNodeTable nodes, RecordTreeNode parent, int fileId) {
+    this.nodes = nodes;
+    this.viewer = nodes.viewer;
     this.parent = parent;
     this.fileId = fileId;
   }
 
-  public static RecordTreeNode findOrCreateNode(IjViewer viewer, RecordTreeNode parent, int id) {
-    RecordTreeNode node = nodeMap.get(id);
-    if (node == null) {
-      node = new RecordTreeNode(viewer, parent, id);
-      nodeMap.put(id, node);
-    }
-    return node;
-  }
-
-  private RecordTreeNode findOrCreateNode(RecordTreeNode parent, int id) {
-    return findOrCreateNode(viewer, parent, id);
-  }
-
   public String getPath() {
     if (parent == null)
       return "/";
@@ -51,21 +41,24 @@ class RecordTreeNode {
   }
 
   boolean hasCachedContent() {
-    return hasCachedContent.orElseGet(() -> {
-      boolean hasContent = viewer.records.getContentId(fileId) != 0;
-      hasCachedContent = Optional.of(hasContent);
-      return hasContent;
-    });
+    if (hasCachedContent == 0)
+      hasCachedContent = (byte) (viewer.records.getContentId(fileId) != 0 ? 1 : -1);
+    return hasCachedContent > 0;
   }
 
   long getSizeOnDisk() {
     if (sizeOnDisk < 0) {
-      if (!viewer.records.isDirectory(fileId)) {
+      DiskSizes diskSizes = nodes.diskSizes;
+      if (diskSizes != null) {
+        sizeOnDisk = diskSizes.getSize(fileId);
+      } else if (!viewer.records.isDirectory(fileId)) {
         if (hasCachedContent()) {
           sizeOnDisk = viewer.content.getContentLength(viewer.records.getContentId(fileId));
         } else {
           sizeOnDisk = 0;
         }
+      } else if (nodes.computingSizes) {
+        return -1;
       }
     }
     return sizeOnDisk;
@@ -93,10 +86,6 @@ class RecordTreeNode {
     return -1;
   }
 
-  void setSizeOnDisk(long sizeOnDisk) {
-    this.sizeOnDisk = sizeOnDisk;
-  }
-
   private boolean isAncestor(int fileId) {
     RecordTreeNode parent = this.parent;
     while (parent != null) {
@@ -107,6 +96,30 @@ class RecordTreeNode {
     return false;
   }
 
+  boolean hasLoadedChildren() {
+    return children != null;
+  }
+
+  // The children if they're loaded, otherwise null.
+  RecordTreeNode[] getLoadedChildren() {
+    return children;
+  }
+
+  // The number of children, without decoding or sorting them.
+  int getChildCountEstimate() {
+    RecordTreeNode[] children = this.children;
+    if (children != null)
+      return children.length;
+    if (!viewer.records.isDirectory(fileId))
+      return 0;
+    try {
+      DerivedIndex index = nodes.index;
+      return index != null ? index.getChildCount(fileId) : viewer.attribs.getChildCount(fileId);
+    } catch (Throwable e) {
+      return 0;
+    }
+  }
+
   synchronized RecordTreeNode[] getChildren() {
     if (children != null)
       return children;
@@ -117,31 +130,31 @@ class RecordTreeNode {
     }
 
     try {
-      int[] childrenIds = viewer.attribs.getChildren(fileId);
+      DerivedIndex index = nodes.index;
+      int[] childrenIds = index != null ? index.getChildren(fileId) : viewer.attribs.getChildren(fileId);
 
-      List<RecordTreeNode> children = new ArrayList<>();
+      int[] ids = new int[childrenIds.length];
+      int count = 0;
       for (int i = 0; i < childrenIds.length; i++) {
-        RecordTreeNode childNode = findOrCreateNode(this, childrenIds[i]);
         if (isAncestor(childrenIds[i])) {
-          // System.out.println("Warning: loop detected: " + childNode.getPath());
+          // System.out.println("Warning: loop detected: " + childrenIds[i]);
         } else {
-          children.add(childNode);
+          ids[count++] = childrenIds[i];
         }
       }
+      ids = Arrays.copyOf(ids, count);
 
       // Sort the children by whether they're a directory, then by name.
-      Comparator<RecordTreeNode> sortByIsDirectory = Comparator
-          .comparing(node -> viewer.records.isDirectory(node.fileId));
-      Comparator<RecordTreeNode> sortByName = Comparator.comparing(node -> {
-        try {
-          return viewer.getName(node.fileId);
-        } catch (IOException e) {
-          return "";
-        }
-      });
-      children.sort(sortByIsDirectory.reversed().thenComparing(sortByName));
+      String[] names = ChildOrder.sort(viewer, ids);
 
-      this.children = children.toArray(new RecordTreeNode[0]);
+      RecordTreeNode[] children = new RecordTreeNode[count];
+      for (int i = 0; i < count; i++) {
+        children[i] = nodes.findOrCreateNode(this, ids[i]);
+        if (children[i].name == null)
+          children[i].name = names[i];
+      }
+      this.children = children;
+      nodes.childrenLoaded(this, children, names);
 
       return this.children;
 
@@ -153,6 +166,14 @@ class RecordTreeNode {
     return children;
   }
 
+  // Drops the children, so that they're loaded again from storage the next time they're asked for. Returns
+  // the children that were loaded, if any.
+  synchronized RecordTreeNode[] unloadChildren() {
+    RecordTreeNode[] children = this.children;
+    this.children = null;
+    return children;
+  }
+
   private String getName() {
     if (name == null) {
       try {
@@ -178,6 +199,10 @@ class RecordTreeNode {
       suffix = " [" + sizeOnDisk + "]";
     }
 
+    if (loadingChildren) {
+      suffix += " [loading]";
+    }
+
     return getName() + suffix;
   }
 }
\ No newline at end of file
@@ -0,0 +1,143 @@
+package com.facebook.tools.intellij.ijviewer.ui;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import com.facebook.tools.intellij.ijviewer.DerivedIndex;
+import com.facebook.tools.intellij.ijviewer.DiskSizes;
+import com.facebook.tools.intellij.ijviewer.IjViewer;
+
+// The RecordTreeNodes of one viewer session, indexed directly by file id. File ids are dense, so arrays
+// avoid boxing and per-entry objects, and are safe to populate from DiskSizeComputer's workers while the UI
+// is expanding nodes. The arrays are pages of PAGE_SIZE ids, allocated the first time a node in them is
+// created, so a session that only looks at part of a big cache doesn't pay 4 bytes for every record.
+//
+// Nodes are only kept while their parent's children are loaded. The table estimates how much heap each
+// loaded directory's children take, and keeps the directories in least recently used order, so that once
+// it's over budget RecordTree can unload the collapsed ones that haven't been looked at in a while.
+// Unloaded children are rebuilt from the mapped storage the next time they're needed.
+final class RecordTreeNodeTable {
+  // Rough shallow sizes, with compressed oops: a RecordTreeNode, its name (a String and its bytes, less the
+  // characters) and the two slots that point at it, in children and visibleChildren.
+  private static final int NODE_BYTES = 48;
+  private static final int NAME_BYTES = 40;
+  private static final int SLOT_BYTES = 8;
+  private static final int ARRAY_BYTES = 32;
+
+  private static final int PAGE_SHIFT = 12;
+  private static final int PAGE_SIZE = 1 << PAGE_SHIFT;
+
+  final IjViewer viewer;
+  private final int recordCount;
+  private final AtomicReferenceArray<AtomicReferenceArray<RecordTreeNode>> pages;
+  volatile DiskSizes diskSizes;
+  volatile DerivedIndex index;
+  volatile boolean computingSizes;
+
+  private final long budgetBytes;
+  // Loaded directories, least recently used first, with the estimated size of their children. Guarded by
+  // itself.
+  private final LinkedHashMap<RecordTreeNode, Long> loaded = new LinkedHashMap<>(16, 0.75f, true);
+  private volatile long loadedBytes;
+  private volatile int loadedNodeCount;
+
+  RecordTreeNodeTable(IjViewer viewer, long budgetBytes) {
+    this.viewer = viewer;
+    this.recordCount = viewer.records.getRecordCount();
+    this.pages = new AtomicReferenceArray<>((recordCount + PAGE_SIZE - 1) >>> PAGE_SHIFT);
+    this.budgetBytes = budgetBytes;
+  }
+
+  RecordTreeNode findOrCreateNode(RecordTreeNode parent, int id) {
+    if (id < 0 || id >= recordCount) {
+      // Not a record we know about; don't cache it.
+      return new RecordTreeNode(this, parent, id);
+    }
+
+    AtomicReferenceArray<RecordTreeNode> page = pages.get(id >>> PAGE_SHIFT);
+    if (page == null) {
+      pages.compareAndSet(id >>> PAGE_SHIFT, null, new AtomicReferenceArray<>(PAGE_SIZE));
+      page = pages.get(id >>> PAGE_SHIFT);
+    }
+
+    int index = id & (PAGE_SIZE - 1);
+    RecordTreeNode node = page.get(index);
+    if (node != null)
+      return node;
+
+    node = new RecordTreeNode(this, parent, id);
+    if (page.compareAndSet(index, null, node))
+      return node;
+    return page.get(index);
+  }
+
+  // Called once parent's children are loaded. They're only loaded again after they've been unloaded.
+  void childrenLoaded(RecordTreeNode parent, RecordTreeNode[] children, String[] names) {
+    long bytes = ARRAY_BYTES * 2;
+    for (int i = 0; i < children.length; i++) {
+      bytes += NODE_BYTES + NAME_BYTES + SLOT_BYTES + (names[i] == null ? 0 : names[i].length());
+    }
+    synchronized (loaded) {
+      loaded.put(parent, bytes);
+      loadedBytes += bytes;
+      loadedNodeCount += children.length;
+    }
+  }
+
+  // Marks a loaded directory as just used.
+  void touch(RecordTreeNode node) {
+    synchronized (loaded) {
+      loaded.get(node);
+    }
+  }
+
+  boolean isOverBudget() {
+    return loadedBytes > budgetBytes;
+  }
+
+  // Loaded directories, least recently used first.
+  List<RecordTreeNode> getLoadedDirectories() {
+    synchronized (loaded) {
+      return new ArrayList<>(loaded.keySet());
+    }
+  }
+
+  // Forgets the nodes that were under directory, which has just unloaded children, and everything below them.
+  void childrenUnloaded(RecordTreeNode directory, RecordTreeNode[] children) {
+    synchronized (loaded) {
+      forget(directory, children);
+    }
+  }
+
+  private void forget(RecordTreeNode directory, RecordTreeNode[] children) {
+    Long bytes = loaded.remove(directory);
+    if (bytes != null) {
+      loadedBytes -= bytes;
+      loadedNodeCount -= children.length;
+    }
+    for (RecordTreeNode child : children) {
+      AtomicReferenceArray<RecordTreeNode> page =
+          child.fileId >= 0 && child.fileId < recordCount ? pages.get(child.fileId >>> PAGE_SHIFT) : null;
+      if (page != null)
+        page.compareAndSet(child.fileId & (PAGE_SIZE - 1), child, null);
+      // A child that's also under another directory stays loaded there.
+      RecordTreeNode[] grandchildren = child.parent == directory ? child.unloadChildren() : null;
+      if (grandchildren != null)
+        forget(child, grandchildren);
+    }
+  }
+
+  long getBudgetBytes() {
+    return budgetBytes;
+  }
+
+  long getLoadedBytes() {
+    return loadedBytes;
+  }
+
+  int getLoadedNodeCount() {
+    return loadedNodeCount;
+  }
+}
@@ -0,0 +1,249 @@
+package com.facebook.tools.intellij.ijviewer.ui;
+
+import java.awt.BorderLayout;
+import java.awt.EventQueue;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.text.NumberFormat;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Queue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.IntConsumer;
+import java.util.regex.PatternSyntaxException;
+
+import javax.swing.BorderFactory;
+import javax.swing.Box;
+import javax.swing.BoxLayout;
+import javax.swing.JButton;
+import javax.swing.JCheckBox;
+import javax.swing.JLabel;
+import javax.swing.JPanel;
+import javax.swing.JScrollPane;
+import javax.swing.JTable;
+import javax.swing.JTextField;
+import javax.swing.Timer;
+import javax.swing.table.AbstractTableModel;
+
+import com.facebook.tools.intellij.ijviewer.ContentSearch;
+import com.facebook.tools.intellij.ijviewer.IjViewer;
+
+// Searches every cached file's content for a string or a regex. Matches are queued by the search threads and
+// moved into the table a few times a second, so the table fills in while the search is running.
+final class SearchPanel extends JPanel implements AutoCloseable {
+  private static final NumberFormat NUMBER_FORMAT = NumberFormat.getNumberInstance(Locale.US);
+  private static final int MAX_ROWS = 10_000;
+  private static final int REFRESH_MILLIS = 250;
+
+  private final IjViewer viewer;
+  private final ExecutorService executor = Executors.newSingleThreadExecutor(r -> {
+    Thread thread = new Thread(r, "Content search");
+    thread.setDaemon(true);
+    return thread;
+  });
+
+  private final Rows rows = new Rows();
+  private final JTable table = new JTable(rows);
+  private final JTextField query = new JTextField(30);
+  private final JCheckBox regex = new JCheckBox("Regex");
+  private final JButton searchButton = new JButton("Search");
+  private final JLabel status = new JLabel("Finds files whose content contains some text");
+  private final Timer refreshTimer;
+
+  // EDT only. Each search has its own queue, so a stopped search can't add to the next one's matches.
+  private Queue<ContentSearch.Match> pending = new ConcurrentLinkedQueue<>();
+  private Future<?> current;
+  private int searches;
+  private String progress;
+
+  private IntConsumer navigator = fileId -> {
+  };
+
+  SearchPanel(IjViewer viewer) {
+    super(new BorderLayout());
+    this.viewer = viewer;
+
+    table.getColumnModel().getColumn(0).setPreferredWidth(450);
+    table.getColumnModel().getColumn(1).setPreferredWidth(80);
+    table.getColumnModel().getColumn(2).setPreferredWidth(450);
+    table.addMouseListener(new MouseAdapter() {
+      @Override
+      public void mouseClicked(MouseEvent e) {
+        int row = table.rowAtPoint(e.getPoint());
+        if (e.getClickCount() == 2 && row >= 0) {
+          navigator.accept(rows.matches.get(row).fileId);
+        }
+      }
+    });
+
+    query.addActionListener(e -> search());
+    searchButton.addActionListener(e -> {
+      if (current != null) {
+        stop();
+      } else {
+        search();
+      }
+    });
+
+    JPanel toolbar = new JPanel();
+    toolbar.setLayout(new BoxLayout(toolbar, BoxLayout.X_AXIS));
+    toolbar.setBorder(BorderFactory.createEmptyBorder(2, 6, 2, 6));
+    toolbar.add(query);
+    toolbar.add(regex);
+    toolbar.add(searchButton);
+    toolbar.add(Box.createHorizontalStrut(12));
+    toolbar.add(status);
+    toolbar.add(Box.createHorizontalGlue());
+
+    JScrollPane scrollPane = new JScrollPane(table);
+    scrollPane.setBorder(BorderFactory.createEmptyBorder());
+    add(toolbar, BorderLayout.NORTH);
+    add(scrollPane, BorderLayout.CENTER);
+
+    refreshTimer = new Timer(REFRESH_MILLIS, e -> refresh());
+    refreshTimer.start();
+  }
+
+  // Called with the file id of a row that's double clicked.
+  void setNavigator(IntConsumer navigator) {
+    this.navigator = navigator;
+  }
+
+  private void search() {
+    String text = query.getText();
+    if (text.isEmpty())
+      return;
+    stop();
+    int searchNumber = ++searches;
+    Queue<ContentSearch.Match> pending = new ConcurrentLinkedQueue<>();
+    this.pending = pending;
+    rows.clear();
+    boolean isRegex = regex.isSelected();
+    searchButton.setText("Stop");
+    progress = "Searching...";
+    status.setText(progress);
+
+    current = executor.submit(() -> {
+      Thread thread = Thread.currentThread();
+      try {
+        // Only the rows that can be shown are queued. The rest are counted without building their paths.
+        long count = ContentSearch.search(viewer, text, isRegex, thread::isInterrupted, MAX_ROWS, pending::add,
+            (searched, contentCount) -> EventQueue.invokeLater(() -> {
+              if (searchNumber == searches && current != null)
+                progress = "Searched " + NUMBER_FORMAT.format(searched) + " of "
+                    + NUMBER_FORMAT.format(contentCount) + " contents";
+            }));
+        finishedLater(searchNumber, NUMBER_FORMAT.format(count) + " matches");
+      } catch (CancellationException e) {
+        // Stopped, or closed.
+      } catch (PatternSyntaxException e) {
+        finishedLater(searchNumber, "Bad regex: " + e.getDescription());
+      } catch (Throwable t) {
+        t.printStackTrace();
+        finishedLater(searchNumber, "Error searching content: " + t);
+      }
+    });
+  }
+
+  private void stop() {
+    if (current == null)
+      return;
+    current.cancel(true);
+    searches++;
+    finished("Stopped");
+  }
+
+  // Ignored if the search has been stopped, since a newer one may be running by then.
+  private void finishedLater(int searchNumber, String message) {
+    EventQueue.invokeLater(() -> {
+      if (searchNumber == searches)
+        finished(message);
+    });
+  }
+
+  private void finished(String message) {
+    current = null;
+    progress = message;
+    searchButton.setText("Search");
+    refresh();
+  }
+
+  private void refresh() {
+    List<ContentSearch.Match> added = new ArrayList<>();
+    for (ContentSearch.Match match; rows.matches.size() + added.size() < MAX_ROWS
+        && (match = pending.poll()) != null;) {
+      added.add(match);
+    }
+    if (!added.isEmpty())
+      rows.add(added);
+    if (progress != null) {
+      String shown = rows.matches.size() >= MAX_ROWS ? progress + " (showing the first "
+          + NUMBER_FORMAT.format(MAX_ROWS) + ")" : progress;
+      status.setText(shown);
+    }
+  }
+
+  @Override
+  public void close() {
+    refreshTimer.stop();
+    if (current != null) {
+      current.cancel(true);
+    }
+    executor.shutdownNow();
+  }
+
+  private static final class Rows extends AbstractTableModel {
+    private static final String[] COLUMNS = { "Path", "Offset", "Line" };
+
+    final List<ContentSearch.Match> matches = new ArrayList<>();
+
+    void clear() {
+      matches.clear();
+      fireTableDataChanged();
+    }
+
+    void add(List<ContentSearch.Match> added) {
+      int first = matches.size();
+      matches.addAll(added);
+      fireTableRowsInserted(first, matches.size() - 1);
+    }
+
+    @Override
+    public int getRowCount() {
+      return matches.size();
+    }
+
+    @Override
+    public int getColumnCount() {
+      return COLUMNS.length;
+    }
+
+    @Override
+    public String getColumnName(int column) {
+      return COLUMNS[column];
+    }
+
+    @Override
+    public Class<?> getColumnClass(int column) {
+      return column == 1 ? Integer.class : String.class;
+    }
+
+    @Override
+    public Object getValueAt(int rowIndex, int column) {
+      ContentSearch.Match match = matches.get(rowIndex);
+      switch (column) {
+      case 0:
+        return match.path;
+      case 1:
+        return match.offset;
+      default:
+        return match.preview;
+      }
+    }
+  }
+}
@@ -0,0 +1,120 @@
+package com.facebook.tools.intellij.ijviewer.ui;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.swing.Timer;
+
+// Collects changes to nodes from any thread, and flushes them to the tree model at most once a frame as
+// treeNodesChanged events for just the nodes that are showing. Unlike treeStructureChanged, this keeps the
+// tree's expansion state and doesn't force it to lay everything out again.
+//
+// JTree measures every changed node that's showing again, at 25-100us a node, so once a flush has spent
+// MAX_FLUSH_MILLIS it leaves the remaining parents for the next frame. Otherwise the end of a size
+// computation, which changes everything that's showing, holds the EDT for as long as there are rows.
+final class TreeChangeBatcher {
+  private static final int FRAME_MILLIS = 33;
+  private static final int MAX_FLUSH_MILLIS = 10;
+  private static final boolean LOG_STATS = Boolean.getBoolean("ijviewer.logEventStats");
+
+  private final RecordTreeModel model;
+  private final ConcurrentLinkedQueue<RecordTreeNode> changedNodes = new ConcurrentLinkedQueue<>();
+  private final ConcurrentLinkedQueue<RecordTreeNode> changedSubtrees = new ConcurrentLinkedQueue<>();
+  private final AtomicBoolean flushScheduled = new AtomicBoolean();
+  private final Timer timer;
+
+  TreeChangeBatcher(RecordTreeModel model) {
+    this.model = model;
+    this.timer = new Timer(FRAME_MILLIS, e -> flush());
+    timer.setRepeats(false);
+  }
+
+  void nodeChanged(RecordTreeNode node) {
+    changedNodes.add(node);
+    scheduleFlush();
+  }
+
+  // The node and everything below it that's showing.
+  void subtreeChanged(RecordTreeNode node) {
+    changedSubtrees.add(node);
+    scheduleFlush();
+  }
+
+  private void scheduleFlush() {
+    if (flushScheduled.compareAndSet(false, true)) {
+      java.awt.EventQueue.invokeLater(timer::restart);
+    }
+  }
+
+  private void flush() {
+    flushScheduled.set(false);
+    long start = System.nanoTime();
+
+    Set<RecordTreeNode> changed = new HashSet<>();
+    for (RecordTreeNode node; (node = changedNodes.poll()) != null;) {
+      changed.add(node);
+    }
+    for (RecordTreeNode root; (root = changedSubtrees.poll()) != null;) {
+      ArrayDeque<RecordTreeNode> queue = new ArrayDeque<>();
+      queue.add(root);
+      while (!queue.isEmpty()) {
+        RecordTreeNode node = queue.poll();
+        if (changed.add(node) && node.visibleChildren != null) {
+          for (RecordTreeNode child : node.visibleChildren) {
+            queue.add(child);
+          }
+        }
+      }
+    }
+
+    // Group by parent, so there's one event per parent.
+    Map<RecordTreeNode, List<RecordTreeNode>> byParent = new LinkedHashMap<>();
+    for (RecordTreeNode node : changed) {
+      if (node.parent == null) {
+        model.fireNodesChanged(node, null);
+      } else if (node.parent.visibleChildren != null) {
+        byParent.computeIfAbsent(node.parent, p -> new ArrayList<>()).add(node);
+      }
+    }
+
+    int events = 0;
+    int fired = 0;
+    int deferred = 0;
+    for (Map.Entry<RecordTreeNode, List<RecordTreeNode>> entry : byParent.entrySet()) {
+      if (System.nanoTime() - start > MAX_FLUSH_MILLIS * 1_000_000L) {
+        changedNodes.addAll(entry.getValue());
+        deferred += entry.getValue().size();
+        continue;
+      }
+      RecordTreeNode parent = entry.getKey();
+      RecordTreeNode[] children = parent.visibleChildren;
+      int[] indices = new int[children.length];
+      int count = 0;
+      for (int i = 0; i < children.length; i++) {
+        if (changed.contains(children[i]))
+          indices[count++] = i;
+      }
+      if (count > 0) {
+        model.fireNodesChanged(parent, Arrays.copyOf(indices, count));
+        fired += count;
+        events++;
+      }
+    }
+    if (deferred > 0) {
+      scheduleFlush();
+    }
+
+    if (LOG_STATS) {
+      System.out.println("Flushed " + fired + " changed nodes as " + events + " events in "
+          + (System.nanoTime() - start) / 1000 + "us, " + deferred + " left for the next frame");
+    }
+  }
+}
@@ -1,24 +1,41 @@
 package com.facebook.tools.intellij.ijviewer.ui;
 
+import java.awt.BorderLayout;
 import java.awt.Component;
-import java.awt.Font;
-import java.io.DataInputStream;
-import java.nio.charset.StandardCharsets;
-
+import java.awt.EventQueue;
+import java.awt.Toolkit;
+import java.awt.event.ActionEvent;
+import java.awt.event.KeyEvent;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
+import java.io.IOException;
+import java.text.NumberFormat;
+import java.util.Locale;
+import java.util.concurrent.CancellationException;
+import java.util.function.IntConsumer;
+
+import javax.swing.AbstractAction;
 import javax.swing.BorderFactory;
+import javax.swing.JComponent;
 import javax.swing.JFrame;
+import javax.swing.JLabel;
+import javax.swing.JOptionPane;
 import javax.swing.JPanel;
 import javax.swing.JScrollPane;
 import javax.swing.JSplitPane;
 import javax.swing.JTabbedPane;
 import javax.swing.JTable;
-import javax.swing.JTextArea;
-import javax.swing.event.TreeModelEvent;
+import javax.swing.KeyStroke;
+import javax.swing.Timer;
 
 import com.facebook.tools.intellij.ijviewer.IjViewer;
-import com.intellij.openapi.util.io.FileUtilRt;
+import com.facebook.tools.intellij.ijviewer.PathIndex;
 
 public class UI {
+  private static final NumberFormat NUMBER_FORMAT = NumberFormat.getNumberInstance(Locale.US);
+  private static final int HEAP_REFRESH_MILLIS = 1000;
+  private static final long MB = 1024 * 1024;
+
   private final IjViewer viewer;
 
   public UI(IjViewer viewer) {
@@ -26,9 +43,12 @@ public class UI {
   }
 
   public void show() {
-    JTextArea contentText = new JTextArea();
-    contentText.setFont(new Font("monospaced", Font.PLAIN, 12));
-    contentText.setEditable(false);
+    ContentViewer contentViewer = new ContentViewer(viewer);
+    ContentAnalysisPanel contentAnalysis = new ContentAnalysisPanel(viewer);
+    PathsBySize pathsBySize = new PathsBySize(viewer);
+    SearchPanel search = new SearchPanel(viewer);
+    FindByName findByName = new FindByName(viewer);
+    DiffPanel diff = new DiffPanel(viewer);
 
     JTable propertiesTable = new JTable();
     RecordProperties propertiesModel = new RecordProperties(viewer);
@@ -37,25 +57,7 @@ public class UI {
     RecordTree recordsTree = new RecordTree(viewer);
     recordsTree.setSelectionChangeListener(fileId -> {
       propertiesModel.setCurrentSelectionId(fileId);
-      contentText.setText("No content to display");
-      if (fileId == -1)
-        return;
-
-      try {
-        DataInputStream content = viewer.readContent(fileId);
-        if (content != null) {
-          byte[] bytes = FileUtilRt.loadBytes(content);
-          if (bytes != null) {
-            String coerced = new String(bytes, StandardCharsets.UTF_8);
-            contentText.setText(coerced);
-            return;
-          }
-        }
-        contentText.setText("Content is not cached");
-      } catch (Throwable t) {
-        t.printStackTrace();
-        contentText.setText("Error loading content");
-      }
+      contentViewer.show(fileId);
     });
 
     JFrame f = new JFrame("IntelliJ Viewer");
@@ -68,24 +70,137 @@ public class UI {
     detail.setBorder(BorderFactory.createEmptyBorder());
     detail.setOrientation(JSplitPane.VERTICAL_SPLIT);
 
-    detail.setTopComponent(createScrollPane(contentText));
+    detail.setTopComponent(contentViewer);
     detail.setBottomComponent(createScrollPane(propertiesTable));
 
     mainPanel.setLeftComponent(createScrollPane(recordsTree));
     mainPanel.setRightComponent(detail);
 
     tabbedPane.addTab("Cache", mainPanel);
-    tabbedPane.addTab("Large Content", new JPanel());
-    f.setContentPane(tabbedPane);
-    f.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
+    tabbedPane.addTab("Large Content", pathsBySize);
+    tabbedPane.addTab("Content Analysis", contentAnalysis);
+    tabbedPane.addTab("Search", search);
+    tabbedPane.addTab("Find by Name", findByName);
+    tabbedPane.addTab("Diff", diff);
+
+    JLabel status = new JLabel(" ");
+    status.setBorder(BorderFactory.createEmptyBorder(2, 6, 2, 6));
+
+    IntConsumer navigator = fileId -> {
+      tabbedPane.setSelectedComponent(mainPanel);
+      if (!recordsTree.selectFileId(fileId)) {
+        status.setText("Couldn't show #" + fileId + " in the tree yet");
+      }
+    };
+    pathsBySize.setNavigator(navigator);
+    search.setNavigator(navigator);
+    findByName.setNavigator(navigator);
+    diff.setNavigator(navigator);
+
+    // Go to path, with Cmd-G (Ctrl-G elsewhere).
+    PathIndex pathIndex = new PathIndex(viewer);
+    f.getRootPane().getInputMap(JComponent.WHEN_IN_FOCUSED_WINDOW).put(KeyStroke.getKeyStroke(KeyEvent.VK_G,
+        Toolkit.getDefaultToolkit().getMenuShortcutKeyMaskEx()), "goToPath");
+    f.getRootPane().getActionMap().put("goToPath", new AbstractAction() {
+      @Override
+      public void actionPerformed(ActionEvent e) {
+        String path = JOptionPane.showInputDialog(f, "Path:", "Go to Path", JOptionPane.PLAIN_MESSAGE);
+        if (path == null || path.trim().isEmpty())
+          return;
+        int fileId;
+        try {
+          fileId = pathIndex.resolve(path.trim());
+        } catch (IOException ex) {
+          status.setText("Error resolving " + path + ": " + ex);
+          return;
+        }
+        if (fileId < 0) {
+          status.setText("No record for " + path);
+          return;
+        }
+        tabbedPane.setSelectedComponent(mainPanel);
+        status.setText(recordsTree.selectFileId(fileId) ? "#" + fileId
+            : "Couldn't show #" + fileId + " in the tree yet");
+      }
+    });
+
+    // How much of the heap is used, and how much of the tree's memory budget.
+    JLabel heap = new JLabel(" ");
+    heap.setBorder(BorderFactory.createEmptyBorder(2, 6, 2, 6));
+    RecordTreeNodeTable treeNodes = recordsTree.getModel().getNodes();
+    Timer heapTimer = new Timer(HEAP_REFRESH_MILLIS, e -> {
+      Runtime runtime = Runtime.getRuntime();
+      long used = runtime.totalMemory() - runtime.freeMemory();
+      heap.setText("Heap " + NUMBER_FORMAT.format(used / MB) + " of "
+          + NUMBER_FORMAT.format(runtime.maxMemory() / MB) + " MB, tree "
+          + NUMBER_FORMAT.format(treeNodes.getLoadedBytes() / MB) + " of "
+          + NUMBER_FORMAT.format(treeNodes.getBudgetBytes() / MB) + " MB ("
+          + NUMBER_FORMAT.format(treeNodes.getLoadedNodeCount()) + " nodes)");
+    });
+    heapTimer.setInitialDelay(0);
+    heapTimer.start();
+
+    JPanel statusBar = new JPanel(new BorderLayout());
+    statusBar.add(status, BorderLayout.CENTER);
+    statusBar.add(heap, BorderLayout.EAST);
+
+    JPanel contentPane = new JPanel(new BorderLayout());
+    contentPane.add(tabbedPane, BorderLayout.CENTER);
+    contentPane.add(statusBar, BorderLayout.SOUTH);
+    f.setContentPane(contentPane);
+    f.setDefaultCloseOperation(JFrame.DISPOSE_ON_CLOSE);
 
     f.pack();
     f.setVisible(true);
 
-    new DiskSizeComputer((e, node) -> {
-      TreeModelEvent event = new TreeModelEvent(this, node.getTreePath());
-      recordsTree.getModel().treeModelListeners.forEach(listener -> listener.treeStructureChanged(event));
-    }).computeDiskSizes((RecordTreeNode) recordsTree.getModel().getRoot());
+    TreeChangeBatcher treeChanges = new TreeChangeBatcher(recordsTree.getModel());
+    DiskSizeComputer diskSizeComputer = new DiskSizeComputer(new DiskSizeComputer.Listener() {
+      @Override
+      public void onEvent(DiskSizeComputer.Event e, RecordTreeNode node) {
+        if (e == DiskSizeComputer.Event.STARTED_COMPUTING)
+          pathsBySize.reset();
+        treeChanges.subtreeChanged(node);
+      }
+
+      @Override
+      public void onSized(int fileId, long size, boolean directory) {
+        pathsBySize.offer(fileId, size, directory);
+      }
+
+      @Override
+      public void onProgress(long recordsScanned, long bytesSummed) {
+        status.setText("Computing sizes: " + NUMBER_FORMAT.format(recordsScanned) + " records, "
+            + NUMBER_FORMAT.format(bytesSummed) + " bytes");
+      }
+    });
+    diskSizeComputer.computeDiskSizes((RecordTreeNode) recordsTree.getModel().getRoot())
+        .whenComplete((totalSize, t) -> EventQueue.invokeLater(() -> {
+          if (t == null) {
+            status.setText("Total size: " + NUMBER_FORMAT.format(totalSize) + " bytes");
+          } else if (!(t instanceof CancellationException)) {
+            status.setText("Error computing sizes: " + t);
+          }
+        }));
+
+    f.addWindowListener(new WindowAdapter() {
+      @Override
+      public void windowClosed(WindowEvent e) {
+        heapTimer.stop();
+        diskSizeComputer.close();
+        contentViewer.close();
+        contentAnalysis.close();
+        search.close();
+        findByName.close();
+        diff.close();
+        pathsBySize.dispose();
+        recordsTree.getModel().dispose();
+        try {
+          viewer.close();
+        } catch (IOException ex) {
+          ex.printStackTrace();
+        }
+      }
+    });
   }
 
   private static JScrollPane createScrollPane(Component child) {